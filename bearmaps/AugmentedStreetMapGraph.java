@@ -1,13 +1,22 @@
 package bearmaps;
 
 import bearmaps.utils.Constants;
+import bearmaps.utils.graph.LandmarkGraph;
+import bearmaps.utils.graph.ch.ContractionHierarchy;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
 import bearmaps.utils.graph.streetmap.Node;
 import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import bearmaps.utils.ps.GridPointSet;
+import bearmaps.utils.ps.IndexedPointSet;
 import bearmaps.utils.ps.KDTree;
-import bearmaps.utils.ps.Point;
-import bearmaps.utils.trie.MyTrieSet;
+import bearmaps.utils.ps.SegmentRTree;
+import bearmaps.utils.search.InvertedIndex;
+import bearmaps.utils.trie.CompactTrie;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 /**
  * An augmented graph that is more powerful that a standard StreetMapGraph.
@@ -31,39 +40,108 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * Longitude centered on Berkeley.
      */
     private static final double ROOT_LON = (Constants.ROOT_ULLON + Constants.ROOT_LRLON) / 2;
-    KDTree kdTree;
-    List<Point> points;
-    HashMap<Point, Node> pointNodePair;
-    //MyTrieSet trie;
-    MyTrieSet trie;
+    /**
+     * Flag of vertices with at least one edge, which routes can start and end at.
+     */
+    static final int NAVIGABLE = 1;
+    /**
+     * Flag of vertices with a name.
+     */
+    static final int NAMED = 2;
+    /**
+     * The number of points of a batch snapped together by one thread.
+     */
+    private static final int SNAP_BLOCK_SIZE = 1 << 12;
+    /**
+     * A prefix matching at most this many names is ranked by distance by looking at every
+     * node with those names. One matching more is ranked by searching outward from the
+     * location through namedPoints instead, since its names are dense enough that the
+     * search soon finds the best.
+     */
+    private static final int NEARBY_NAME_SCAN = 256;
+
+    /**
+     * The spatial indexes closest and closestNamed can search vertices with.
+     */
+    public enum PointIndex {
+        /** One KDTree over every navigable or named vertex, searched through views. */
+        KD_TREE,
+        /** A GridPointSet over the navigable vertices and another over the named ones. */
+        GRID
+    }
+
+    /**
+     * The navigable and the named vertices at their projected coordinates, with their
+     * index in the compact graph as payload.
+     */
+    IndexedPointSet navigablePoints;
+    IndexedPointSet namedPoints;
+    /**
+     * The road segments at their projected coordinates, each once, with the index in
+     * the compact graph of the edge from its lower numbered end as payload.
+     */
+    SegmentRTree segmentTree;
+    /**
+     * Accepts the segments of segmentTree whose way has a name.
+     */
+    IntPredicate namedSegment;
+    private volatile CompactTrie nameTrie;
+    private volatile InvertedIndex nameIndex;
+    /**
+     * Numbers the name tables and tries of every graph, for caches of search results.
+     */
+    private static final AtomicLong NAME_GENERATIONS = new AtomicLong();
+    private volatile long nameGeneration = NAME_GENERATIONS.incrementAndGet();
     HashMap<String, HashMap<Node, String>> cleanNameNodeNamePair;
     HashMap<String, String> cleanNameNamePair;
+    /**
+     * The largest number of nodes sharing a cleaned name.
+     */
+    private int maxNameCount;
+    private volatile ContractionHierarchy contractionHierarchy;
+    private volatile LandmarkGraph landmarkGraph;
 
     public AugmentedStreetMapGraph(String dbPath) {
+        this(dbPath, PointIndex.KD_TREE);
+    }
+
+    /**
+     * Parses the OSM file at DBPATH and indexes its vertices with POINTINDEX.
+     */
+    public AugmentedStreetMapGraph(String dbPath, PointIndex pointIndex) {
         super(dbPath);
-        // You might find it helpful to uncomment the line below:
-        List<Node> nodes = this.getNodes();
-        points = new ArrayList<>();
-        pointNodePair = new HashMap<>();
-        cleanNameNodeNamePair = new HashMap<>();
-        cleanNameNamePair = new HashMap<>();
-        trie = new MyTrieSet();
+        buildIndexes(pointIndex);
+    }
 
-        for (Node node : nodes) {
+    /**
+     * Creates the graph around already built storage, typically loaded from a
+     * {@link bearmaps.utils.graph.streetmap.GraphSnapshot}, so no OSM parsing happens.
+     *
+     * @param graph The street graph to search and route on.
+     */
+    public AugmentedStreetMapGraph(CompactStreetMapGraph graph) {
+        this(graph, PointIndex.KD_TREE);
+    }
 
-            double x = projectToX(node.lon(), node.lat());
-            double y = projectToY(node.lon(), node.lat());
+    /**
+     * Creates the graph around already built storage, indexing its vertices with
+     * POINTINDEX.
+     */
+    public AugmentedStreetMapGraph(CompactStreetMapGraph graph, PointIndex pointIndex) {
+        super(graph);
+        buildIndexes(pointIndex);
+    }
 
-            Point p = new Point(x, y);
-            points.add(p);
-            pointNodePair.put(p, node);
-        }
+    /**
+     * Builds the spatial indexes used by closest and the name tables used by the search methods.
+     * The name trie and word index are built from the tables on first use.
+     */
+    private void buildIndexes(PointIndex pointIndex) {
+        cleanNameNodeNamePair = new HashMap<>();
+        cleanNameNamePair = new HashMap<>();
 
         for (Node node : getAllNodes()) {
-            //Add names to the trie
             if (node.name() != null) {
-                trie.add(cleanString(node.name()));
-
                 HashMap<Node, String> temp = cleanNameNodeNamePair.get(cleanString(node.name()));
 
                 if (temp == null) {
@@ -74,10 +152,258 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
 
                 cleanNameNodeNamePair.put(cleanString(node.name()), temp);
                 cleanNameNamePair.put(cleanString(node.name()), node.name());
+                maxNameCount = Math.max(maxNameCount, temp.size());
+            }
+        }
+
+        buildPointSets(compactGraph(), pointIndex);
+        segmentTree = buildSegmentTree(compactGraph());
+        CompactStreetMapGraph graph = compactGraph();
+        namedSegment = e -> {
+            String name = graph.edgeName(e);
+            return name != null && !name.isEmpty();
+        };
+    }
+
+    /**
+     * Projects every vertex of GRAPH that is navigable or named once, and indexes them
+     * with POINTINDEX, with their vertex indices as payloads.
+     */
+    private void buildPointSets(CompactStreetMapGraph graph, PointIndex pointIndex) {
+        int n = 0;
+        for (int v = 0; v < graph.numVertices(); v++) {
+            if (flags(graph, v) != 0) {
+                n++;
+            }
+        }
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int[] vertices = new int[n];
+        int[] flags = new int[n];
+        int i = 0;
+        for (int v = 0; v < graph.numVertices(); v++) {
+            int f = flags(graph, v);
+            if (f != 0) {
+                xs[i] = projectToX(graph.lon(v), graph.lat(v));
+                ys[i] = projectToY(graph.lon(v), graph.lat(v));
+                vertices[i] = v;
+                flags[i] = f;
+                i++;
+            }
+        }
+        if (pointIndex == PointIndex.GRID) {
+            navigablePoints = buildGrid(xs, ys, vertices, flags, NAVIGABLE);
+            namedPoints = buildGrid(xs, ys, vertices, flags, NAMED);
+        } else {
+            KDTree kdTree = new KDTree(xs, ys, vertices, flags);
+            navigablePoints = kdTree.view(NAVIGABLE);
+            namedPoints = kdTree.view(NAMED);
+        }
+    }
+
+    /**
+     * Builds a grid over the points whose FLAGS include FLAG. Grids can't filter, so
+     * each flag gets its own.
+     */
+    private static GridPointSet buildGrid(double[] xs, double[] ys, int[] vertices,
+                                          int[] flags, int flag) {
+        int n = 0;
+        for (int f : flags) {
+            if ((f & flag) != 0) {
+                n++;
+            }
+        }
+        double[] gx = new double[n];
+        double[] gy = new double[n];
+        int[] gv = new int[n];
+        int j = 0;
+        for (int i = 0; i < flags.length; i++) {
+            if ((flags[i] & flag) != 0) {
+                gx[j] = xs[i];
+                gy[j] = ys[i];
+                gv[j] = vertices[i];
+                j++;
+            }
+        }
+        return new GridPointSet(gx, gy, gv);
+    }
+
+    /**
+     * Builds a tree over the segments of GRAPH. Every segment is stored as an edge in
+     * each direction, so only the edge from its lower numbered end is indexed.
+     */
+    private static SegmentRTree buildSegmentTree(CompactStreetMapGraph graph) {
+        int m = 0;
+        for (int v = 0; v < graph.numVertices(); v++) {
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                if (v < graph.edgeTarget(e)) {
+                    m++;
+                }
+            }
+        }
+        double[] x1 = new double[m];
+        double[] y1 = new double[m];
+        double[] x2 = new double[m];
+        double[] y2 = new double[m];
+        int[] edges = new int[m];
+        int i = 0;
+        for (int v = 0; v < graph.numVertices(); v++) {
+            double x = projectToX(graph.lon(v), graph.lat(v));
+            double y = projectToY(graph.lon(v), graph.lat(v));
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                int w = graph.edgeTarget(e);
+                if (v < w) {
+                    x1[i] = x;
+                    y1[i] = y;
+                    x2[i] = projectToX(graph.lon(w), graph.lat(w));
+                    y2[i] = projectToY(graph.lon(w), graph.lat(w));
+                    edges[i] = e;
+                    i++;
+                }
             }
         }
+        return new SegmentRTree(x1, y1, x2, y2, edges);
+    }
+
+    private static int flags(CompactStreetMapGraph graph, int v) {
+        int f = 0;
+        if (graph.degree(v) > 0) {
+            f |= NAVIGABLE;
+        }
+        if (graph.name(v) != null) {
+            f |= NAMED;
+        }
+        return f;
+    }
 
-        kdTree = new KDTree(points);
+    /**
+     * Returns this graph with landmark distances added to its heuristic, for ALT
+     * routing. The landmarks are picked and their distance tables computed on first use.
+     */
+    public LandmarkGraph landmarkGraph() {
+        LandmarkGraph graph = landmarkGraph;
+        if (graph == null) {
+            synchronized (this) {
+                graph = landmarkGraph;
+                if (graph == null) {
+                    graph = new LandmarkGraph(compactGraph());
+                    landmarkGraph = graph;
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph for fast routing, building it on
+     * first use if none was set.
+     */
+    public ContractionHierarchy contractionHierarchy() {
+        ContractionHierarchy hierarchy = contractionHierarchy;
+        if (hierarchy == null) {
+            synchronized (this) {
+                hierarchy = contractionHierarchy;
+                if (hierarchy == null) {
+                    hierarchy = ContractionHierarchy.build(compactGraph());
+                    contractionHierarchy = hierarchy;
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Returns the trie of the cleaned names of the nodes, which the search methods look
+     * names up in, scored by how many nodes have each name. It is built on first use
+     * unless one has been set.
+     */
+    public CompactTrie nameTrie() {
+        CompactTrie trie = nameTrie;
+        if (trie == null) {
+            synchronized (this) {
+                trie = nameTrie;
+                if (trie == null) {
+                    trie = new CompactTrie(cleanNameNamePair.keySet(),
+                            name -> cleanNameNodeNamePair.get(name).size());
+                    nameTrie = trie;
+                }
+            }
+        }
+        return trie;
+    }
+
+    /**
+     * Returns the index from the words of the cleaned names of the nodes to the names,
+     * scored like nameTrie. It is built on first use.
+     */
+    public InvertedIndex nameIndex() {
+        InvertedIndex index = nameIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nameIndex;
+                if (index == null) {
+                    String[] names = cleanNameNodeNamePair.keySet().toArray(new String[0]);
+                    int[] scores = new int[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        scores[i] = cleanNameNodeNamePair.get(names[i]).size();
+                    }
+                    index = new InvertedIndex(names, scores);
+                    nameIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Uses TRIE, typically read from a file, as this graph's trie of cleaned names.
+     *
+     * @throws IllegalArgumentException if TRIE doesn't hold exactly the cleaned names of
+     *                                  this graph's nodes, with the same scores.
+     */
+    public void setNameTrie(CompactTrie trie) {
+        int keys = 0;
+        for (Map.Entry<String, HashMap<Node, String>> name : cleanNameNodeNamePair.entrySet()) {
+            if (!name.getKey().isEmpty()) {
+                if (trie.score(name.getKey()) != name.getValue().size()) {
+                    throw new IllegalArgumentException("Name trie was built for a different graph");
+                }
+                keys++;
+            }
+        }
+        if (trie.size() != keys) {
+            throw new IllegalArgumentException("Name trie was built for a different graph");
+        }
+        nameTrie = trie;
+        nameGeneration = NAME_GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * Returns a number that changes whenever the name trie is replaced, and that no
+     * other graph shares, so that results of the search methods cached under one number
+     * can be told apart from those of another.
+     */
+    public long nameGeneration() {
+        return nameGeneration;
+    }
+
+    /**
+     * Returns true if a contraction hierarchy has been built or set for this graph.
+     */
+    public boolean hasContractionHierarchy() {
+        return contractionHierarchy != null;
+    }
+
+    /**
+     * Uses HIERARCHY, typically read from a file, as this graph's contraction hierarchy.
+     *
+     * @throws IllegalArgumentException if HIERARCHY was built from a different graph.
+     */
+    public void setContractionHierarchy(ContractionHierarchy hierarchy) {
+        if (!hierarchy.matches(compactGraph())) {
+            throw new IllegalArgumentException("Contraction hierarchy was built for a different graph");
+        }
+        contractionHierarchy = hierarchy;
     }
 
     /**
@@ -113,19 +439,32 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
     }
 
     /**
-     * Useful for Part III. Do not modify.
+     * Useful for Part III. Its behavior must not change.
      * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
      *
      * @param s Input string.
      * @return Cleaned string.
      */
-    private static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+    public static String cleanString(String s) {
+        /* The same as s.replaceAll("[^a-zA-Z ]", "").toLowerCase(), without the regex. */
+        char[] cleaned = new char[s.length()];
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'a' && c <= 'z' || c == ' ') {
+                cleaned[n++] = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                cleaned[n++] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return new String(cleaned, 0, n);
     }
 
     /**
      * For Project Part III
-     * Returns the vertex closest to the given longitude and latitude.
+     * Returns the vertex closest to the given longitude and latitude. Only vertices with
+     * at least one edge are considered, and of several at the same distance the one
+     * with the smallest id is returned.
      *
      * @param lon The target longitude.
      * @param lat The target latitude.
@@ -134,17 +473,128 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
     public long closest(double lon, double lat) {
         double x = projectToX(lon, lat);
         double y = projectToY(lon, lat);
-        //return 0;
+        return compactGraph().id(navigablePoints.nearestIndex(x, y));
+    }
+
+    /**
+     * Returns the vertex closest to each of the points (LONS[i], LATS[i]), as closest
+     * would, but faster for many points. The points are split into blocks that are
+     * snapped in parallel, and each block is searched in Morton order, so consecutive
+     * searches walk mostly the same part of the index and find it in cache.
+     *
+     * @return The ids of the closest vertices, in the order of the points.
+     * @throws IllegalArgumentException if LONS and LATS differ in length.
+     */
+    public long[] closest(double[] lons, double[] lats) {
+        if (lons.length != lats.length) {
+            throw new IllegalArgumentException("Longitude and latitude arrays differ in length");
+        }
+        long[] ids = new long[lons.length];
+        int blocks = (lons.length + SNAP_BLOCK_SIZE - 1) / SNAP_BLOCK_SIZE;
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int lo = b * SNAP_BLOCK_SIZE;
+            closest(lons, lats, lo, Math.min(lo + SNAP_BLOCK_SIZE, lons.length), ids);
+        });
+        return ids;
+    }
 
-        Point nearestPoint = kdTree.nearest(x, y);
-        Node n = pointNodePair.get(nearestPoint);
+    /* Snaps the points [LO, HI) of LONS and LATS into IDS, in Morton order of their
+       projections over the block's bounding box. */
+    private void closest(double[] lons, double[] lats, int lo, int hi, long[] ids) {
+        int n = hi - lo;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            xs[i] = projectToX(lons[lo + i], lats[lo + i]);
+            ys[i] = projectToY(lons[lo + i], lats[lo + i]);
+            x0 = Math.min(x0, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            x1 = Math.max(x1, xs[i]);
+            y1 = Math.max(y1, ys[i]);
+        }
 
-        while (neighbors(n.id()).size() == 0) {
-            nearestPoint = kdTree.nearest(nearestPoint.getX(), nearestPoint.getY());
-            n = pointNodePair.get(nearestPoint);
+        /* Sort on the Morton code of the point's 16 bit grid cell, above its index. */
+        double sx = x1 > x0 ? 0xFFFF / (x1 - x0) : 0;
+        double sy = y1 > y0 ? 0xFFFF / (y1 - y0) : 0;
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            long code = spread((int) ((xs[i] - x0) * sx)) | spread((int) ((ys[i] - y0) * sy)) << 1;
+            order[i] = code << 32 | i;
         }
+        Arrays.sort(order);
+
+        CompactStreetMapGraph graph = compactGraph();
+        for (long key : order) {
+            int i = (int) key;
+            ids[lo + i] = graph.id(navigablePoints.nearestIndex(xs[i], ys[i]));
+        }
+    }
 
-        return n.id();
+    /* Spreads the low 16 bits of X out to the even bits of the result. */
+    private static long spread(int x) {
+        long v = x & 0xFFFF;
+        v = (v | v << 8) & 0x00FF00FFL;
+        v = (v | v << 4) & 0x0F0F0F0FL;
+        v = (v | v << 2) & 0x33333333L;
+        v = (v | v << 1) & 0x55555555L;
+        return v;
+    }
+
+    /**
+     * Returns the named vertex closest to the given longitude and latitude, whether or
+     * not it is on a road. Of several at the same distance the one with the smallest
+     * id is returned.
+     *
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The id of the closest named node, or -1 if no node has a name.
+     */
+    public long closestNamed(double lon, double lat) {
+        int v = closestNamedIndex(lon, lat);
+        return v < 0 ? -1 : compactGraph().id(v);
+    }
+
+    /**
+     * Returns the named vertex closest to the given longitude and latitude, as
+     * closestNamed does, but as its index in compactGraph() rather than its id.
+     *
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The index of the closest named node, or -1 if no node has a name.
+     */
+    public int closestNamedIndex(double lon, double lat) {
+        return namedPoints.nearestIndex(projectToX(lon, lat), projectToY(lon, lat));
+    }
+
+    /**
+     * Returns the road segment closest to the given longitude and latitude, as the
+     * index in compactGraph() of its edge from its lower numbered end, and how far
+     * along that edge the closest point on it lies.
+     *
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The projection onto the closest segment, or null if there are no roads.
+     */
+    public SegmentRTree.Projection closestSegment(double lon, double lat) {
+        return segmentTree.nearest(projectToX(lon, lat), projectToY(lon, lat));
+    }
+
+    /**
+     * Returns the road segment closest to the given longitude and latitude among those
+     * whose way has a name, as closestSegment does. Unnamed ways are stored with an
+     * empty name, and so are skipped too.
+     *
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The projection onto the closest named segment, or null if no road has a
+     * name.
+     */
+    public SegmentRTree.Projection closestNamedSegment(double lon, double lat) {
+        return segmentTree.nearest(projectToX(lon, lat), projectToY(lon, lat), namedSegment);
     }
 
     /**
@@ -159,14 +609,8 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
     public List<String> getLocationsByPrefix(String prefix) {
 
         List<String> locations = new LinkedList<>();
-        //List<String> keys = trie.keysWithPrefix(cleanString(prefix));
-
-        List<String> strings = new ArrayList<>();
-        try {
-            strings = trie.keysWithPrefix(cleanString(prefix));
-        } catch (NullPointerException e) {
 
-        }
+        List<String> strings = nameTrie().keysWithPrefix(cleanString(prefix));
 
         for (String query : strings) {
             HashMap<Node, String> pair = cleanNameNodeNamePair.get(query);
@@ -180,6 +624,158 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
         return locations;
     }
 
+    /**
+     * Returns the full names of at most LIMIT locations whose cleaned name starts with
+     * the cleaned PREFIX, each name once, the names shared by the most nodes first.
+     * Unlike getLocationsByPrefix, the work done grows with LIMIT rather than with how
+     * many names match, so it suits autocomplete on short prefixes.
+     *
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param limit  The most names to return.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int limit) {
+        List<String> locations = new ArrayList<>();
+        for (String key : nameTrie().topKeysWithPrefix(cleanString(prefix), limit)) {
+            locations.add(cleanNameNamePair.get(key));
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the full names of at most LIMIT locations whose cleaned name starts with
+     * the cleaned PREFIX, each name once, the names nearest the given longitude and
+     * latitude first. A name is as near as its closest node, and names shared by many
+     * nodes are brought nearer: they are ranked by that distance over
+     * 1 + ln(number of nodes with the name), ties going to the alphabetically first.
+     * <p>
+     * When the prefix matches many names, the named nodes are visited outward from the
+     * location, and the search stops as soon as no name farther out could outrank the
+     * LIMIT best found, so common prefixes cost little more than rare ones.
+     *
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param limit  The most names to return.
+     * @param lon    The longitude to rank by, typically the center of the map.
+     * @param lat    The latitude to rank by.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int limit, double lon, double lat) {
+        String cleaned = cleanString(prefix);
+        double x = projectToX(lon, lat);
+        double y = projectToY(lon, lat);
+        Map<String, Double> ranks = new HashMap<>();
+        if (limit > 0) {
+            List<String> keys = nameTrie().topKeysWithPrefix(cleaned, NEARBY_NAME_SCAN + 1);
+            if (keys.size() <= NEARBY_NAME_SCAN) {
+                for (String key : keys) {
+                    double d = Double.POSITIVE_INFINITY;
+                    for (Node n : cleanNameNodeNamePair.get(key).keySet()) {
+                        d = Math.min(d, Math.hypot(projectToX(n.lon(), n.lat()) - x,
+                                projectToY(n.lon(), n.lat()) - y));
+                    }
+                    ranks.put(key, d / nameWeight(key));
+                }
+            } else {
+                rankNearbyNames(cleaned, limit, x, y, ranks);
+            }
+        }
+
+        List<String> keys = new ArrayList<>(ranks.keySet());
+        keys.sort(Comparator.comparingDouble((String key) -> ranks.get(key))
+                .thenComparing(Comparator.naturalOrder()));
+        List<String> locations = new ArrayList<>();
+        for (String key : keys.subList(0, Math.min(limit, keys.size()))) {
+            locations.add(cleanNameNamePair.get(key));
+        }
+        return locations;
+    }
+
+    /* Returns 1 + the log of the number of nodes with the cleaned name KEY, by which its
+       distance is divided to rank it. */
+    private double nameWeight(String key) {
+        return 1 + Math.log(cleanNameNodeNamePair.get(key).size());
+    }
+
+    /**
+     * Ranks the cleaned names starting with CLEANED into RANKS, visiting named nodes
+     * outward from (X, Y) in rounds of doubling size until the LIMIT best are known.
+     * After each round every node within the farthest distance seen, RADIUS, has been
+     * visited, so an unseen name ranks no better than RADIUS over the largest weight a
+     * name can have. The first node seen with a name is its closest, so its rank is
+     * final.
+     */
+    private void rankNearbyNames(String cleaned, int limit, double x, double y,
+                                 Map<String, Double> ranks) {
+        CompactStreetMapGraph graph = compactGraph();
+        double maxWeight = 1 + Math.log(Math.max(maxNameCount, 1));
+        Map<String, String> cleanNames = new HashMap<>();
+        int k = Math.min(Math.max(64, 4 * limit), namedPoints.size());
+        while (true) {
+            int[] vertices = new int[k];
+            double[] distances = new double[k];
+            int found = namedPoints.nearest(x, y, k, vertices, distances);
+            for (int i = 0; i < found; i++) {
+                String key = cleanNames.computeIfAbsent(graph.name(vertices[i]),
+                        AugmentedStreetMapGraph::cleanString);
+                if (key.startsWith(cleaned) && !ranks.containsKey(key)) {
+                    ranks.put(key, Math.sqrt(distances[i]) / nameWeight(key));
+                }
+            }
+            if (found < k || k == namedPoints.size()) {
+                return;
+            }
+            double radius = Math.sqrt(distances[found - 1]);
+            if (ranks.size() >= limit) {
+                double[] best = new double[ranks.size()];
+                int j = 0;
+                for (double rank : ranks.values()) {
+                    best[j++] = rank;
+                }
+                Arrays.sort(best);
+                if (best[limit - 1] <= radius / maxWeight) {
+                    return;
+                }
+            }
+            k = (int) Math.min(2L * k, namedPoints.size());
+        }
+    }
+
+    /**
+     * Returns the full names of at most LIMIT locations whose cleaned name starts with a
+     * string within MAXEDITS typos of the cleaned PREFIX, each name once. Names needing
+     * fewer edits come first, and of those the names shared by the most nodes.
+     *
+     * @param prefix   Prefix string to be searched for, possibly misspelled.
+     * @param maxEdits The most single character insertions, deletions or substitutions
+     *                 allowed, typically 1 or 2.
+     * @param limit    The most names to return.
+     */
+    public List<String> getLocationsByFuzzyPrefix(String prefix, int maxEdits, int limit) {
+        List<String> locations = new ArrayList<>();
+        for (String key : nameTrie().fuzzyKeysWithPrefix(cleanString(prefix), maxEdits, limit)) {
+            locations.add(cleanNameNamePair.get(key));
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the full names of at most LIMIT locations whose cleaned name contains any
+     * of the words of the cleaned QUERY anywhere, each name once. Names containing more
+     * of the words come first, and of those the names shared by the most nodes.
+     *
+     * @param query The words searched for. Could be any case, with our without
+     *              punctuation.
+     * @param limit The most names to return.
+     */
+    public List<String> getLocationsByWords(String query, int limit) {
+        InvertedIndex index = nameIndex();
+        List<String> locations = new ArrayList<>();
+        for (int d : index.search(cleanString(query), limit)) {
+            locations.add(cleanNameNamePair.get(index.document(d)));
+        }
+        return locations;
+    }
+
     /**
      * For Project Part IV (extra credit)
      * Collect all locations that match a cleaned <code>locationName</code>, and return
@@ -198,7 +794,7 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
 
         List<Map<String, Object>> locationsInfo = new LinkedList<>();
 
-        String location = trie.keysThatMatch(cleanString(locationName));
+        String location = nameTrie().keysThatMatch(cleanString(locationName));
 
         if (locationName.equals("")) {
             location = "";
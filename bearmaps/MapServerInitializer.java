@@ -2,7 +2,14 @@ package bearmaps;
 
 import bearmaps.server.handler.APIRouteHandler;
 import bearmaps.utils.Constants;
+import bearmaps.utils.graph.ch.ContractionHierarchy;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+import bearmaps.utils.trie.CompactTrie;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -21,7 +28,7 @@ public class MapServerInitializer {
      **/
     public static void initializeServer(Map<String, APIRouteHandler> apiHandlers) {
         port(getHerokuAssignedPort());
-        Constants.SEMANTIC_STREET_GRAPH = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+        Constants.SEMANTIC_STREET_GRAPH = loadGraph();
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
@@ -43,6 +50,67 @@ public class MapServerInitializer {
 
     }
 
+    /**
+     * Loads the graph from its binary snapshot if one has been built, and parses the
+     * OSM file otherwise (or if the snapshot is stale or unreadable). Also loads its
+     * contraction hierarchy if there is one, and its name trie.
+     */
+    private static AugmentedStreetMapGraph loadGraph() {
+        AugmentedStreetMapGraph graph = null;
+        Path snapshot = Paths.get(Constants.GRAPH_SNAPSHOT_PATH);
+        if (Files.isReadable(snapshot)) {
+            try {
+                graph = new AugmentedStreetMapGraph(GraphSnapshot.read(snapshot,
+                        Constants.OSM_DB_PATH));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (graph == null) {
+            graph = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+        }
+        loadContractionHierarchy(graph);
+        loadNameTrie(graph);
+        return graph;
+    }
+
+    /**
+     * Gives GRAPH its name trie from the file written on an earlier start, or builds it
+     * and writes the file for the next start if there is none or it is stale.
+     */
+    private static void loadNameTrie(AugmentedStreetMapGraph graph) {
+        Path trie = Paths.get(Constants.NAME_TRIE_PATH);
+        if (Files.isReadable(trie)) {
+            try {
+                graph.setNameTrie(CompactTrie.read(trie));
+                return;
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            graph.nameTrie().write(trie);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gives GRAPH its contraction hierarchy if one has been built for it, so routes are
+     * answered with it. Routing falls back to A* otherwise.
+     */
+    private static void loadContractionHierarchy(AugmentedStreetMapGraph graph) {
+        Path hierarchy = Paths.get(Constants.CONTRACTION_HIERARCHY_PATH);
+        if (!Files.isReadable(hierarchy)) {
+            return;
+        }
+        try {
+            graph.setContractionHierarchy(ContractionHierarchy.read(hierarchy));
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+    }
+
     private static int getHerokuAssignedPort() {
         ProcessBuilder processBuilder = new ProcessBuilder();
         if (processBuilder.environment().get("PORT") != null) {
@@ -1,8 +1,18 @@
 package bearmaps;
 
-import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.BidirectionalAStarSolver;
+import bearmaps.utils.graph.IndexedAStarGraph;
+import bearmaps.utils.graph.IndexedAStarSolver;
+import bearmaps.utils.graph.IndexedDijkstraSolver;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.VirtualEndpointGraph;
 import bearmaps.utils.graph.WeightedEdge;
+import bearmaps.utils.graph.ch.CHSolver;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.ps.SegmentRTree;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -16,10 +26,43 @@ import java.util.regex.Pattern;
  */
 public class Router {
 
+    /**
+     * How many seconds a search may run before giving up.
+     */
+    private static final double TIMEOUT = 20;
+
+    /**
+     * The search algorithms shortestPath can route with. All of them return a shortest
+     * path; they differ in how much of the graph they explore to find it.
+     */
+    public enum Algorithm {
+        /** Plain A* with the great-circle distance to the destination as heuristic. */
+        A_STAR,
+        /** A* from both ends at once, meeting in the middle. */
+        BIDIRECTIONAL_A_STAR,
+        /** A* with landmark lower bounds added to the heuristic. */
+        ALT,
+        /** Dijkstra's algorithm, which ignores the heuristic. */
+        DIJKSTRA,
+        /** Upward searches in the graph's contraction hierarchy, built on first use. */
+        CONTRACTION_HIERARCHIES
+    }
+
+    /**
+     * Where a route joins the road network at its start and destination locations.
+     */
+    public enum Snap {
+        /** At the closest vertex on a road. */
+        VERTEX,
+        /** At the closest point on any road segment, which may lie between vertices. */
+        SEGMENT
+    }
+
     /**
      * Overloaded method for shortestPath that has flexibility to specify a solver
      * and returns a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination location.
+     * Uses the graph's contraction hierarchy if it has one, and A* otherwise.
      *
      * @param g       The graph to use.
      * @param stlon   The longitude of the start location.
@@ -30,10 +73,241 @@ public class Router {
      */
     public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        long src = g.closest(stlon, stlat);
-        long dest = g.closest(destlon, destlat);
-        return new AStarSolver<>(g, src, dest, 20).solution();
+        return shortestPath(g, stlon, stlat, destlon, destlat, defaultAlgorithm(g));
+    }
+
+    /**
+     * Returns the algorithm the overloads without one use: the graph's contraction
+     * hierarchy if it has one, and A* otherwise.
+     */
+    public static Algorithm defaultAlgorithm(AugmentedStreetMapGraph g) {
+        return g.hasContractionHierarchy() ? Algorithm.CONTRACTION_HIERARCHIES : Algorithm.A_STAR;
+    }
 
+    /**
+     * Returns the shortest path from the node closest to a start location to the node
+     * closest to the destination location, found with ALGORITHM.
+     *
+     * @param g         The graph to use.
+     * @param stlon     The longitude of the start location.
+     * @param stlat     The latitude of the start location.
+     * @param destlon   The longitude of the destination location.
+     * @param destlat   The latitude of the destination location.
+     * @param algorithm The search algorithm to use.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, algorithm, Snap.VERTEX);
+    }
+
+    /**
+     * Returns the shortest path between a start and a destination location, found with
+     * ALGORITHM, joining the roads at each location as SNAP says.
+     * <p>
+     * With Snap.SEGMENT the route runs from the point on the road closest to the start
+     * to the one closest to the destination, and the path lists the vertices it passes
+     * through. If both points lie on the same segment, the route has none and the path
+     * is that segment's two ends in the direction of travel.
+     *
+     * @param g         The graph to use.
+     * @param stlon     The longitude of the start location.
+     * @param stlat     The latitude of the start location.
+     * @param destlon   The longitude of the destination location.
+     * @param destlat   The latitude of the destination location.
+     * @param algorithm The search algorithm to use.
+     * @param snap      Where to join the roads.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm,
+                                          Snap snap) {
+        CompactStreetMapGraph graph = g.compactGraph();
+        ShortestPathsSolver<Integer> solver = solve(g, stlon, stlat, destlon, destlat,
+                algorithm, snap);
+        List<Integer> solution = solver.solution();
+
+        List<Long> path = new ArrayList<>(solution.size());
+        for (int v : solution) {
+            path.add(graph.id(v));
+        }
+        if (path.isEmpty() && solver.outcome() == SolverOutcome.SOLVED) {
+            SegmentRTree.Projection from = g.closestSegment(stlon, stlat);
+            SegmentRTree.Projection to = g.closestSegment(destlon, destlat);
+            int e = from.segment();
+            long u = graph.id(graph.edgeSource(e));
+            long w = graph.id(graph.edgeTarget(e));
+            path.add(from.fraction() <= to.fraction() ? u : w);
+            path.add(from.fraction() <= to.fraction() ? w : u);
+        }
+        return path;
+    }
+
+    /**
+     * Runs ALGORITHM between the nodes closest to the start and destination locations
+     * and returns the finished solver, whose solution holds indices into
+     * g.compactGraph(). Useful for comparing how many states each algorithm explores.
+     *
+     * @param g         The graph to use.
+     * @param stlon     The longitude of the start location.
+     * @param stlat     The latitude of the start location.
+     * @param destlon   The longitude of the destination location.
+     * @param destlat   The latitude of the destination location.
+     * @param algorithm The search algorithm to use.
+     * @return The solver after its search.
+     */
+    public static ShortestPathsSolver<Integer> solve(AugmentedStreetMapGraph g, double stlon,
+                                                     double stlat, double destlon, double destlat,
+                                                     Algorithm algorithm) {
+        return solve(g, stlon, stlat, destlon, destlat, algorithm, Snap.VERTEX);
+    }
+
+    /**
+     * Runs ALGORITHM between the start and destination locations, joining the roads at
+     * each as SNAP says, and returns the finished solver. Its solution holds indices
+     * into g.compactGraph() of the vertices the route passes through, and its weight
+     * includes the parts of segments between the locations and the first and last of
+     * them.
+     *
+     * @param g         The graph to use.
+     * @param stlon     The longitude of the start location.
+     * @param stlat     The latitude of the start location.
+     * @param destlon   The longitude of the destination location.
+     * @param destlat   The latitude of the destination location.
+     * @param algorithm The search algorithm to use.
+     * @param snap      Where to join the roads.
+     * @return The solver after its search.
+     */
+    public static ShortestPathsSolver<Integer> solve(AugmentedStreetMapGraph g, double stlon,
+                                                     double stlat, double destlon, double destlat,
+                                                     Algorithm algorithm, Snap snap) {
+        if (snap == Snap.SEGMENT) {
+            SegmentRTree.Projection from = g.closestSegment(stlon, stlat);
+            SegmentRTree.Projection to = g.closestSegment(destlon, destlat);
+            if (from != null && to != null) {
+                return solve(g, from, to, algorithm);
+            }
+        }
+        CompactStreetMapGraph graph = g.compactGraph();
+        int src = graph.index(g.closest(stlon, stlat));
+        int dest = graph.index(g.closest(destlon, destlat));
+        switch (algorithm) {
+            case BIDIRECTIONAL_A_STAR:
+                return new BidirectionalAStarSolver(graph, src, dest, TIMEOUT);
+            case ALT:
+                return new IndexedAStarSolver(g.landmarkGraph(), src, dest, TIMEOUT);
+            case DIJKSTRA:
+                return new IndexedDijkstraSolver(graph, src, dest, TIMEOUT);
+            case CONTRACTION_HIERARCHIES:
+                return new CHSolver(g.contractionHierarchy(), src, dest);
+            case A_STAR:
+            default:
+                return new IndexedAStarSolver(graph, src, dest, TIMEOUT);
+        }
+    }
+
+    /**
+     * Runs ALGORITHM from the point FROM on one segment to the point TO on another. The
+     * search starts at both ends of FROM's segment, each at its distance along the
+     * segment from the point, and likewise ends at both ends of TO's. Contraction
+     * hierarchies seed their searches that way; the other algorithms search a
+     * VirtualEndpointGraph, which can also join two points on the same segment directly.
+     */
+    private static ShortestPathsSolver<Integer> solve(AugmentedStreetMapGraph g,
+                                                      SegmentRTree.Projection from,
+                                                      SegmentRTree.Projection to,
+                                                      Algorithm algorithm) {
+        CompactStreetMapGraph graph = g.compactGraph();
+        int[] sources = segmentEnds(graph, from);
+        double[] sourceWeights = segmentOffsets(graph, from);
+        int[] targets = segmentEnds(graph, to);
+        double[] targetWeights = segmentOffsets(graph, to);
+        double direct = Double.POSITIVE_INFINITY;
+        if (from.segment() == to.segment()) {
+            direct = Math.abs(from.fraction() - to.fraction()) * graph.edgeWeight(from.segment());
+        }
+
+        /* A path between two points on one segment that leaves it is never shorter than
+           the direct one, since no road beats the great-circle distance, so the search
+           that finds the direct one is trivial and CH need not support it. */
+        if (algorithm == Algorithm.CONTRACTION_HIERARCHIES && direct == Double.POSITIVE_INFINITY) {
+            return new CHSolver(g.contractionHierarchy(), sources, sourceWeights,
+                    targets, targetWeights);
+        }
+        IndexedAStarGraph base = algorithm == Algorithm.ALT ? g.landmarkGraph() : graph;
+        VirtualEndpointGraph virtual = new VirtualEndpointGraph(base, sources, sourceWeights,
+                targets, targetWeights, direct);
+        ShortestPathsSolver<Integer> solver;
+        switch (algorithm) {
+            case BIDIRECTIONAL_A_STAR:
+                solver = new BidirectionalAStarSolver(virtual, virtual.start(), virtual.end(),
+                        TIMEOUT);
+                break;
+            case DIJKSTRA:
+                solver = new IndexedDijkstraSolver(virtual, virtual.start(), virtual.end(), TIMEOUT);
+                break;
+            default:
+                solver = new IndexedAStarSolver(virtual, virtual.start(), virtual.end(), TIMEOUT);
+                break;
+        }
+        return new RealVertexSolver(solver, virtual);
+    }
+
+    /* Returns the two ends of the segment P lies on. */
+    private static int[] segmentEnds(CompactStreetMapGraph graph, SegmentRTree.Projection p) {
+        int e = p.segment();
+        return new int[]{graph.edgeSource(e), graph.edgeTarget(e)};
+    }
+
+    /* Returns how far P is along its segment from each end. */
+    private static double[] segmentOffsets(CompactStreetMapGraph graph,
+                                           SegmentRTree.Projection p) {
+        double weight = graph.edgeWeight(p.segment());
+        return new double[]{p.fraction() * weight, (1 - p.fraction()) * weight};
+    }
+
+    /**
+     * A finished search on a VirtualEndpointGraph, with the virtual vertices left out of
+     * its solution.
+     */
+    private static class RealVertexSolver implements ShortestPathsSolver<Integer> {
+        private final ShortestPathsSolver<Integer> solver;
+        private final List<Integer> solution;
+
+        RealVertexSolver(ShortestPathsSolver<Integer> solver, VirtualEndpointGraph graph) {
+            this.solver = solver;
+            this.solution = new ArrayList<>(solver.solution().size());
+            for (int v : solver.solution()) {
+                if (!graph.isVirtual(v)) {
+                    solution.add(v);
+                }
+            }
+        }
+
+        @Override
+        public SolverOutcome outcome() {
+            return solver.outcome();
+        }
+
+        @Override
+        public List<Integer> solution() {
+            return solution;
+        }
+
+        @Override
+        public double solutionWeight() {
+            return solver.solutionWeight();
+        }
+
+        @Override
+        public int numStatesExplored() {
+            return solver.numStatesExplored();
+        }
+
+        @Override
+        public double explorationTime() {
+            return solver.explorationTime();
+        }
     }
 
     /**
@@ -0,0 +1,188 @@
+package bearmaps;
+
+import bearmaps.utils.graph.IndexedAStarGraph;
+import bearmaps.utils.graph.SearchWorkspace;
+import bearmaps.utils.pq.RadixHeapPQ;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An index of moving vehicles on a street graph, for finding the vehicles closest to a
+ * location by road rather than in a straight line.
+ * <p>
+ * Each vehicle is snapped to its closest vertex, and every vertex has a cell listing
+ * the vehicles at it. Cells are immutable arrays swapped in with compare-and-set, so
+ * queries read them without locking and never wait on an update. Updates of the same
+ * vehicle are serialized through its entry in a ConcurrentHashMap, which keeps its
+ * vertex and its cell membership in step; updates of different vehicles only contend
+ * when they touch the same cell.
+ * <p>
+ * Queries are best effort while vehicles move. A vehicle that moves is added to its
+ * new cell before it leaves its old one, but a query reads cells one at a time, so it
+ * may see the vehicle at both places, which it tolerates, or if it reads the new cell
+ * just before the move and the old one just after, at neither, and miss it.
+ */
+public class VehicleIndex {
+
+    private final AugmentedStreetMapGraph graph;
+    private final IndexedAStarGraph backward;
+    private final ConcurrentHashMap<Long, Integer> vertices = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<long[]> cells;
+
+    /**
+     * Creates an empty index over the streets of GRAPH.
+     */
+    public VehicleIndex(AugmentedStreetMapGraph graph) {
+        this.graph = graph;
+        this.backward = graph.compactGraph().reverse();
+        this.cells = new AtomicReferenceArray<>(graph.compactGraph().numVertices());
+    }
+
+    /**
+     * Records that VEHICLE is now at the given longitude and latitude, adding it if it
+     * wasn't in the index.
+     */
+    public void update(long vehicle, double lon, double lat) {
+        int v = graph.compactGraph().index(graph.closest(lon, lat));
+        vertices.compute(vehicle, (id, old) -> {
+            if (old == null || old != v) {
+                add(v, vehicle);
+                if (old != null) {
+                    remove(old, vehicle);
+                }
+            }
+            return v;
+        });
+    }
+
+    /**
+     * Removes VEHICLE from the index. Returns false if it wasn't in it.
+     */
+    public boolean remove(long vehicle) {
+        boolean[] removed = new boolean[1];
+        vertices.computeIfPresent(vehicle, (id, old) -> {
+            remove(old, vehicle);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Returns the id of the vertex VEHICLE was last snapped to, or -1 if it isn't in the
+     * index.
+     */
+    public long vertex(long vehicle) {
+        Integer v = vertices.get(vehicle);
+        return v == null ? -1 : graph.compactGraph().id(v);
+    }
+
+    /**
+     * Returns the number of vehicles in the index.
+     */
+    public int size() {
+        return vertices.size();
+    }
+
+    /* Adds VEHICLE to the cell of vertex V. */
+    private void add(int v, long vehicle) {
+        while (true) {
+            long[] cell = cells.get(v);
+            long[] grown;
+            if (cell == null) {
+                grown = new long[]{vehicle};
+            } else {
+                grown = Arrays.copyOf(cell, cell.length + 1);
+                grown[cell.length] = vehicle;
+            }
+            if (cells.compareAndSet(v, cell, grown)) {
+                return;
+            }
+        }
+    }
+
+    /* Removes VEHICLE from the cell of vertex V. */
+    private void remove(int v, long vehicle) {
+        while (true) {
+            long[] cell = cells.get(v);
+            if (cell == null) {
+                return;
+            }
+            int i = 0;
+            while (i < cell.length && cell[i] != vehicle) {
+                i++;
+            }
+            if (i == cell.length) {
+                return;
+            }
+            long[] shrunk = null;
+            if (cell.length > 1) {
+                shrunk = Arrays.copyOf(cell, cell.length - 1);
+                System.arraycopy(cell, i + 1, shrunk, i, cell.length - 1 - i);
+            }
+            if (cells.compareAndSet(v, cell, shrunk)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns up to K vehicles closest by road to the given longitude and latitude,
+     * closest first, measuring the drive from each vehicle to the location, among
+     * those no more than MAXDISTANCE miles away.
+     * <p>
+     * Runs Dijkstra's algorithm backward from the vertex closest to the location and
+     * stops as soon as K vehicles have been reached or the next vertex is farther than
+     * MAXDISTANCE, so its cost depends on how far the K-th vehicle or the bound is
+     * rather than on the size of the graph, even when fewer than K vehicles can reach
+     * the location.
+     */
+    public List<Long> nearest(double lon, double lat, int k, double maxDistance) {
+        List<Long> found = new ArrayList<>();
+        if (k <= 0 || !(maxDistance >= 0) || vertices.isEmpty()) {
+            return found;
+        }
+        int start = graph.compactGraph().index(graph.closest(lon, lat));
+        SearchWorkspace workspace = SearchWorkspace.acquire(backward.numVertices());
+        RadixHeapPQ fringe = workspace.monotoneFringe();
+        workspace.relax(start, 0, -1);
+        fringe.insert(start, 0);
+
+        while (fringe.size() > 0) {
+            int v = fringe.pollInt();
+            long[] cell = cells.get(v);
+            if (cell != null) {
+                for (long vehicle : cell) {
+                    /* A vehicle caught mid-move can show up at two vertices. */
+                    if (!found.contains(vehicle)) {
+                        found.add(vehicle);
+                        if (found.size() == k) {
+                            return found;
+                        }
+                    }
+                }
+            }
+
+            double dv = workspace.distTo(v);
+            /* Vertices beyond the bound never join the fringe, so the search ends once
+               the fringe minimum would exceed it. */
+            for (int e = backward.edgeStart(v), last = backward.edgeEnd(v); e < last; e++) {
+                int w = backward.edgeTarget(e);
+                double dw = dv + backward.edgeWeight(e);
+                if (dw < workspace.distTo(w) && dw <= maxDistance) {
+                    if (fringe.contains(w)) {
+                        fringe.changePriority(w, dw);
+                    } else {
+                        fringe.insert(w, dw);
+                    }
+                    workspace.relax(w, dw, v);
+                }
+            }
+        }
+        return found;
+    }
+}
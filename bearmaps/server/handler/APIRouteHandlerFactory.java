@@ -21,7 +21,10 @@ public class APIRouteHandlerFactory {
         handlerMap.put("raster", new RasterAPIHandler());
         handlerMap.put("route", new RoutingAPIHandler());
         handlerMap.put("clear_route", new ClearRouteAPIHandler());
-        handlerMap.put("search", new SearchAPIHandler());
+        SearchAPIHandler search = new SearchAPIHandler();
+        handlerMap.put("search", search);
+        handlerMap.put("search_stats", new SearchStatsAPIHandler(search.cache()));
+        handlerMap.put("reverse", new ReverseGeocodeAPIHandler());
         handlerMap.put("", new RedirectAPIHandler());
     }
 
@@ -0,0 +1,68 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.ps.SegmentRTree;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+
+/**
+ * Handles requests for what is at a location: the closest named place and the name of
+ * the closest named road. Both come from nearest queries on the graph's spatial
+ * indexes, filtered to named vertices and named roads, so a request costs two tree
+ * searches and builds nothing but its response.
+ */
+public class ReverseGeocodeAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+
+    /**
+     * Each reverse geocoding request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * lat : latitude of the location,<br> lon : longitude of the location.
+     **/
+    private static final String[] REQUIRED_REVERSE_REQUEST_PARAMS = {"lat", "lon"};
+
+    @Override
+    protected Map<String, Double> parseRequestParams(Request request) {
+        return getRequestParams(request, REQUIRED_REVERSE_REQUEST_PARAMS);
+    }
+
+    /**
+     * Looks up what is at the requested location.
+     *
+     * @param requestParams Map of the HTTP GET request's query parameters - the lat and lon.
+     * @param response      : Not used by this function.
+     * @return A map of results for the front end as specified: <br>
+     * "success" : Boolean, whether a named place or road was found.<br>
+     * "id", "lat", "lon", "name" : The closest named node, if there is one.<br>
+     * "road" : String, the name of the closest named road, if there is one.
+     */
+    @Override
+    public Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
+        double lon = requestParams.get("lon");
+        double lat = requestParams.get("lat");
+        CompactStreetMapGraph graph = SEMANTIC_STREET_GRAPH.compactGraph();
+        Map<String, Object> result = new HashMap<>();
+
+        /* Named places are often off the road network, so look them up in the compact
+           graph, which has every vertex. */
+        int v = SEMANTIC_STREET_GRAPH.closestNamedIndex(lon, lat);
+        if (v >= 0) {
+            result.put("id", graph.id(v));
+            result.put("lat", graph.lat(v));
+            result.put("lon", graph.lon(v));
+            result.put("name", graph.name(v));
+        }
+
+        SegmentRTree.Projection road = SEMANTIC_STREET_GRAPH.closestNamedSegment(lon, lat);
+        if (road != null) {
+            result.put("road", graph.edgeName(road.segment()));
+        }
+        result.put("success", !result.isEmpty());
+        return result;
+    }
+}
@@ -60,7 +60,8 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
         List<Long> route = Router.shortestPath(
                 SEMANTIC_STREET_GRAPH,
                 requestParams.get("start_lon"), requestParams.get("start_lat"),
-                requestParams.get("end_lon"), requestParams.get("end_lat"));
+                requestParams.get("end_lon"), requestParams.get("end_lat"),
+                Router.defaultAlgorithm(SEMANTIC_STREET_GRAPH), Router.Snap.SEGMENT);
         ROUTE_LIST.addAll(route);
         String directions = getDirectionsText();
 
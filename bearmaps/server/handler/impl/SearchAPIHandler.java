@@ -1,42 +1,271 @@
 package bearmaps.server.handler.impl;
 
+import bearmaps.AugmentedStreetMapGraph;
 import bearmaps.server.handler.APIRouteHandler;
-import bearmaps.utils.Tuple;
+import bearmaps.utils.search.SearchResponseCache;
 import spark.Request;
 import spark.Response;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
 
 /**
+ * Handles search requests, which have the following query parameters:<br>
+ * term : the location name or prefix searched for,<br>
+ * full : present for the locations with exactly this name rather than names starting
+ * with it,<br>
+ * limit : optional, the most names a prefix search returns, best first. Without it
+ * every matching name is returned,<br>
+ * fuzzy : optional, 1 or 2, how many typos a prefix search tolerates,<br>
+ * words : present to match names containing any of the words of term anywhere, rather
+ * than names starting with term,<br>
+ * lat, lon : optional, together, a location to rank a prefix search by, typically the
+ * center of the map. Names with a node nearby come first.<br>
+ * Fuzzy, word and located searches return at most limit names, or MAX_LIMIT without
+ * one.
+ * <p>
+ * Responses to all but located searches are cached as UTF-8 JSON, keyed by the search
+ * and its cleaned term, and dropped whenever the graph's name trie is replaced.
+ * Located searches are not cached, since their coordinates rarely repeat. The cache's
+ * hit, miss and eviction counts are served by a {@link SearchStatsAPIHandler}.
+ * <p>
  * Created by rahul
  */
-public class SearchAPIHandler extends APIRouteHandler<Tuple<Set<String>, String>, Object> {
+public class SearchAPIHandler extends APIRouteHandler<SearchAPIHandler.Search, Object> {
 
+    /**
+     * The largest limit a prefix search may ask for.
+     */
+    private static final int MAX_LIMIT = 100;
+    /**
+     * The most typos a fuzzy search may tolerate.
+     */
+    private static final int MAX_EDITS = 2;
+    /**
+     * The most bytes of responses the cache holds.
+     */
+    private static final long CACHE_BYTES = 16 << 20;
+
+    private final SearchResponseCache cache =
+            new SearchResponseCache(CACHE_BYTES, () -> SEMANTIC_STREET_GRAPH.nameGeneration());
+
+    /**
+     * The kinds of search, in the order the parameters of a request are checked for
+     * them.
+     */
+    enum Kind {
+        /** The locations with exactly the term as name. */
+        FULL,
+        /** The names containing the most of the words of the term. */
+        WORDS,
+        /** The best few names starting with the term despite typos. */
+        FUZZY,
+        /** The names starting with the term nearest a location. */
+        LOCATED,
+        /** The best few names starting with the term. */
+        LIMITED,
+        /** Every name starting with the term. */
+        PREFIX
+    }
+
+    /**
+     * A search request with the parameters its kind uses parsed and checked.
+     */
+    static class Search {
+        final Kind kind;
+        final String term;
+        /* The limit, or MAX_LIMIT without one, for all but FULL and PREFIX searches. */
+        final int limit;
+        /* The typos a FUZZY search tolerates. */
+        final int edits;
+        /* The location a LOCATED search ranks by. */
+        final double lon;
+        final double lat;
+
+        Search(Kind kind, String term, int limit, int edits, double lon, double lat) {
+            this.kind = kind;
+            this.term = term;
+            this.limit = limit;
+            this.edits = edits;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
 
+    /**
+     * Answers the request from the cache if it can, and otherwise as every handler does,
+     * caching the response.
+     */
     @Override
-    protected Tuple<Set<String>, String> parseRequestParams(Request request) {
-        return new Tuple<>(request.queryParams(), request.queryParams("term"));
+    public Object handle(Request request, Response response) throws Exception {
+        Search search = parseRequestParams(request);
+        String key = cacheKey(search);
+        if (key == null) {
+            return buildJsonResponse(processRequest(search, response));
+        }
+        byte[] json = cache.get(key);
+        if (json == null) {
+            /* Read first, so a response computed while the trie is replaced isn't kept. */
+            long generation = cache.generation();
+            json = buildJsonResponse(processRequest(search, response)).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            cache.put(key, json, generation);
+        }
+        return json;
+    }
+
+    /**
+     * Returns the cache of responses, for its hit, miss and eviction counts.
+     */
+    public SearchResponseCache cache() {
+        return cache;
     }
 
+    /* Returns the key the response to SEARCH is cached under, naming its kind, its
+       options and the cleaned term, which is all a result depends on. Returns null for
+       located searches, which aren't cached. */
+    private static String cacheKey(Search search) {
+        String key;
+        switch (search.kind) {
+            case FULL:
+                key = "full";
+                break;
+            case WORDS:
+                key = "words " + search.limit;
+                break;
+            case FUZZY:
+                key = "fuzzy " + search.edits + " " + search.limit;
+                break;
+            case LIMITED:
+                key = "limit " + search.limit;
+                break;
+            case PREFIX:
+                key = "prefix";
+                break;
+            default:
+                return null;
+        }
+        return search.term == null ? key
+                : key + ":" + AugmentedStreetMapGraph.cleanString(search.term);
+    }
+
+    /**
+     * Picks the kind of search from the request's parameters and parses the ones it
+     * uses, halting the request if any of those is malformed.
+     */
     @Override
-    protected Object processRequest(Tuple<Set<String>, String> requestParams, Response response) {
-        Set<String> reqParams = requestParams.getFirst();
-        String term = requestParams.getSecond();
+    protected Search parseRequestParams(Request request) {
+        String term = request.queryParams("term");
+        Set<String> params = request.queryParams();
+        if (params.contains("full")) {
+            return new Search(Kind.FULL, term, 0, 0, 0, 0);
+        }
+        String limit = request.queryParams("limit");
+        if (params.contains("words")) {
+            return new Search(Kind.WORDS, term, limitOrMax(limit), 0, 0, 0);
+        }
+        if (params.contains("fuzzy")) {
+            return new Search(Kind.FUZZY, term, limitOrMax(limit),
+                    parseEdits(request.queryParams("fuzzy")), 0, 0);
+        }
+        if (params.contains("lat") && params.contains("lon")) {
+            return new Search(Kind.LOCATED, term, limitOrMax(limit), 0,
+                    parseCoordinate(request.queryParams("lon")),
+                    parseCoordinate(request.queryParams("lat")));
+        }
+        if (limit != null) {
+            return new Search(Kind.LIMITED, term, parseLimit(limit), 0, 0, 0);
+        }
+        return new Search(Kind.PREFIX, term, 0, 0, 0, 0);
+    }
+
+    @Override
+    protected Object processRequest(Search search, Response response) {
+        String term = search.term;
         Object result;
-        /* Search for actual location data. */
-        if (reqParams.contains("full")) {
-            result = getLocations(term);
-        } else {
-            /* Search for prefix matching strings. */
-            result = getLocationsByPrefix(term);
+        switch (search.kind) {
+            case FULL:
+                /* Search for actual location data. */
+                result = getLocations(term);
+                break;
+            case WORDS:
+                /* Search for the strings containing the most of the words. */
+                result = getLocationsByWords(term, search.limit);
+                break;
+            case FUZZY:
+                /* Search for the best few strings prefix matching despite typos. */
+                result = getLocationsByFuzzyPrefix(term, search.edits, search.limit);
+                break;
+            case LOCATED:
+                /* Search for the prefix matching strings nearest the location. */
+                result = getLocationsByPrefix(term, search.limit, search.lon, search.lat);
+                break;
+            case LIMITED:
+                /* Search for the best few prefix matching strings. */
+                result = getLocationsByPrefix(term, search.limit);
+                break;
+            default:
+                /* Search for prefix matching strings. */
+                result = getLocationsByPrefix(term);
+                break;
         }
         return result;
     }
 
+    /* Returns LIMIT parsed, or MAX_LIMIT if it is null. */
+    private static int limitOrMax(String limit) {
+        return limit != null ? parseLimit(limit) : MAX_LIMIT;
+    }
+
+    /* Returns LIMIT as a number no larger than MAX_LIMIT, halting the request if it isn't
+       a non-negative integer. */
+    private static int parseLimit(String limit) {
+        try {
+            int k = Integer.parseInt(limit);
+            if (k >= 0) {
+                return Math.min(k, MAX_LIMIT);
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+        halt(HALT_RESPONSE, "Incorrect parameters - limit must be a non-negative integer.");
+        return 0;
+    }
+
+    /* Returns EDITS as a number, halting the request if it isn't between 0 and
+       MAX_EDITS. */
+    private static int parseEdits(String edits) {
+        try {
+            int e = Integer.parseInt(edits);
+            if (e >= 0 && e <= MAX_EDITS) {
+                return e;
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+        halt(HALT_RESPONSE, "Incorrect parameters - fuzzy must be 0, 1 or 2.");
+        return 0;
+    }
+
+    /* Returns COORDINATE as a number, halting the request if it isn't a finite one. */
+    private static double parseCoordinate(String coordinate) {
+        try {
+            double c = Double.parseDouble(coordinate);
+            if (Double.isFinite(c)) {
+                return c;
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+        halt(HALT_RESPONSE, "Incorrect parameters - lat and lon must be numbers.");
+        return 0;
+    }
+
     /**
      * In linear time, collect all the names of OSM locations that prefix-match the query string.
      *
@@ -50,6 +279,66 @@ public class SearchAPIHandler extends APIRouteHandler<Tuple<Set<String>, String>
         return SEMANTIC_STREET_GRAPH.getLocationsByPrefix(prefix);
     }
 
+    /**
+     * Collect the names of at most LIMIT OSM locations that prefix-match the query string,
+     * each name once, the most common first.
+     *
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param limit  The most names to return.
+     * @return A <code>List</code> of at most LIMIT full names of locations whose cleaned name
+     * matches the cleaned <code>prefix</code>.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int limit) {
+
+        return SEMANTIC_STREET_GRAPH.getLocationsByPrefix(prefix, limit);
+    }
+
+    /**
+     * Collect the names of at most LIMIT OSM locations that prefix-match the query string,
+     * each name once, those with a node nearest the given location first.
+     *
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param limit  The most names to return.
+     * @param lon    The longitude to rank by.
+     * @param lat    The latitude to rank by.
+     * @return A <code>List</code> of at most LIMIT full names of locations whose cleaned name
+     * matches the cleaned <code>prefix</code>.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int limit, double lon, double lat) {
+
+        return SEMANTIC_STREET_GRAPH.getLocationsByPrefix(prefix, limit, lon, lat);
+    }
+
+    /**
+     * Collect the names of at most LIMIT OSM locations that prefix-match the query string
+     * with up to MAXEDITS typos, each name once, the closest matches first.
+     *
+     * @param prefix   Prefix string to be searched for, possibly misspelled.
+     * @param maxEdits The most typos to tolerate.
+     * @param limit    The most names to return.
+     * @return A <code>List</code> of at most LIMIT full names of matching locations.
+     */
+    public List<String> getLocationsByFuzzyPrefix(String prefix, int maxEdits, int limit) {
+
+        return SEMANTIC_STREET_GRAPH.getLocationsByFuzzyPrefix(prefix, maxEdits, limit);
+    }
+
+    /**
+     * Collect the names of at most LIMIT OSM locations containing any of the words of the
+     * query string, each name once, those containing the most words first.
+     *
+     * @param query The words searched for. Could be any case, with our without
+     *              punctuation.
+     * @param limit The most names to return.
+     * @return A <code>List</code> of at most LIMIT full names of matching locations.
+     */
+    public List<String> getLocationsByWords(String query, int limit) {
+
+        return SEMANTIC_STREET_GRAPH.getLocationsByWords(query, limit);
+    }
+
     /**
      * Collect all locations that match a cleaned <code>locationName</code>, and return
      * information about each node that matches.
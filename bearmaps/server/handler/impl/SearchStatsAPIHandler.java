@@ -0,0 +1,54 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.search.SearchResponseCache;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reports how well the cache of /search responses is doing, for operators to watch.
+ * Takes no parameters.
+ */
+public class SearchStatsAPIHandler extends APIRouteHandler<Object, Map<String, Object>> {
+
+    private final SearchResponseCache cache;
+
+    /**
+     * Creates a handler reporting on CACHE, typically that of the SearchAPIHandler
+     * serving /search.
+     */
+    public SearchStatsAPIHandler(SearchResponseCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    protected Object parseRequestParams(Request request) {
+        return null;
+    }
+
+    /**
+     * Reads the counters of the cache.
+     *
+     * @param requestParams Not used by this function.
+     * @param response      : Not used by this function.
+     * @return A map of results for the front end as specified: <br>
+     * "hits", "misses" : Number, the searches answered from the cache and those not.<br>
+     * "evictions" : Number, the responses dropped to make room while still current.<br>
+     * "entries" : Number, the responses held, including any stale ones not yet dropped.<br>
+     * "bytes", "capacity" : Number, the bytes held and the most the cache may hold.
+     */
+    @Override
+    public Map<String, Object> processRequest(Object requestParams, Response response) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("hits", cache.hits());
+        result.put("misses", cache.misses());
+        result.put("evictions", cache.evictions());
+        result.put("entries", cache.size());
+        result.put("bytes", cache.weight());
+        result.put("capacity", cache.capacity());
+        return result;
+    }
+}
@@ -0,0 +1,151 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.ch.ContractionHierarchy;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static bearmaps.utils.Constants.BASE_DIR_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test of writing a contraction hierarchy to a file and reading it back.
+ */
+public class TestContractionHierarchy {
+    private static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
+    private static AugmentedStreetMapGraph graph;
+    private static ContractionHierarchy hierarchy;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        hierarchy = ContractionHierarchy.build(graph.compactGraph());
+        initialized = true;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("hierarchy");
+        Path file = dir.resolve("graph.ch");
+        try {
+            hierarchy.write(file);
+            hierarchy.write(file);
+            assertEquals(1, dir.toFile().list().length);
+            ContractionHierarchy read = ContractionHierarchy.read(file);
+
+            assertTrue(read.matches(graph.compactGraph()));
+            assertEquals(hierarchy.numVertices(), read.numVertices());
+            assertEquals(hierarchy.numEdges(), read.numEdges());
+            for (int v = 0; v < hierarchy.numVertices(); v++) {
+                assertEquals(hierarchy.rank(v), read.rank(v));
+                assertEquals(hierarchy.edgeStart(v), read.edgeStart(v));
+                assertEquals(hierarchy.edgeEnd(v), read.edgeEnd(v));
+            }
+            for (int e = 0; e < hierarchy.numEdges(); e++) {
+                assertEquals(hierarchy.edgeTarget(e), read.edgeTarget(e));
+                assertEquals(hierarchy.edgeWeight(e), read.edgeWeight(e), 0);
+                assertEquals(hierarchy.edgeMiddle(e), read.edgeMiddle(e));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    /* A hierarchy built before a node moved, which changes the weights of its edges but
+       not how many there are, must not be used. */
+    @Test
+    public void testStale() {
+        CompactStreetMapGraph before = square(37.8700);
+        CompactStreetMapGraph after = square(37.8701);
+        ContractionHierarchy built = ContractionHierarchy.build(before);
+        assertTrue(built.matches(before));
+        assertFalse(built.matches(after));
+        try {
+            new AugmentedStreetMapGraph(after).setContractionHierarchy(built);
+            fail("Used a hierarchy built for a different graph");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("different graph"));
+        }
+    }
+
+    /* A square of four nodes, the first at LAT. */
+    private static CompactStreetMapGraph square(double lat) {
+        CompactStreetMapGraph.Builder builder = new CompactStreetMapGraph.Builder();
+        builder.addNode(1, lat, -122.2600, null);
+        builder.addNode(2, 37.8700, -122.2590, null);
+        builder.addNode(3, 37.8710, -122.2590, null);
+        builder.addNode(4, 37.8710, -122.2600, null);
+        for (long v = 1; v <= 4; v++) {
+            long w = v % 4 + 1;
+            builder.addWeightedEdge(v, w, "");
+            builder.addWeightedEdge(w, v, "");
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        Path file = Files.createTempFile("hierarchy", ".ch");
+        Path truncated = Files.createTempFile("truncated", ".ch");
+        try {
+            hierarchy.write(file);
+            byte[] bytes = Files.readAllBytes(file);
+            /* Every cut but one in the padding after the last section must be caught. */
+            int step = Math.max(1, bytes.length / 500);
+            for (int length = 0; length < bytes.length - 8; length += length < 64 ? 1 : step) {
+                Files.write(truncated, Arrays.copyOf(bytes, length));
+                try {
+                    ContractionHierarchy.read(truncated);
+                    fail("Read a hierarchy cut to " + length + " of " + bytes.length + " bytes");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains(truncated.toString()));
+                }
+            }
+
+            /* A vertex count too large for the file. */
+            byte[] corrupt = bytes.clone();
+            corrupt[11] = (byte) 0x7f;
+            Files.write(truncated, corrupt);
+            try {
+                ContractionHierarchy.read(truncated);
+                fail("Read a hierarchy with a corrupt vertex count");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains(truncated.toString()));
+            }
+
+            /* An edge leading to a vertex that doesn't exist. */
+            corrupt = bytes.clone();
+            int n = hierarchy.numVertices();
+            int targets = 24 + align(4 * n) + align(4 * (n + 1));
+            corrupt[targets + 3] = (byte) 0x7f;
+            Files.write(truncated, corrupt);
+            try {
+                ContractionHierarchy.read(truncated);
+                fail("Read a hierarchy with a corrupt edge target");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("corrupt"));
+            }
+        } finally {
+            Files.delete(file);
+            Files.delete(truncated);
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
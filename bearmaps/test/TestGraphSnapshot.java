@@ -0,0 +1,126 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static bearmaps.utils.Constants.BASE_DIR_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test of writing the graph to a snapshot and reading it back.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
+    private static CompactStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH).compactGraph();
+        initialized = true;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path snapshot = dir.resolve("graph.bmap");
+        try {
+            GraphSnapshot.write(graph, snapshot, OSM_DB_PATH);
+            assertEquals(1, dir.toFile().list().length);
+            CompactStreetMapGraph read = GraphSnapshot.read(snapshot, OSM_DB_PATH);
+
+            assertEquals(graph.numVertices(), read.numVertices());
+            assertEquals(graph.numEdges(), read.numEdges());
+            for (int v = 0; v < graph.numVertices(); v++) {
+                assertEquals(graph.id(v), read.id(v));
+                assertEquals(v, read.index(graph.id(v)));
+                assertEquals(graph.lat(v), read.lat(v), 0);
+                assertEquals(graph.lon(v), read.lon(v), 0);
+                assertEquals(graph.name(v), read.name(v));
+                assertEquals(graph.edgeStart(v), read.edgeStart(v));
+                assertEquals(graph.edgeEnd(v), read.edgeEnd(v));
+            }
+            for (int e = 0; e < graph.numEdges(); e++) {
+                assertEquals(graph.edgeTarget(e), read.edgeTarget(e));
+                assertEquals(graph.edgeWeight(e), read.edgeWeight(e), 0);
+                assertEquals(graph.edgeName(e), read.edgeName(e));
+            }
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testStale() throws IOException {
+        Path source = Files.createTempFile("source", ".osm.xml");
+        Path snapshot = Files.createTempFile("graph", ".bmap");
+        try {
+            Files.write(source, new byte[]{'<'});
+            GraphSnapshot.write(graph, snapshot, source.toString());
+            GraphSnapshot.read(snapshot, source.toString());
+
+            Files.write(source, new byte[]{'>'}, StandardOpenOption.APPEND);
+            try {
+                GraphSnapshot.read(snapshot, source.toString());
+                fail("Read a snapshot older than its source");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("stale"));
+            }
+            /* Without a source to check it against, it is still a good snapshot. */
+            assertEquals(graph.numVertices(), GraphSnapshot.read(snapshot).numVertices());
+        } finally {
+            Files.delete(source);
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        Path snapshot = Files.createTempFile("graph", ".bmap");
+        Path truncated = Files.createTempFile("truncated", ".bmap");
+        try {
+            GraphSnapshot.write(graph, snapshot, null);
+            byte[] bytes = Files.readAllBytes(snapshot);
+            /* Every cut but one in the padding after the last section must be caught. */
+            int step = Math.max(1, bytes.length / 500);
+            for (int length = 0; length < bytes.length - 8; length += length < 64 ? 1 : step) {
+                Files.write(truncated, Arrays.copyOf(bytes, length));
+                try {
+                    GraphSnapshot.read(truncated);
+                    fail("Read a snapshot cut to " + length + " of " + bytes.length + " bytes");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains(truncated.toString()));
+                }
+            }
+
+            /* A vertex count too large for the file. */
+            byte[] corrupt = bytes.clone();
+            corrupt[11] = (byte) 0x7f;
+            Files.write(truncated, corrupt);
+            try {
+                GraphSnapshot.read(truncated);
+                fail("Read a snapshot with a corrupt vertex count");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains(truncated.toString()));
+            }
+        } finally {
+            Files.delete(snapshot);
+            Files.delete(truncated);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.server.handler.impl.ReverseGeocodeAPIHandler;
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.ps.SegmentRTree;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test of looking up the named place and road at a location.
+ */
+public class TestReverseGeocode {
+    private static final double QUERY_LON = -122.2595;
+    private static final double QUERY_LAT = 37.8702;
+    private AugmentedStreetMapGraph graph;
+
+    /* An unnamed way just north of the query, a named one further north, a named place
+       off both of them, and a named place far away. */
+    @Before
+    public void setUp() {
+        CompactStreetMapGraph.Builder builder = new CompactStreetMapGraph.Builder();
+        builder.addNode(1, 37.8700, -122.2600, null);
+        builder.addNode(2, 37.8700, -122.2590, null);
+        builder.addNode(3, 37.8710, -122.2600, null);
+        builder.addNode(4, 37.8710, -122.2590, null);
+        builder.addNode(5, 37.8720, -122.2595, "Top Dog");
+        builder.addNode(6, 37.8800, -122.2500, "Far Place");
+        addWay(builder, 1, 2, "");
+        addWay(builder, 3, 4, "Shattuck Avenue");
+        graph = new AugmentedStreetMapGraph(builder.build());
+    }
+
+    private static void addWay(CompactStreetMapGraph.Builder builder, long from, long to, String name) {
+        builder.addWeightedEdge(from, to, name);
+        builder.addWeightedEdge(to, from, name);
+    }
+
+    @Test
+    public void testClosestNamedSegmentSkipsUnnamedWays() {
+        CompactStreetMapGraph compact = graph.compactGraph();
+        SegmentRTree.Projection closest = graph.closestSegment(QUERY_LON, QUERY_LAT);
+        assertEquals("", compact.edgeName(closest.segment()));
+
+        SegmentRTree.Projection named = graph.closestNamedSegment(QUERY_LON, QUERY_LAT);
+        assertEquals("Shattuck Avenue", compact.edgeName(named.segment()));
+    }
+
+    @Test
+    public void testClosestNamed() {
+        CompactStreetMapGraph compact = graph.compactGraph();
+        assertEquals(5, graph.closestNamed(QUERY_LON, QUERY_LAT));
+        assertEquals(compact.index(5), graph.closestNamedIndex(QUERY_LON, QUERY_LAT));
+        assertEquals(6, graph.closestNamed(-122.2501, 37.8799));
+    }
+
+    @Test
+    public void testHandler() {
+        AugmentedStreetMapGraph previous = Constants.SEMANTIC_STREET_GRAPH;
+        Constants.SEMANTIC_STREET_GRAPH = graph;
+        try {
+            Map<String, Double> params = new HashMap<>();
+            params.put("lon", QUERY_LON);
+            params.put("lat", QUERY_LAT);
+            Map<String, Object> result = new ReverseGeocodeAPIHandler().processRequest(params, null);
+            assertEquals(true, result.get("success"));
+            assertEquals(5L, result.get("id"));
+            assertEquals("Top Dog", result.get("name"));
+            assertEquals(37.8720, (double) result.get("lat"), 1e-9);
+            assertEquals(-122.2595, (double) result.get("lon"), 1e-9);
+            assertEquals("Shattuck Avenue", result.get("road"));
+        } finally {
+            Constants.SEMANTIC_STREET_GRAPH = previous;
+        }
+    }
+
+    @Test
+    public void testNothingNamed() {
+        CompactStreetMapGraph.Builder builder = new CompactStreetMapGraph.Builder();
+        builder.addNode(1, 37.8700, -122.2600, null);
+        builder.addNode(2, 37.8700, -122.2590, null);
+        addWay(builder, 1, 2, "");
+        AugmentedStreetMapGraph unnamed = new AugmentedStreetMapGraph(builder.build());
+        assertEquals(-1, unnamed.closestNamed(QUERY_LON, QUERY_LAT));
+        assertEquals(-1, unnamed.closestNamedIndex(QUERY_LON, QUERY_LAT));
+        assertNull(unnamed.closestNamedSegment(QUERY_LON, QUERY_LAT));
+
+        AugmentedStreetMapGraph previous = Constants.SEMANTIC_STREET_GRAPH;
+        Constants.SEMANTIC_STREET_GRAPH = unnamed;
+        try {
+            Map<String, Double> params = new HashMap<>();
+            params.put("lon", QUERY_LON);
+            params.put("lat", QUERY_LAT);
+            Map<String, Object> result = new ReverseGeocodeAPIHandler().processRequest(params, null);
+            assertEquals(false, result.get("success"));
+            assertFalse(result.containsKey("road"));
+            assertFalse(result.containsKey("id"));
+        } finally {
+            Constants.SEMANTIC_STREET_GRAPH = previous;
+        }
+    }
+}
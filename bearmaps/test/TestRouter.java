@@ -2,6 +2,14 @@ package bearmaps.test;
 
 import bearmaps.AugmentedStreetMapGraph;
 import bearmaps.Router;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.BidirectionalAStarSolver;
+import bearmaps.utils.graph.IndexedAStarGraph;
+import bearmaps.utils.graph.LandmarkGraph;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.VirtualEndpointGraph;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.ps.SegmentRTree;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -12,9 +20,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static bearmaps.utils.Constants.BASE_DIR_PATH;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test of the routing part of the assignment.
@@ -53,6 +63,225 @@ public class TestRouter {
         }
     }
 
+    @Test
+    public void testShortestPathBidirectional() throws Exception {
+        checkShortestPaths(Router.Algorithm.BIDIRECTIONAL_A_STAR);
+    }
+
+    @Test
+    public void testShortestPathLandmarks() throws Exception {
+        checkShortestPaths(Router.Algorithm.ALT);
+    }
+
+    /**
+     * Runs the boxed AStarSolver with the landmark heuristic, which must find the same
+     * paths as the great-circle one.
+     */
+    @Test
+    public void testLandmarkAStarSolver() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+        CompactStreetMapGraph compact = graph.compactGraph();
+        LandmarkGraph landmarks = graph.landmarkGraph();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            int start = compact.index(graph.closest(params.get("start_lon"), params.get("start_lat")));
+            int end = compact.index(graph.closest(params.get("end_lon"), params.get("end_lat")));
+            List<Long> actual = new ArrayList<>();
+            for (int v : new AStarSolver<>(landmarks, start, end, 20).solution()) {
+                actual.add(compact.id(v));
+            }
+            assertEquals("Your results did not match the expected results",
+                    expectedResults.get(i), actual);
+        }
+    }
+
+    @Test
+    public void testBatchClosest() throws Exception {
+        Random random = new Random(17);
+        int n = 20000;
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = -122.30 + random.nextDouble() * 0.1;
+            lats[i] = 37.82 + random.nextDouble() * 0.1;
+        }
+        long[] ids = graph.closest(lons, lats);
+        for (int i = 0; i < n; i++) {
+            assertEquals(graph.closest(lons[i], lats[i]), ids[i]);
+        }
+    }
+
+    /**
+     * Checks that bidirectional A* from a point partway along one road to a point on
+     * another uses an estimate of the distance back to the start, by comparing it with
+     * the same search on a graph that estimates 0 there.
+     */
+    @Test
+    public void testSegmentSnappingBidirectionalEstimate() throws Exception {
+        CompactStreetMapGraph compact = graph.compactGraph();
+        Random random = new Random(23);
+        int withEstimate = 0;
+        int withoutEstimate = 0;
+        for (int i = 0; i < 20; i++) {
+            SegmentRTree.Projection from = graph.closestSegment(
+                    -122.28 + random.nextDouble() * 0.05, 37.85 + random.nextDouble() * 0.04);
+            SegmentRTree.Projection to = graph.closestSegment(
+                    -122.28 + random.nextDouble() * 0.05, 37.85 + random.nextDouble() * 0.04);
+            VirtualEndpointGraph virtual = new VirtualEndpointGraph(compact,
+                    segmentEnds(compact, from), segmentOffsets(compact, from),
+                    segmentEnds(compact, to), segmentOffsets(compact, to),
+                    Double.POSITIVE_INFINITY);
+            IndexedAStarGraph blind = new IndexedAStarGraph() {
+                @Override
+                public int numVertices() {
+                    return virtual.numVertices();
+                }
+
+                @Override
+                public int edgeStart(int v) {
+                    return virtual.edgeStart(v);
+                }
+
+                @Override
+                public int edgeEnd(int v) {
+                    return virtual.edgeEnd(v);
+                }
+
+                @Override
+                public int edgeTarget(int e) {
+                    return virtual.edgeTarget(e);
+                }
+
+                @Override
+                public double edgeWeight(int e) {
+                    return virtual.edgeWeight(e);
+                }
+
+                @Override
+                public double estimatedDistanceToGoal(int s, int goal) {
+                    return goal == virtual.start() && !virtual.isVirtual(s)
+                            ? 0 : virtual.estimatedDistanceToGoal(s, goal);
+                }
+
+                @Override
+                public IndexedAStarGraph reverse() {
+                    return virtual.reverse();
+                }
+            };
+
+            BidirectionalAStarSolver sharp = new BidirectionalAStarSolver(virtual,
+                    virtual.start(), virtual.end(), 10);
+            BidirectionalAStarSolver dull = new BidirectionalAStarSolver(blind,
+                    virtual.start(), virtual.end(), 10);
+            assertEquals(dull.solutionWeight(), sharp.solutionWeight(), 1e-9);
+            withEstimate += sharp.numStatesExplored();
+            withoutEstimate += dull.numStatesExplored();
+        }
+        System.out.println(String.format("States explored: %d with the estimate to the start, "
+                + "%d without", withEstimate, withoutEstimate));
+        assertTrue(withEstimate < withoutEstimate);
+    }
+
+    /* Returns the two ends of the segment P lies on. */
+    private static int[] segmentEnds(CompactStreetMapGraph graph, SegmentRTree.Projection p) {
+        int e = p.segment();
+        return new int[]{graph.edgeSource(e), graph.edgeTarget(e)};
+    }
+
+    /* Returns how far P is along its segment from each end. */
+    private static double[] segmentOffsets(CompactStreetMapGraph graph,
+                                           SegmentRTree.Projection p) {
+        double weight = graph.edgeWeight(p.segment());
+        return new double[]{p.fraction() * weight, (1 - p.fraction()) * weight};
+    }
+
+    @Test
+    public void testShortestPathDijkstra() throws Exception {
+        checkShortestPaths(Router.Algorithm.DIJKSTRA);
+    }
+
+    @Test
+    public void testShortestPathContractionHierarchies() throws Exception {
+        checkShortestPaths(Router.Algorithm.CONTRACTION_HIERARCHIES);
+    }
+
+    /**
+     * Prints how many states each algorithm explores on the test routes, and checks
+     * that they all agree on the length of the shortest path.
+     */
+    @Test
+    public void testStatesExplored() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            StringBuilder report = new StringBuilder(String.format("Test %d:", i));
+            double expectedWeight = Double.NaN;
+            for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+                ShortestPathsSolver<Integer> solver = Router.solve(graph,
+                        params.get("start_lon"), params.get("start_lat"),
+                        params.get("end_lon"), params.get("end_lat"), algorithm);
+                report.append(String.format(" %s %d", algorithm, solver.numStatesExplored()));
+                if (Double.isNaN(expectedWeight)) {
+                    expectedWeight = solver.solutionWeight();
+                }
+                assertEquals(algorithm + " found a path of a different length",
+                        expectedWeight, solver.solutionWeight(), 1e-9);
+            }
+            System.out.println(report);
+        }
+    }
+
+    /**
+     * Checks that every algorithm finds a path of the same length when routes start and
+     * end partway along road segments, and that each path follows the graph's edges.
+     */
+    @Test
+    public void testSegmentSnapping() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        CompactStreetMapGraph compact = graph.compactGraph();
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            double expectedWeight = Double.NaN;
+            for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+                ShortestPathsSolver<Integer> solver = Router.solve(graph,
+                        params.get("start_lon"), params.get("start_lat"),
+                        params.get("end_lon"), params.get("end_lat"), algorithm,
+                        Router.Snap.SEGMENT);
+                if (Double.isNaN(expectedWeight)) {
+                    expectedWeight = solver.solutionWeight();
+                }
+                assertEquals(algorithm + " found a path of a different length",
+                        expectedWeight, solver.solutionWeight(), 1e-9);
+                List<Integer> path = solver.solution();
+                for (int j = 1; j < path.size(); j++) {
+                    boolean adjacent = false;
+                    for (int e = compact.edgeStart(path.get(j - 1));
+                         e < compact.edgeEnd(path.get(j - 1)); e++) {
+                        adjacent |= compact.edgeTarget(e) == path.get(j);
+                    }
+                    assertTrue(algorithm + " returned a path that skips an edge", adjacent);
+                }
+            }
+        }
+    }
+
+    private void checkShortestPaths(Router.Algorithm algorithm) throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            System.out.println(String.format("Running test %d with %s", i, algorithm));
+            Map<String, Double> params = testParams.get(i);
+            List<Long> actual = Router.shortestPath(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), algorithm);
+            List<Long> expected = expectedResults.get(i);
+            assertEquals("Your results did not match the expected results", expected, actual);
+        }
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
@@ -0,0 +1,33 @@
+package bearmaps.test;
+
+import bearmaps.server.handler.impl.SearchStatsAPIHandler;
+import bearmaps.utils.search.SearchResponseCache;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test of reporting the counters of the search response cache.
+ */
+public class TestSearchStatsAPIHandler {
+
+    @Test
+    public void testProcessRequest() {
+        SearchResponseCache cache = new SearchResponseCache(1000);
+        SearchStatsAPIHandler handler = new SearchStatsAPIHandler(cache);
+        cache.get("prefix:top");
+        cache.put("prefix:top", new byte[10], cache.generation());
+        cache.get("prefix:top");
+        cache.get("prefix:top");
+
+        Map<String, Object> result = handler.processRequest(null, null);
+        assertEquals(2L, result.get("hits"));
+        assertEquals(1L, result.get("misses"));
+        assertEquals(0L, result.get("evictions"));
+        assertEquals(1, result.get("entries"));
+        assertEquals(cache.weight(), result.get("bytes"));
+        assertEquals(1000L, result.get("capacity"));
+    }
+}
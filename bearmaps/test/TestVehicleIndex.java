@@ -0,0 +1,95 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.VehicleIndex;
+import bearmaps.utils.graph.IndexedDijkstraSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static bearmaps.utils.Constants.BASE_DIR_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of nearest vehicle queries by road distance.
+ */
+public class TestVehicleIndex {
+    private static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        VehicleIndex vehicles = new VehicleIndex(graph);
+        vehicles.update(7, -122.26, 37.87);
+        assertEquals(graph.closest(-122.26, 37.87), vehicles.vertex(7));
+        vehicles.update(7, -122.25, 37.86);
+        assertEquals(graph.closest(-122.25, 37.86), vehicles.vertex(7));
+        assertEquals(1, vehicles.size());
+        assertEquals(Collections.singletonList(7L), vehicles.nearest(-122.26, 37.87, 3, 10));
+
+        assertTrue(vehicles.remove(7));
+        assertFalse(vehicles.remove(7));
+        assertEquals(-1, vehicles.vertex(7));
+        assertTrue(vehicles.nearest(-122.26, 37.87, 3, 10).isEmpty());
+    }
+
+    @Test
+    public void testNearest() {
+        CompactStreetMapGraph compact = graph.compactGraph();
+        Random random = new Random(11);
+        VehicleIndex vehicles = new VehicleIndex(graph);
+        for (long id = 0; id < 40; id++) {
+            vehicles.update(id, -122.28 + random.nextDouble() * 0.04, 37.85 + random.nextDouble() * 0.04);
+        }
+
+        for (int q = 0; q < 10; q++) {
+            double lon = -122.28 + random.nextDouble() * 0.04;
+            double lat = 37.85 + random.nextDouble() * 0.04;
+            int pickup = compact.index(graph.closest(lon, lat));
+
+            List<Double> expected = new ArrayList<>();
+            for (long id = 0; id < 40; id++) {
+                expected.add(distance(compact, compact.index(vehicles.vertex(id)), pickup));
+            }
+            Collections.sort(expected);
+
+            List<Long> nearest = vehicles.nearest(lon, lat, 5, Double.POSITIVE_INFINITY);
+            assertEquals(5, nearest.size());
+            for (int i = 0; i < nearest.size(); i++) {
+                double d = distance(compact, compact.index(vehicles.vertex(nearest.get(i))), pickup);
+                assertEquals(expected.get(i), d, 1e-9);
+            }
+
+            /* Only the vehicles within the bound, even though more are asked for. The
+               bound falls between the third and fourth closest, clear of rounding. */
+            if (expected.get(3) - expected.get(2) > 1e-6) {
+                double bound = (expected.get(2) + expected.get(3)) / 2;
+                List<Long> bounded = vehicles.nearest(lon, lat, 10, bound);
+                assertEquals(nearest.subList(0, 3), bounded);
+            }
+        }
+    }
+
+    private static double distance(CompactStreetMapGraph compact, int from, int to) {
+        IndexedDijkstraSolver solver = new IndexedDijkstraSolver(compact, from, to, 10);
+        return solver.outcome() == SolverOutcome.SOLVED ? solver.solutionWeight() : Double.POSITIVE_INFINITY;
+    }
+}
@@ -29,6 +29,26 @@ public class Constants {
      **/
     public static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
 
+    /**
+     * Binary snapshot of the graph built from OSM_DB_PATH by
+     * {@link bearmaps.utils.graph.streetmap.GraphSnapshot}. Loaded instead of the XML
+     * on startup when present, unless OSM_DB_PATH has changed since it was built.
+     */
+    public static final String GRAPH_SNAPSHOT_PATH = BASE_DIR_PATH + "data/proj3_bin/berkeley-2020.bmap";
+
+    /**
+     * Contraction hierarchy of the graph, built from OSM_DB_PATH by
+     * {@link bearmaps.utils.graph.ch.ContractionHierarchy}. Routes are answered with it
+     * when present.
+     */
+    public static final String CONTRACTION_HIERARCHY_PATH = BASE_DIR_PATH + "data/proj3_bin/berkeley-2020.ch";
+
+    /**
+     * Trie of the cleaned node names, a {@link bearmaps.utils.trie.CompactTrie}. Written
+     * on the first start and read instead of rebuilding the trie after that.
+     */
+    public static final String NAME_TRIE_PATH = BASE_DIR_PATH + "data/proj3_bin/berkeley-2020.trie";
+
     /**
      * The tile images are in the IMG_ROOT folder.
      */
@@ -0,0 +1,164 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedMinPQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bidirectional A* over an IndexedAStarGraph: one search runs forward from the start
+ * over the graph and one runs backward from the end over its reverse, each settling
+ * whichever of the two fringes has the smaller top priority, until they have met on a
+ * path that provably can't be beaten.
+ * <p>
+ * Both searches use the average potential p(v) = (h(v, end) - h(v, start)) / 2, the
+ * forward one adding it and the backward one subtracting it, where h is the graph's
+ * estimatedDistanceToGoal. Unlike giving each side its own heuristic, this keeps the two
+ * consistent with each other, so the search can stop as soon as the two top priorities
+ * add up to at least the length of the best path found so far.
+ * <p>
+ * The searches use the calling thread's SearchWorkspace and its backward workspace.
+ */
+public class BidirectionalAStarSolver implements ShortestPathsSolver<Integer> {
+
+    /**
+     * How many vertices to settle between checks of the clock.
+     */
+    private static final int TIMEOUT_CHECK_INTERVAL = 256;
+
+    private final IndexedAStarGraph input;
+    private final int start;
+    private final int end;
+
+    private SolverOutcome outcome;
+    private List<Integer> solution;
+    private double solutionWeight;
+    private int statesExplored;
+    private double explorationTime;
+
+    /* The length of the best path found so far and the vertex both searches reached
+       it through, or -1. */
+    private double best = Double.POSITIVE_INFINITY;
+    private int meeting = -1;
+
+    public BidirectionalAStarSolver(IndexedAStarGraph input, int start, int end, double timeout) {
+        long startTime = System.nanoTime();
+        long stopTime = startTime + (long) (timeout * 1e9);
+        this.input = input;
+        this.start = start;
+        this.end = end;
+        IndexedAStarGraph reverse = input.reverse();
+        SearchWorkspace forward = SearchWorkspace.acquire(input.numVertices());
+        SearchWorkspace backward = SearchWorkspace.acquireBackward(input.numVertices());
+        IndexedMinPQ forwardFringe = forward.fringe();
+        IndexedMinPQ backwardFringe = backward.fringe();
+
+        forward.relax(start, 0, -1);
+        forwardFringe.insert(start, potential(start));
+        backward.relax(end, 0, -1);
+        backwardFringe.insert(end, -potential(end));
+        if (start == end) {
+            best = 0;
+            meeting = start;
+        }
+        outcome = SolverOutcome.UNSOLVABLE;
+
+        while (forwardFringe.size() > 0 && backwardFringe.size() > 0) {
+            if (statesExplored % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() > stopTime) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+            double forwardTop = forwardFringe.peekPriority();
+            double backwardTop = backwardFringe.peekPriority();
+            if (forwardTop + backwardTop >= best) {
+                break;
+            }
+            statesExplored++;
+            if (forwardTop <= backwardTop) {
+                expand(input, forward, backward, 1);
+            } else {
+                expand(reverse, backward, forward, -1);
+            }
+        }
+        if (outcome != SolverOutcome.TIMEOUT && meeting >= 0) {
+            outcome = SolverOutcome.SOLVED;
+        }
+
+        solution = new ArrayList<>();
+        if (outcome == SolverOutcome.SOLVED) {
+            solutionWeight = best;
+            for (int v = meeting; v != -1; v = forward.edgeTo(v)) {
+                solution.add(v);
+            }
+            Collections.reverse(solution);
+            for (int v = backward.edgeTo(meeting); v != -1; v = backward.edgeTo(v)) {
+                solution.add(v);
+            }
+        }
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /**
+     * Returns the average potential of V, which the forward search adds to distances
+     * and the backward search subtracts.
+     */
+    private double potential(int v) {
+        return (input.estimatedDistanceToGoal(v, end) - input.estimatedDistanceToGoal(v, start)) / 2;
+    }
+
+    /**
+     * Settles the top vertex of SIDE's fringe, relaxing its edges in GRAPH and checking
+     * every improved vertex against the distances OTHER has found. SIGN is 1 for the
+     * forward search and -1 for the backward one.
+     */
+    private void expand(IndexedAStarGraph graph, SearchWorkspace side, SearchWorkspace other,
+                        int sign) {
+        IndexedMinPQ fringe = side.fringe();
+        int v = fringe.pollInt();
+        double dv = side.distTo(v);
+        for (int e = graph.edgeStart(v), last = graph.edgeEnd(v); e < last; e++) {
+            int w = graph.edgeTarget(e);
+            double dw = dv + graph.edgeWeight(e);
+            if (dw < side.distTo(w)) {
+                double priority = dw + sign * potential(w);
+                if (fringe.contains(w)) {
+                    fringe.changePriority(w, priority);
+                } else {
+                    fringe.insert(w, priority);
+                }
+                side.relax(w, dw, v);
+                double through = dw + other.distTo(w);
+                if (through < best) {
+                    best = through;
+                    meeting = w;
+                }
+            }
+        }
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Integer> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return statesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
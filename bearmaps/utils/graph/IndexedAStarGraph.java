@@ -0,0 +1,27 @@
+package bearmaps.utils.graph;
+
+/**
+ * Represents a graph whose vertices are the ints 0 through numVertices() - 1 and whose
+ * edges are numbered so that the outgoing edges of v are edgeStart(v) through
+ * edgeEnd(v) - 1. A primitive sibling of AStarGraph for solvers that shouldn't box.
+ */
+public interface IndexedAStarGraph {
+    int numVertices();
+
+    int edgeStart(int v);
+
+    int edgeEnd(int v);
+
+    int edgeTarget(int e);
+
+    double edgeWeight(int e);
+
+    double estimatedDistanceToGoal(int s, int goal);
+
+    /**
+     * Returns the graph with the same vertices and every edge turned around, which is
+     * what a search running backwards from the goal walks. A graph that stores each of
+     * its edges in both directions may return itself.
+     */
+    IndexedAStarGraph reverse();
+}
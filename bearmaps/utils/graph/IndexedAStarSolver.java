@@ -0,0 +1,101 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedMinPQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A* over an IndexedAStarGraph. Distances and back pointers live in arrays indexed
+ * by vertex and the fringe is an IndexedMinPQ, so relaxing an edge is a few array
+ * accesses with no boxing or hashing. The arrays come from the calling thread's
+ * SearchWorkspace, so back-to-back searches don't allocate them again.
+ */
+public class IndexedAStarSolver implements ShortestPathsSolver<Integer> {
+
+    /**
+     * How many vertices to settle between checks of the clock.
+     */
+    private static final int TIMEOUT_CHECK_INTERVAL = 256;
+
+    private SolverOutcome outcome;
+    private List<Integer> solution;
+    private double solutionWeight;
+    private int statesExplored;
+    private double explorationTime;
+
+    public IndexedAStarSolver(IndexedAStarGraph input, int start, int end, double timeout) {
+        long startTime = System.nanoTime();
+        long stopTime = startTime + (long) (timeout * 1e9);
+        SearchWorkspace workspace = SearchWorkspace.acquire(input.numVertices());
+        IndexedMinPQ fringe = workspace.fringe();
+
+        workspace.relax(start, 0, -1);
+        fringe.insert(start, input.estimatedDistanceToGoal(start, end));
+        outcome = SolverOutcome.UNSOLVABLE;
+
+        while (fringe.size() > 0) {
+            if (statesExplored % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() > stopTime) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+            int v = fringe.pollInt();
+            statesExplored++;
+            if (v == end) {
+                outcome = SolverOutcome.SOLVED;
+                break;
+            }
+
+            double dv = workspace.distTo(v);
+            for (int e = input.edgeStart(v), last = input.edgeEnd(v); e < last; e++) {
+                int w = input.edgeTarget(e);
+                double dw = dv + input.edgeWeight(e);
+                if (dw < workspace.distTo(w)) {
+                    double priority = dw + input.estimatedDistanceToGoal(w, end);
+                    if (fringe.contains(w)) {
+                        fringe.changePriority(w, priority);
+                    } else {
+                        fringe.insert(w, priority);
+                    }
+                    workspace.relax(w, dw, v);
+                }
+            }
+        }
+
+        solution = new ArrayList<>();
+        if (outcome == SolverOutcome.SOLVED) {
+            solutionWeight = workspace.distTo(end);
+            for (int v = end; v != -1; v = workspace.edgeTo(v)) {
+                solution.add(v);
+            }
+            Collections.reverse(solution);
+        }
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Integer> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return statesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
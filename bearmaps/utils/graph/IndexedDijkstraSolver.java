@@ -0,0 +1,101 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.RadixHeapPQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dijkstra's algorithm over an IndexedAStarGraph, ignoring its heuristic. Meant for
+ * graphs with no useful heuristic, where A* would only pay for evaluating zeros.
+ * <p>
+ * Without a heuristic every priority is a settled distance plus an edge weight, so
+ * the fringe is the workspace's monotone RadixHeapPQ rather than a comparison heap.
+ */
+public class IndexedDijkstraSolver implements ShortestPathsSolver<Integer> {
+
+    /**
+     * How many vertices to settle between checks of the clock.
+     */
+    private static final int TIMEOUT_CHECK_INTERVAL = 256;
+
+    private SolverOutcome outcome;
+    private List<Integer> solution;
+    private double solutionWeight;
+    private int statesExplored;
+    private double explorationTime;
+
+    public IndexedDijkstraSolver(IndexedAStarGraph input, int start, int end, double timeout) {
+        long startTime = System.nanoTime();
+        long stopTime = startTime + (long) (timeout * 1e9);
+        SearchWorkspace workspace = SearchWorkspace.acquire(input.numVertices());
+        RadixHeapPQ fringe = workspace.monotoneFringe();
+
+        workspace.relax(start, 0, -1);
+        fringe.insert(start, 0);
+        outcome = SolverOutcome.UNSOLVABLE;
+
+        while (fringe.size() > 0) {
+            if (statesExplored % TIMEOUT_CHECK_INTERVAL == 0 && System.nanoTime() > stopTime) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+            int v = fringe.pollInt();
+            statesExplored++;
+            if (v == end) {
+                outcome = SolverOutcome.SOLVED;
+                break;
+            }
+
+            double dv = workspace.distTo(v);
+            for (int e = input.edgeStart(v), last = input.edgeEnd(v); e < last; e++) {
+                int w = input.edgeTarget(e);
+                double dw = dv + input.edgeWeight(e);
+                if (dw < workspace.distTo(w)) {
+                    if (fringe.contains(w)) {
+                        fringe.changePriority(w, dw);
+                    } else {
+                        fringe.insert(w, dw);
+                    }
+                    workspace.relax(w, dw, v);
+                }
+            }
+        }
+
+        solution = new ArrayList<>();
+        if (outcome == SolverOutcome.SOLVED) {
+            solutionWeight = workspace.distTo(end);
+            for (int v = end; v != -1; v = workspace.edgeTo(v)) {
+                solution.add(v);
+            }
+            Collections.reverse(solution);
+        }
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Integer> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return statesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
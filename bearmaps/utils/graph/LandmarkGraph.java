@@ -0,0 +1,84 @@
+package bearmaps.utils.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A view of a graph whose estimatedDistanceToGoal is the larger of the graph's own
+ * estimate and a LandmarkHeuristic bound. Both are lower bounds, so their maximum is
+ * too, and it steers A* much more tightly than the great-circle distance alone.
+ * <p>
+ * Implements both graph interfaces over the same int vertices, so it can be searched
+ * with IndexedAStarSolver or, boxed, with AStarSolver.
+ */
+public class LandmarkGraph implements IndexedAStarGraph, AStarGraph<Integer> {
+
+    private final IndexedAStarGraph graph;
+    private final LandmarkHeuristic landmarks;
+
+    /**
+     * Wraps GRAPH with DEFAULT_LANDMARKS landmarks picked from it.
+     */
+    public LandmarkGraph(IndexedAStarGraph graph) {
+        this(graph, new LandmarkHeuristic(graph, LandmarkHeuristic.DEFAULT_LANDMARKS));
+    }
+
+    public LandmarkGraph(IndexedAStarGraph graph, LandmarkHeuristic landmarks) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+    }
+
+    public LandmarkHeuristic landmarks() {
+        return landmarks;
+    }
+
+    @Override
+    public int numVertices() {
+        return graph.numVertices();
+    }
+
+    @Override
+    public int edgeStart(int v) {
+        return graph.edgeStart(v);
+    }
+
+    @Override
+    public int edgeEnd(int v) {
+        return graph.edgeEnd(v);
+    }
+
+    @Override
+    public int edgeTarget(int e) {
+        return graph.edgeTarget(e);
+    }
+
+    @Override
+    public double edgeWeight(int e) {
+        return graph.edgeWeight(e);
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return Math.max(graph.estimatedDistanceToGoal(s, goal), landmarks.lowerBound(s, goal));
+    }
+
+    @Override
+    public IndexedAStarGraph reverse() {
+        IndexedAStarGraph reverse = graph.reverse();
+        return reverse == graph ? this : new LandmarkGraph(reverse, landmarks.reverse());
+    }
+
+    @Override
+    public List<WeightedEdge<Integer>> neighbors(Integer v) {
+        List<WeightedEdge<Integer>> incidentList = new ArrayList<>(edgeEnd(v) - edgeStart(v));
+        for (int e = edgeStart(v); e < edgeEnd(v); e++) {
+            incidentList.add(new WeightedEdge<>(v, edgeTarget(e), edgeWeight(e)));
+        }
+        return incidentList;
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(Integer s, Integer goal) {
+        return estimatedDistanceToGoal(s.intValue(), goal.intValue());
+    }
+}
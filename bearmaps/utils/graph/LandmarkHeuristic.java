@@ -0,0 +1,159 @@
+package bearmaps.utils.graph;
+
+import java.util.Arrays;
+
+/**
+ * Lower bounds on graph distances from precomputed distances to and from a few
+ * landmark vertices, the heuristic of ALT (A*, landmarks, triangle inequality).
+ * <p>
+ * By the triangle inequality, for any landmark L the distance from v to t is at least
+ * d(L, t) - d(L, v) and at least d(v, L) - d(t, L), and the largest of these over all
+ * landmarks is usually much closer to the true distance than the great-circle
+ * distance, since it knows about the detours the streets force. Landmarks are picked
+ * farthest-point first: each one is the vertex farthest from all the landmarks picked
+ * before it, which spreads them out along the edges of the map where they work best.
+ * <p>
+ * The distances are stored as floats, one row of landmarks per vertex, so a bound
+ * reads two short runs of memory. Rounding to float could make a bound slightly too
+ * large, so every bound gives up the rounding error of the values it was computed
+ * from. Graphs that are their own reverse share one table for both directions.
+ */
+public class LandmarkHeuristic {
+
+    /**
+     * The number of landmarks used when none is given.
+     */
+    public static final int DEFAULT_LANDMARKS = 16;
+
+    private final int[] landmarks;
+    /* fromLandmark[v * k + i] is the distance from landmark i to v, and toLandmark the
+       distance from v to it, where k is the number of landmarks. */
+    private final float[] fromLandmark;
+    private final float[] toLandmark;
+
+    /**
+     * Picks up to NUMLANDMARKS landmarks among the vertices of GRAPH that have edges and
+     * computes the distances to and from each of them.
+     */
+    public LandmarkHeuristic(IndexedAStarGraph graph, int numLandmarks) {
+        int n = graph.numVertices();
+        IndexedAStarGraph reverse = graph.reverse();
+        int[] picked = new int[numLandmarks];
+        double[][] from = new double[numLandmarks][];
+        double[][] to = new double[numLandmarks][];
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+
+        int k = 0;
+        int candidate = farthestFrom(graph, firstWithEdges(graph));
+        while (k < numLandmarks && candidate >= 0) {
+            picked[k] = candidate;
+            from[k] = distances(new ShortestPathTree(graph, candidate), n);
+            to[k] = reverse == graph ? from[k] : distances(new ShortestPathTree(reverse, candidate), n);
+            for (int v = 0; v < n; v++) {
+                nearest[v] = Math.min(nearest[v], from[k][v]);
+            }
+            k++;
+            candidate = farthest(graph, nearest);
+        }
+
+        landmarks = Arrays.copyOf(picked, k);
+        fromLandmark = new float[n * k];
+        toLandmark = reverse == graph ? fromLandmark : new float[n * k];
+        for (int i = 0; i < k; i++) {
+            for (int v = 0; v < n; v++) {
+                fromLandmark[v * k + i] = (float) from[i][v];
+                toLandmark[v * k + i] = (float) to[i][v];
+            }
+        }
+    }
+
+    private LandmarkHeuristic(int[] landmarks, float[] fromLandmark, float[] toLandmark) {
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+    }
+
+    /**
+     * Returns the heuristic for the reverse of the graph this was built for, which
+     * swaps the two tables without copying them.
+     */
+    public LandmarkHeuristic reverse() {
+        return new LandmarkHeuristic(landmarks, toLandmark, fromLandmark);
+    }
+
+    public int numLandmarks() {
+        return landmarks.length;
+    }
+
+    /**
+     * Returns the Ith landmark.
+     */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * Returns a lower bound on the distance from V to GOAL. Landmarks that can't reach
+     * one of the two, or be reached from it, give no bound.
+     */
+    public double lowerBound(int v, int goal) {
+        int k = landmarks.length;
+        int rowV = v * k;
+        int rowGoal = goal * k;
+        double bound = 0;
+        for (int i = 0; i < k; i++) {
+            float fromV = fromLandmark[rowV + i];
+            float fromGoal = fromLandmark[rowGoal + i];
+            if (fromV != Float.POSITIVE_INFINITY && fromGoal != Float.POSITIVE_INFINITY) {
+                bound = Math.max(bound, (double) fromGoal - fromV - Math.ulp(fromGoal) - Math.ulp(fromV));
+            }
+            float toV = toLandmark[rowV + i];
+            float toGoal = toLandmark[rowGoal + i];
+            if (toV != Float.POSITIVE_INFINITY && toGoal != Float.POSITIVE_INFINITY) {
+                bound = Math.max(bound, (double) toV - toGoal - Math.ulp(toV) - Math.ulp(toGoal));
+            }
+        }
+        return bound;
+    }
+
+    private static double[] distances(ShortestPathTree tree, int n) {
+        double[] distances = new double[n];
+        for (int v = 0; v < n; v++) {
+            distances[v] = tree.distTo(v);
+        }
+        return distances;
+    }
+
+    private static int firstWithEdges(IndexedAStarGraph graph) {
+        for (int v = 0; v < graph.numVertices(); v++) {
+            if (graph.edgeEnd(v) > graph.edgeStart(v)) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /* Returns the vertex farthest from SOURCE, or -1 if SOURCE is -1. */
+    private static int farthestFrom(IndexedAStarGraph graph, int source) {
+        if (source < 0) {
+            return -1;
+        }
+        ShortestPathTree tree = new ShortestPathTree(graph, source);
+        return tree.reached(tree.size() - 1);
+    }
+
+    /* Returns the vertex with edges whose distance in NEAREST is largest, preferring
+       ones no landmark reaches, or -1 if every such vertex already is a landmark. */
+    private static int farthest(IndexedAStarGraph graph, double[] nearest) {
+        int farthest = -1;
+        double distance = 0;
+        for (int v = 0; v < nearest.length; v++) {
+            if (nearest[v] > distance && graph.edgeEnd(v) > graph.edgeStart(v)) {
+                farthest = v;
+                distance = nearest[v];
+            }
+        }
+        return farthest;
+    }
+}
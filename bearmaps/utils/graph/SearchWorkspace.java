@@ -0,0 +1,146 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedMinPQ;
+import bearmaps.utils.pq.RadixHeapPQ;
+
+import java.util.Arrays;
+
+/**
+ * The per-vertex state of a graph search: distances, back pointers, visited marks and
+ * the fringe, all sized to the graph and reused from one search to the next.
+ * <p>
+ * Instead of clearing the arrays between searches, every entry is stamped with the
+ * generation it was written in, and starting a search just bumps the generation. An
+ * entry with an old stamp reads as unreached, so resetting costs nothing no matter how
+ * large the previous search was.
+ * <p>
+ * Solvers get one with {@link #acquire}, which hands out a workspace owned by the
+ * calling thread. A thread's workspace is reset by the next acquire, so a solver must
+ * copy out what it needs before it returns and must not start another search that
+ * acquires one while its own is running; such nested searches should construct their
+ * own workspace instead. Bidirectional searches take their backward half from
+ * {@link #acquireBackward}, which is a second workspace per thread.
+ */
+public class SearchWorkspace {
+
+    private static final ThreadLocal<SearchWorkspace> LOCAL =
+            ThreadLocal.withInitial(() -> new SearchWorkspace(0));
+    private static final ThreadLocal<SearchWorkspace> LOCAL_BACKWARD =
+            ThreadLocal.withInitial(() -> new SearchWorkspace(0));
+
+    private double[] distTo;
+    private int[] edgeTo;
+    private int[] reached;
+    private int[] visited;
+    private int generation;
+    private IndexedMinPQ fringe;
+    private RadixHeapPQ monotoneFringe;
+
+    public SearchWorkspace(int numVertices) {
+        allocate(numVertices);
+    }
+
+    /**
+     * Returns the calling thread's workspace, reset for a search over a graph with
+     * NUMVERTICES vertices.
+     */
+    public static SearchWorkspace acquire(int numVertices) {
+        SearchWorkspace workspace = LOCAL.get();
+        workspace.reset(numVertices);
+        return workspace;
+    }
+
+    /**
+     * Returns the calling thread's workspace for the backward half of a bidirectional
+     * search, reset for a graph with NUMVERTICES vertices. It is separate from the one
+     * returned by acquire, so both halves can be used at once.
+     */
+    public static SearchWorkspace acquireBackward(int numVertices) {
+        SearchWorkspace workspace = LOCAL_BACKWARD.get();
+        workspace.reset(numVertices);
+        return workspace;
+    }
+
+    private void allocate(int numVertices) {
+        distTo = new double[numVertices];
+        edgeTo = new int[numVertices];
+        reached = new int[numVertices];
+        visited = new int[numVertices];
+        fringe = new IndexedMinPQ(numVertices);
+        monotoneFringe = null;
+        generation = 1;
+    }
+
+    /**
+     * Forgets the previous search, growing the arrays first if the graph has more than
+     * NUMVERTICES vertices.
+     */
+    public void reset(int numVertices) {
+        if (numVertices > reached.length) {
+            allocate(numVertices);
+            return;
+        }
+        fringe.clear();
+        if (monotoneFringe != null) {
+            monotoneFringe.clear();
+        }
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(visited, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Returns the best known distance to V in this search, or infinity if V hasn't
+     * been reached.
+     */
+    public double distTo(int v) {
+        return reached[v] == generation ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the vertex V was reached from, or -1 if V is a source or hasn't been
+     * reached.
+     */
+    public int edgeTo(int v) {
+        return reached[v] == generation ? edgeTo[v] : -1;
+    }
+
+    /**
+     * Records that V is reachable at distance DIST through PARENT (-1 for a source).
+     */
+    public void relax(int v, double dist, int parent) {
+        reached[v] = generation;
+        distTo[v] = dist;
+        edgeTo[v] = parent;
+    }
+
+    public boolean isVisited(int v) {
+        return visited[v] == generation;
+    }
+
+    public void markVisited(int v) {
+        visited[v] = generation;
+    }
+
+    /**
+     * Returns the fringe, which is empty at the start of every search.
+     */
+    public IndexedMinPQ fringe() {
+        return fringe;
+    }
+
+    /**
+     * Returns a fringe for searches whose priorities never drop below the last one
+     * polled, such as Dijkstra's algorithm. It is empty at the start of every search and
+     * is only allocated the first time it is asked for.
+     */
+    public RadixHeapPQ monotoneFringe() {
+        if (monotoneFringe == null) {
+            monotoneFringe = new RadixHeapPQ(reached.length);
+        }
+        return monotoneFringe;
+    }
+}
@@ -0,0 +1,126 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.RadixHeapPQ;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The shortest paths from one source to every vertex of an IndexedAStarGraph, or to
+ * every vertex within some distance of it, computed with Dijkstra's algorithm. Useful
+ * for one-to-all sweeps such as isochrones and rows of a distance matrix.
+ * <p>
+ * The search runs on the calling thread's SearchWorkspace with its monotone
+ * RadixHeapPQ fringe. Each vertex is copied out into this tree's own arrays as it is
+ * settled, so the tree stays valid after the workspace is reused.
+ */
+public class ShortestPathTree {
+
+    private final int source;
+    private final double[] distTo;
+    private final int[] edgeTo;
+    private final int[] settled;
+    private int numSettled;
+
+    /**
+     * Computes the shortest paths from SOURCE to every vertex of INPUT.
+     */
+    public ShortestPathTree(IndexedAStarGraph input, int source) {
+        this(input, source, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Computes the shortest paths from SOURCE to every vertex of INPUT that is at most
+     * MAXDISTANCE away from it. Farther vertices are left unreached.
+     */
+    public ShortestPathTree(IndexedAStarGraph input, int source, double maxDistance) {
+        int n = input.numVertices();
+        this.source = source;
+        distTo = new double[n];
+        edgeTo = new int[n];
+        settled = new int[n];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        Arrays.fill(edgeTo, -1);
+
+        SearchWorkspace workspace = SearchWorkspace.acquire(n);
+        RadixHeapPQ fringe = workspace.monotoneFringe();
+        workspace.relax(source, 0, -1);
+        fringe.insert(source, 0);
+
+        while (fringe.size() > 0) {
+            int v = fringe.pollInt();
+            double dv = workspace.distTo(v);
+            distTo[v] = dv;
+            edgeTo[v] = workspace.edgeTo(v);
+            settled[numSettled++] = v;
+
+            for (int e = input.edgeStart(v), last = input.edgeEnd(v); e < last; e++) {
+                int w = input.edgeTarget(e);
+                double dw = dv + input.edgeWeight(e);
+                if (dw <= maxDistance && dw < workspace.distTo(w)) {
+                    if (fringe.contains(w)) {
+                        fringe.changePriority(w, dw);
+                    } else {
+                        fringe.insert(w, dw);
+                    }
+                    workspace.relax(w, dw, v);
+                }
+            }
+        }
+    }
+
+    public int source() {
+        return source;
+    }
+
+    /**
+     * Returns the number of vertices reached, the source included.
+     */
+    public int size() {
+        return numSettled;
+    }
+
+    /**
+     * Returns the Ith vertex reached, in order of increasing distance from the source.
+     */
+    public int reached(int i) {
+        return settled[i];
+    }
+
+    /**
+     * Returns the distance from the source to V, or infinity if V wasn't reached.
+     */
+    public double distTo(int v) {
+        return distTo[v];
+    }
+
+    /**
+     * Returns the vertex before V on its shortest path, or -1 if V is the source or
+     * wasn't reached.
+     */
+    public int edgeTo(int v) {
+        return edgeTo[v];
+    }
+
+    public boolean hasPathTo(int v) {
+        return distTo[v] != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the vertices on the shortest path from the source to V, or an empty list
+     * if V wasn't reached.
+     */
+    public List<Integer> pathTo(int v) {
+        List<Integer> path = new ArrayList<>();
+        if (!hasPathTo(v)) {
+            return path;
+        }
+        for (int w = v; w != -1; w = edgeTo[w]) {
+            path.add(w);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+}
@@ -0,0 +1,226 @@
+package bearmaps.utils.graph;
+
+import java.util.Arrays;
+
+/**
+ * A graph with two vertices added for a route that starts and ends somewhere other
+ * than at a vertex, such as partway along a road.
+ * <p>
+ * The virtual start, numbered numVertices() - 2, has an edge to each source vertex, and
+ * each target vertex has an edge to the virtual end, numbered numVertices() - 1. Their
+ * weights are the cost of getting between the vertex and the actual location. An
+ * optional direct edge joins the start to the end, for when both lie on the same road
+ * with no vertex between them.
+ * <p>
+ * The underlying graph is not copied. Vertices that gain edges, the virtual ones and
+ * the targets, get their edges from a small local table, numbered from
+ * Integer.MIN_VALUE up so they can't be confused with edges of the graph.
+ */
+public class VirtualEndpointGraph implements IndexedAStarGraph {
+
+    private final IndexedAStarGraph graph;
+    private final int n;
+    private final int start;
+    private final int end;
+    private final int[] sources;
+    private final double[] sourceWeights;
+    private final int[] targets;
+    private final double[] targetWeights;
+    private final double directWeight;
+
+    /* Vertices whose edges are in the local table, and the range of local edges of
+       patched[i], [patchStart[i], patchStart[i + 1]). */
+    private final int[] patched;
+    private final int[] patchStart;
+    private final int[] localTargets;
+    private final double[] localWeights;
+
+    /**
+     * Adds a start joined to SOURCES[i] by an edge of weight SOURCEWEIGHTS[i], and an end
+     * joined from TARGETS[i] by an edge of weight TARGETWEIGHTS[i], to GRAPH.
+     *
+     * @param directWeight The weight of an edge from the start straight to the end, or
+     *                     infinity for none.
+     */
+    public VirtualEndpointGraph(IndexedAStarGraph graph, int[] sources, double[] sourceWeights,
+                                int[] targets, double[] targetWeights, double directWeight) {
+        this(graph, graph.numVertices(), graph.numVertices() + 1,
+                sources, sourceWeights, targets, targetWeights, directWeight);
+    }
+
+    private VirtualEndpointGraph(IndexedAStarGraph graph, int start, int end,
+                                 int[] sources, double[] sourceWeights,
+                                 int[] targets, double[] targetWeights, double directWeight) {
+        if (sources.length != sourceWeights.length || targets.length != targetWeights.length) {
+            throw new IllegalArgumentException("Endpoint and weight arrays differ in length");
+        }
+        this.graph = graph;
+        this.n = graph.numVertices();
+        this.start = start;
+        this.end = end;
+        this.sources = sources;
+        this.sourceWeights = sourceWeights;
+        this.targets = targets;
+        this.targetWeights = targetWeights;
+        this.directWeight = directWeight;
+
+        /* The start, the end and each distinct target. */
+        int[] vertices = new int[targets.length + 2];
+        int numPatched = 0;
+        vertices[numPatched++] = start;
+        vertices[numPatched++] = end;
+        for (int t : targets) {
+            if (indexOf(vertices, numPatched, t) < 0) {
+                vertices[numPatched++] = t;
+            }
+        }
+        patched = Arrays.copyOf(vertices, numPatched);
+        patchStart = new int[numPatched + 1];
+
+        int numLocal = sources.length + targets.length + 1;
+        for (int i = 2; i < numPatched; i++) {
+            numLocal += graph.edgeEnd(patched[i]) - graph.edgeStart(patched[i]);
+        }
+        localTargets = new int[numLocal];
+        localWeights = new double[numLocal];
+        int k = 0;
+        for (int i = 0; i < numPatched; i++) {
+            patchStart[i] = k;
+            int v = patched[i];
+            if (v == start) {
+                for (int j = 0; j < sources.length; j++) {
+                    localTargets[k] = sources[j];
+                    localWeights[k++] = sourceWeights[j];
+                }
+                if (directWeight < Double.POSITIVE_INFINITY) {
+                    localTargets[k] = end;
+                    localWeights[k++] = directWeight;
+                }
+            } else if (v != end) {
+                for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                    localTargets[k] = graph.edgeTarget(e);
+                    localWeights[k++] = graph.edgeWeight(e);
+                }
+                for (int j = 0; j < targets.length; j++) {
+                    if (targets[j] == v) {
+                        localTargets[k] = end;
+                        localWeights[k++] = targetWeights[j];
+                    }
+                }
+            }
+        }
+        patchStart[numPatched] = k;
+    }
+
+    private static int indexOf(int[] a, int size, int x) {
+        for (int i = 0; i < size; i++) {
+            if (a[i] == x) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the virtual vertex routes start from.
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * Returns the virtual vertex routes end at.
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * Returns true if V is one of the two added vertices rather than one of the graph's.
+     */
+    public boolean isVirtual(int v) {
+        return v >= n;
+    }
+
+    @Override
+    public int numVertices() {
+        return n + 2;
+    }
+
+    @Override
+    public int edgeStart(int v) {
+        int i = patchIndex(v);
+        return i < 0 ? graph.edgeStart(v) : Integer.MIN_VALUE + patchStart[i];
+    }
+
+    @Override
+    public int edgeEnd(int v) {
+        int i = patchIndex(v);
+        return i < 0 ? graph.edgeEnd(v) : Integer.MIN_VALUE + patchStart[i + 1];
+    }
+
+    /* Returns the index of V in patched, or -1 if its edges are the graph's. */
+    private int patchIndex(int v) {
+        int[] p = patched;
+        for (int i = 0; i < p.length; i++) {
+            if (p[i] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int edgeTarget(int e) {
+        return e < 0 ? localTargets[e - Integer.MIN_VALUE] : graph.edgeTarget(e);
+    }
+
+    @Override
+    public double edgeWeight(int e) {
+        return e < 0 ? localWeights[e - Integer.MIN_VALUE] : graph.edgeWeight(e);
+    }
+
+    /**
+     * Returns the graph's estimate between vertices of the graph. The estimate to the
+     * end is the least over the targets of the estimate to the target plus the weight
+     * of its edge to the end, and that from the start is the least over the sources of
+     * the weight of the edge to the source plus the estimate from it, so both stay
+     * consistent. The estimate from a vertex to the start, which bidirectional searches
+     * use for the distance the other way, is the least over the sources of the estimate
+     * to the source plus the weight of its edge. Otherwise it is 0.
+     */
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        if (s < n && goal < n) {
+            return graph.estimatedDistanceToGoal(s, goal);
+        }
+        double estimate = Double.POSITIVE_INFINITY;
+        if (s < n && goal == end) {
+            for (int j = 0; j < targets.length; j++) {
+                estimate = Math.min(estimate,
+                        graph.estimatedDistanceToGoal(s, targets[j]) + targetWeights[j]);
+            }
+        } else if (s < n && goal == start) {
+            for (int j = 0; j < sources.length; j++) {
+                estimate = Math.min(estimate,
+                        graph.estimatedDistanceToGoal(s, sources[j]) + sourceWeights[j]);
+            }
+        } else if (s == start && goal < n) {
+            for (int j = 0; j < sources.length; j++) {
+                estimate = Math.min(estimate,
+                        sourceWeights[j] + graph.estimatedDistanceToGoal(sources[j], goal));
+            }
+        }
+        return estimate < Double.POSITIVE_INFINITY ? estimate : 0;
+    }
+
+    /**
+     * Returns the same vertices over the graph's reverse with every edge turned around,
+     * so the end is where a backward search starts.
+     */
+    @Override
+    public IndexedAStarGraph reverse() {
+        return new VirtualEndpointGraph(graph.reverse(), end, start,
+                targets, targetWeights, sources, sourceWeights, directWeight);
+    }
+}
@@ -0,0 +1,185 @@
+package bearmaps.utils.graph.ch;
+
+import bearmaps.utils.graph.SearchWorkspace;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.pq.IndexedMinPQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers a shortest path query on a ContractionHierarchy. Two Dijkstra searches run
+ * from the start and from the end, each only following upward edges, and the shortest
+ * path is the best one through a vertex both of them reached. A side stops once its
+ * smallest distance is no better than that path. The searches are tiny because every
+ * shortest path climbs to its highest ranked vertex and then descends, and shortcuts
+ * let it do so in a few steps.
+ * <p>
+ * A settled vertex is not expanded if one of its higher ranked neighbors was reached
+ * more cheaply, since the search then got to it by a path that isn't shortest
+ * ("stall-on-demand"). The path found is unpacked into the vertices of the original
+ * graph, so the solution can be used like that of any other solver on that graph.
+ * <p>
+ * The searches settle a few hundred vertices at most, too few for the workspace's
+ * RadixHeapPQ to beat its IndexedMinPQ.
+ * <p>
+ * Either search may also start from several vertices at different initial distances,
+ * for a route between locations partway along edges.
+ */
+public class CHSolver implements ShortestPathsSolver<Integer> {
+
+    private final ContractionHierarchy hierarchy;
+
+    private SolverOutcome outcome;
+    private List<Integer> solution;
+    private double solutionWeight;
+    private int statesExplored;
+    private double explorationTime;
+
+    /* The length of the best path found so far and the vertex both searches reached
+       it through, or -1. */
+    private double best = Double.POSITIVE_INFINITY;
+    private int meeting = -1;
+
+    public CHSolver(ContractionHierarchy hierarchy, int start, int end) {
+        this(hierarchy, new int[]{start}, new double[]{0}, new int[]{end}, new double[]{0});
+    }
+
+    /**
+     * Finds the shortest path that starts at one of SOURCES, with SOURCEWEIGHTS[i] added
+     * to its length if it starts at SOURCES[i], and ends at one of TARGETS, with
+     * TARGETWEIGHTS[i] added if it ends at TARGETS[i]. The solution weight includes both.
+     */
+    public CHSolver(ContractionHierarchy hierarchy, int[] sources, double[] sourceWeights,
+                    int[] targets, double[] targetWeights) {
+        long startTime = System.nanoTime();
+        this.hierarchy = hierarchy;
+        SearchWorkspace forward = SearchWorkspace.acquire(hierarchy.numVertices());
+        SearchWorkspace backward = SearchWorkspace.acquireBackward(hierarchy.numVertices());
+        IndexedMinPQ forwardFringe = forward.fringe();
+        IndexedMinPQ backwardFringe = backward.fringe();
+
+        seed(forward, sources, sourceWeights);
+        seed(backward, targets, targetWeights);
+        for (int v : sources) {
+            double through = forward.distTo(v) + backward.distTo(v);
+            if (through < best) {
+                best = through;
+                meeting = v;
+            }
+        }
+
+        while (true) {
+            boolean forwardOpen = forwardFringe.size() > 0 && forwardFringe.peekPriority() < best;
+            boolean backwardOpen = backwardFringe.size() > 0 && backwardFringe.peekPriority() < best;
+            if (!forwardOpen && !backwardOpen) {
+                break;
+            }
+            statesExplored++;
+            if (forwardOpen && (!backwardOpen
+                    || forwardFringe.peekPriority() <= backwardFringe.peekPriority())) {
+                expand(forward, backward);
+            } else {
+                expand(backward, forward);
+            }
+        }
+
+        solution = new ArrayList<>();
+        if (meeting < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+        } else {
+            outcome = SolverOutcome.SOLVED;
+            solutionWeight = best;
+            List<Integer> upward = new ArrayList<>();
+            for (int v = meeting; v != -1; v = forward.edgeTo(v)) {
+                upward.add(v);
+            }
+            Collections.reverse(upward);
+            for (int v = backward.edgeTo(meeting); v != -1; v = backward.edgeTo(v)) {
+                upward.add(v);
+            }
+            solution.add(upward.get(0));
+            for (int i = 1; i < upward.size(); i++) {
+                hierarchy.unpack(upward.get(i - 1), upward.get(i), solution);
+            }
+        }
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /* Starts SIDE's search from each of VERTICES at the distance in WEIGHTS. */
+    private static void seed(SearchWorkspace side, int[] vertices, double[] weights) {
+        IndexedMinPQ fringe = side.fringe();
+        for (int i = 0; i < vertices.length; i++) {
+            int v = vertices[i];
+            if (weights[i] < side.distTo(v)) {
+                if (fringe.contains(v)) {
+                    fringe.changePriority(v, weights[i]);
+                } else {
+                    fringe.insert(v, weights[i]);
+                }
+                side.relax(v, weights[i], -1);
+            }
+        }
+    }
+
+    /**
+     * Settles the top vertex of SIDE's fringe and, unless it is stalled, relaxes its
+     * upward edges, checking every improved vertex against the distances OTHER has found.
+     */
+    private void expand(SearchWorkspace side, SearchWorkspace other) {
+        IndexedMinPQ fringe = side.fringe();
+        int v = fringe.pollInt();
+        double dv = side.distTo(v);
+        int first = hierarchy.edgeStart(v);
+        int last = hierarchy.edgeEnd(v);
+        for (int e = first; e < last; e++) {
+            if (side.distTo(hierarchy.edgeTarget(e)) + hierarchy.edgeWeight(e) < dv) {
+                return;
+            }
+        }
+        for (int e = first; e < last; e++) {
+            int w = hierarchy.edgeTarget(e);
+            double dw = dv + hierarchy.edgeWeight(e);
+            if (dw < side.distTo(w)) {
+                if (fringe.contains(w)) {
+                    fringe.changePriority(w, dw);
+                } else {
+                    fringe.insert(w, dw);
+                }
+                side.relax(w, dw, v);
+                double through = dw + other.distTo(w);
+                if (through < best) {
+                    best = through;
+                    meeting = w;
+                }
+            }
+        }
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Integer> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return statesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
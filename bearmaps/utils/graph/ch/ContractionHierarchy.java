@@ -0,0 +1,389 @@
+package bearmaps.utils.graph.ch;
+
+import bearmaps.utils.graph.IndexedAStarGraph;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A contraction hierarchy of an undirected graph: every vertex has a rank, the order in
+ * which it was contracted, and keeps only its edges to higher ranked vertices. Those
+ * include shortcuts, edges standing for a two-edge path through a lower ranked middle
+ * vertex that was contracted away. Any shortest path can then be found by searching
+ * upwards from both of its ends, see {@link CHSolver}.
+ * <p>
+ * The upward edges are stored in compressed sparse row form, as in
+ * CompactStreetMapGraph, with a parallel array holding the middle vertex of every
+ * shortcut and -1 for original edges. Vertices are the same ints as in the graph the
+ * hierarchy was built from. Hierarchies are built with {@link #build}, which takes a few
+ * seconds, so they can also be written to and read back from a file with
+ * <pre>
+ *     java bearmaps.utils.graph.ch.ContractionHierarchy data/proj3_xml/berkeley-2020.osm.xml \
+ *         data/proj3_bin/berkeley-2020.ch
+ * </pre>
+ * A hierarchy records a fingerprint of the edges and weights of the graph it was built
+ * from, so that one built before the graph changed is told apart and ignored.
+ */
+public class ContractionHierarchy {
+
+    /**
+     * "BMCH" in ASCII.
+     */
+    private static final int MAGIC = 0x424D4348;
+    /**
+     * Bump whenever the file layout changes.
+     */
+    static final int VERSION = 2;
+    /**
+     * The bytes of the header, before the first section.
+     */
+    private static final int HEADER_BYTES = 24;
+
+    private final int[] ranks;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] middles;
+    /* The fingerprint of the graph this was built from, to catch stale files. */
+    private final long graphFingerprint;
+
+    ContractionHierarchy(int[] ranks, int[] offsets, int[] targets, double[] weights,
+                         int[] middles, long graphFingerprint) {
+        this.ranks = ranks;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+        this.graphFingerprint = graphFingerprint;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: ContractionHierarchy <osm xml resource> <hierarchy file>");
+            return;
+        }
+        CompactStreetMapGraph graph = new StreetMapGraph(args[0]).compactGraph();
+        long start = System.nanoTime();
+        ContractionHierarchy hierarchy = build(graph);
+        System.out.println(String.format("Contracted %d vertices in %.1f s, adding %d shortcuts",
+                hierarchy.numVertices(), (System.nanoTime() - start) / 1e9,
+                hierarchy.numShortcuts()));
+        hierarchy.write(Paths.get(args[1]));
+    }
+
+    /**
+     * Contracts GRAPH, which must store each of its edges in both directions, using all
+     * available cores.
+     *
+     * @throws IllegalArgumentException if GRAPH is not its own reverse.
+     */
+    public static ContractionHierarchy build(IndexedAStarGraph graph) {
+        return new ContractionHierarchyBuilder(graph).build();
+    }
+
+    public int numVertices() {
+        return ranks.length;
+    }
+
+    /**
+     * Returns the number of upward edges, shortcuts included.
+     */
+    public int numEdges() {
+        return targets.length;
+    }
+
+    public int numShortcuts() {
+        int shortcuts = 0;
+        for (int middle : middles) {
+            if (middle >= 0) {
+                shortcuts++;
+            }
+        }
+        return shortcuts;
+    }
+
+    /**
+     * Returns the position of V in the contraction order.
+     */
+    public int rank(int v) {
+        return ranks[v];
+    }
+
+    /**
+     * Returns the index of the first upward edge of vertex V.
+     */
+    public int edgeStart(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * Returns one past the index of the last upward edge of vertex V.
+     */
+    public int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    public int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    public double edgeWeight(int e) {
+        return weights[e];
+    }
+
+    /**
+     * Returns the vertex that shortcut E skips, or -1 if E is an edge of the original
+     * graph.
+     */
+    public int edgeMiddle(int e) {
+        return middles[e];
+    }
+
+    /**
+     * Returns true if this hierarchy was built from a graph with the same vertices,
+     * edges and edge weights as GRAPH, as far as their fingerprints tell.
+     */
+    public boolean matches(IndexedAStarGraph graph) {
+        return graph.numVertices() == numVertices() && fingerprint(graph) == graphFingerprint;
+    }
+
+    /**
+     * Returns a hash of the number of vertices of GRAPH and of the targets and weights
+     * of the edges of each, in order.
+     */
+    static long fingerprint(IndexedAStarGraph graph) {
+        long h = mix(graph.numVertices());
+        for (int v = 0; v < graph.numVertices(); v++) {
+            h = mix(h + graph.edgeEnd(v) - graph.edgeStart(v));
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                h = mix(h + graph.edgeTarget(e));
+                h = mix(h + Double.doubleToLongBits(graph.edgeWeight(e)));
+            }
+        }
+        return h;
+    }
+
+    /* The finalizer of SplitMix64, so every bit of X affects every bit of the result. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Appends to PATH the vertices of the original graph that the edge between FROM and
+     * TO stands for, excluding FROM and including TO.
+     */
+    void unpack(int from, int to, List<Integer> path) {
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = to;
+        stack[top++] = from;
+        while (top > 0) {
+            int a = stack[--top];
+            int b = stack[--top];
+            int middle = middles[edgeBetween(a, b)];
+            if (middle < 0) {
+                path.add(b);
+                continue;
+            }
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = b;
+            stack[top++] = middle;
+            stack[top++] = middle;
+            stack[top++] = a;
+        }
+    }
+
+    /* Returns the upward edge between A and B, which is stored with the lower ranked
+       of the two. */
+    private int edgeBetween(int a, int b) {
+        int lower = ranks[a] < ranks[b] ? a : b;
+        int higher = lower == a ? b : a;
+        for (int e = offsets[lower]; e < offsets[lower + 1]; e++) {
+            if (targets[e] == higher) {
+                return e;
+            }
+        }
+        throw new IllegalStateException(String.format("No edge between %d and %d", a, b));
+    }
+
+    /**
+     * Writes this hierarchy to the file at PATH, replacing it if it exists. The
+     * hierarchy is written to a temporary file next to PATH and moved over it, so PATH
+     * never holds a partly written hierarchy.
+     * <p>
+     * Layout (little-endian, every section starts on an 8-byte boundary):
+     * <pre>
+     *     int magic, int version, int numVertices, int numEdges, long graph fingerprint
+     *     int[numVertices] ranks, int[numVertices + 1] offsets, int[numEdges] targets
+     *     double[numEdges] weights, int[numEdges] middles
+     * </pre>
+     */
+    public void write(Path path) throws IOException {
+        int n = numVertices();
+        int m = numEdges();
+        long size = HEADER_BYTES + align(4L * n) + align(4L * (n + 1)) + align(4L * m) + 8L * m
+                + align(4L * m);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Hierarchy is too large for a single file");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(m).putLong(graphFingerprint);
+        putInts(buf, ranks);
+        putInts(buf, offsets);
+        putInts(buf, targets);
+        for (double weight : weights) {
+            buf.putDouble(weight);
+        }
+        putInts(buf, middles);
+        buf.flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Maps the hierarchy file at PATH and returns the hierarchy it holds.
+     *
+     * @throws IOException if the file can't be read, was not written by a compatible
+     *                     version of this class, or is truncated or corrupt.
+     */
+    public static ContractionHierarchy read(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+            throw new IOException(path + " is not a contraction hierarchy");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported hierarchy version %d in %s, expected %d",
+                    version, path, VERSION));
+        }
+        checkRoom(buf, HEADER_BYTES - 8, path);
+        int n = buf.getInt();
+        int m = buf.getInt();
+        long graphFingerprint = buf.getLong();
+        if (n < 0 || m < 0) {
+            throw new IOException(String.format("%s is corrupt: %d vertices, %d edges", path, n, m));
+        }
+
+        int[] ranks = getInts(buf, n, path);
+        boolean[] ranked = new boolean[n];
+        for (int rank : ranks) {
+            if (rank < 0 || rank >= n || ranked[rank]) {
+                throw new IOException(path + " is corrupt: ranks aren't a permutation");
+            }
+            ranked[rank] = true;
+        }
+        int[] offsets = getInts(buf, n + 1, path);
+        if (offsets[0] != 0 || offsets[n] != m) {
+            throw new IOException(path + " is corrupt: edge offsets don't span the edges");
+        }
+        for (int v = 0; v < n; v++) {
+            if (offsets[v] > offsets[v + 1]) {
+                throw new IOException(path + " is corrupt: edge offsets aren't sorted");
+            }
+        }
+        int[] targets = getInts(buf, m, path);
+        checkRoom(buf, 8L * m, path);
+        double[] weights = new double[m];
+        buf.asDoubleBuffer().get(weights);
+        skip(buf, 8L * m);
+        int[] middles = getInts(buf, m, path);
+
+        /* Every edge must lead upwards, and every shortcut skip a lower ranked vertex
+           with an edge to both of its ends, or queries would fail to unpack paths. */
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                if (w < 0 || w >= n || ranks[w] <= ranks[v]) {
+                    throw new IOException(path + " is corrupt: edge " + e + " doesn't lead upwards");
+                }
+                if (!(weights[e] >= 0) || weights[e] == Double.POSITIVE_INFINITY) {
+                    throw new IOException(path + " is corrupt: edge " + e + " weighs " + weights[e]);
+                }
+                int middle = middles[e];
+                if (middle != -1 && (middle < 0 || middle >= n || ranks[middle] >= ranks[v]
+                        || !hasEdge(offsets, targets, middle, v)
+                        || !hasEdge(offsets, targets, middle, w))) {
+                    throw new IOException(path + " is corrupt: shortcut " + e + " skips no vertex");
+                }
+            }
+        }
+        return new ContractionHierarchy(ranks, offsets, targets, weights, middles, graphFingerprint);
+    }
+
+    /* Returns true if V has an upward edge to W. */
+    private static boolean hasEdge(int[] offsets, int[] targets, int v, int w) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            if (targets[e] == w) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Throws an IOException if BUF, read from PATH, has fewer than BYTES left. */
+    private static void checkRoom(ByteBuffer buf, long bytes, Path path) throws IOException {
+        if (bytes < 0 || bytes > buf.remaining()) {
+            throw new IOException(path + " is truncated");
+        }
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /* Moves BUF past a section of BYTES and the padding after it, if the file has it. */
+    private static void skip(ByteBuffer buf, long bytes) {
+        buf.position((int) Math.min(align(buf.position() + bytes), buf.limit()));
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values) {
+        for (int value : values) {
+            buf.putInt(value);
+        }
+        while ((buf.position() & 7) != 0) {
+            buf.put((byte) 0);
+        }
+    }
+
+    private static int[] getInts(ByteBuffer buf, int count, Path path) throws IOException {
+        checkRoom(buf, 4L * count, path);
+        int[] values = new int[count];
+        buf.asIntBuffer().get(values);
+        skip(buf, 4L * count);
+        return values;
+    }
+}
@@ -0,0 +1,355 @@
+package bearmaps.utils.graph.ch;
+
+import bearmaps.utils.graph.IndexedAStarGraph;
+import bearmaps.utils.graph.SearchWorkspace;
+import bearmaps.utils.pq.RadixHeapPQ;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Contracts the vertices of an undirected graph one by one into a ContractionHierarchy.
+ * <p>
+ * Contracting a vertex removes it from the remaining graph, adding a shortcut between
+ * each pair of its neighbors whose shortest connection ran through it. Whether it did
+ * is decided by a witness search, a Dijkstra search between the neighbors that avoids
+ * the vertex and gives up after settling a fixed number of vertices; when it gives up,
+ * the shortcut is added anyway, which is never wrong, only wasteful.
+ * <p>
+ * Vertices are contracted in order of their edge difference, the number of shortcuts
+ * contracting them would add minus the number of edges it would remove, plus the
+ * number of their neighbors already contracted so that the contraction spreads evenly.
+ * Contraction goes in rounds: every vertex whose priority is lower than that of all of
+ * its neighbors is contracted in the same round, with the witness searches of a round
+ * and the priority updates after it running in parallel. No two vertices of a round
+ * are adjacent, and witness searches avoid every vertex of the round, so the shortcuts
+ * found for one vertex never rely on another vertex that is going away at the same time.
+ */
+class ContractionHierarchyBuilder {
+
+    /**
+     * How many vertices a witness search may settle when contracting a vertex.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    /**
+     * How many vertices a witness search may settle when estimating a priority.
+     */
+    private static final int SIMULATION_SETTLE_LIMIT = 20;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int n;
+    private final long graphFingerprint;
+
+    /* The remaining graph: the neighbors of every uncontracted vertex, the weights of
+       the edges to them and the middle vertex of each edge that is a shortcut, or -1. */
+    private final int[][] adjTargets;
+    private final double[][] adjWeights;
+    private final int[][] adjMiddles;
+    private final int[] degrees;
+
+    private final boolean[] contracted;
+    /* Marks the vertices of the current round, which witness searches must avoid. */
+    private final boolean[] contracting;
+    private final int[] contractedNeighbors;
+    private final int[] priorities;
+    private final int[] ranks;
+
+    /* The upward edges of every contracted vertex, which are its edges at the moment it
+       was contracted, appended to growing arrays. */
+    private final int[] upStarts;
+    private final int[] upCounts;
+    private int[] upTargets = new int[1024];
+    private double[] upWeights = new double[1024];
+    private int[] upMiddles = new int[1024];
+    private int numUp;
+
+    ContractionHierarchyBuilder(IndexedAStarGraph graph) {
+        if (graph.reverse() != graph) {
+            throw new IllegalArgumentException("Contraction needs a graph that is its own reverse");
+        }
+        n = graph.numVertices();
+        graphFingerprint = ContractionHierarchy.fingerprint(graph);
+        adjTargets = new int[n][];
+        adjWeights = new double[n][];
+        adjMiddles = new int[n][];
+        degrees = new int[n];
+        contracted = new boolean[n];
+        contracting = new boolean[n];
+        contractedNeighbors = new int[n];
+        priorities = new int[n];
+        ranks = new int[n];
+        upStarts = new int[n];
+        upCounts = new int[n];
+
+        for (int v = 0; v < n; v++) {
+            int capacity = Math.max(INITIAL_CAPACITY, graph.edgeEnd(v) - graph.edgeStart(v));
+            adjTargets[v] = new int[capacity];
+            adjWeights[v] = new double[capacity];
+            adjMiddles[v] = new int[capacity];
+            for (int e = graph.edgeStart(v), last = graph.edgeEnd(v); e < last; e++) {
+                int w = graph.edgeTarget(e);
+                if (w != v) {
+                    addEdge(v, w, graph.edgeWeight(e), -1);
+                }
+            }
+        }
+    }
+
+    ContractionHierarchy build() {
+        IntStream.range(0, n).parallel().forEach(v -> priorities[v] = priority(v));
+
+        int[] remaining = new int[n];
+        for (int v = 0; v < n; v++) {
+            remaining[v] = v;
+        }
+        int numRemaining = n;
+        int nextRank = 0;
+        boolean[] dirty = new boolean[n];
+        int[] affected = new int[n];
+        while (numRemaining > 0) {
+            int[] round = IntStream.of(Arrays.copyOf(remaining, numRemaining)).parallel()
+                    .filter(this::isLocalMinimum).toArray();
+            for (int v : round) {
+                contracting[v] = true;
+            }
+            Shortcuts[] shortcuts = new Shortcuts[round.length];
+            IntStream.range(0, round.length).parallel()
+                    .forEach(i -> shortcuts[i] = shortcuts(round[i], WITNESS_SETTLE_LIMIT, true));
+
+            for (int v : round) {
+                ranks[v] = nextRank++;
+                contract(v);
+            }
+            int numDirty = 0;
+            for (int i = 0; i < round.length; i++) {
+                Shortcuts s = shortcuts[i];
+                for (int j = 0; j < s.size; j++) {
+                    addEdge(s.from[j], s.to[j], s.weights[j], round[i]);
+                    addEdge(s.to[j], s.from[j], s.weights[j], round[i]);
+                }
+                contracting[round[i]] = false;
+                for (int j = 0, v = round[i]; j < upCounts[v]; j++) {
+                    int u = upTargets[upStarts[v] + j];
+                    if (!dirty[u]) {
+                        dirty[u] = true;
+                        affected[numDirty++] = u;
+                    }
+                }
+            }
+            IntStream.range(0, numDirty).parallel()
+                    .forEach(i -> priorities[affected[i]] = priority(affected[i]));
+            for (int i = 0; i < numDirty; i++) {
+                dirty[affected[i]] = false;
+            }
+
+            int kept = 0;
+            for (int i = 0; i < numRemaining; i++) {
+                if (!contracted[remaining[i]]) {
+                    remaining[kept++] = remaining[i];
+                }
+            }
+            numRemaining = kept;
+        }
+        return toHierarchy();
+    }
+
+    /* Returns true if V comes before all of its remaining neighbors in the contraction
+       order, breaking ties in priority by vertex. */
+    private boolean isLocalMinimum(int v) {
+        int p = priorities[v];
+        int[] targets = adjTargets[v];
+        for (int i = 0; i < degrees[v]; i++) {
+            int u = targets[i];
+            if (priorities[u] < p || (priorities[u] == p && u < v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int priority(int v) {
+        int shortcuts = shortcuts(v, SIMULATION_SETTLE_LIMIT, false).size;
+        return shortcuts - degrees[v] + contractedNeighbors[v];
+    }
+
+    /* Removes V from the remaining graph, keeping its edges as its upward edges. */
+    private void contract(int v) {
+        int degree = degrees[v];
+        if (numUp + degree > upTargets.length) {
+            int capacity = Math.max(upTargets.length * 2, numUp + degree);
+            upTargets = Arrays.copyOf(upTargets, capacity);
+            upWeights = Arrays.copyOf(upWeights, capacity);
+            upMiddles = Arrays.copyOf(upMiddles, capacity);
+        }
+        upStarts[v] = numUp;
+        upCounts[v] = degree;
+        System.arraycopy(adjTargets[v], 0, upTargets, numUp, degree);
+        System.arraycopy(adjWeights[v], 0, upWeights, numUp, degree);
+        System.arraycopy(adjMiddles[v], 0, upMiddles, numUp, degree);
+        numUp += degree;
+
+        for (int i = 0; i < degree; i++) {
+            int u = adjTargets[v][i];
+            removeEdge(u, v);
+            contractedNeighbors[u]++;
+        }
+        contracted[v] = true;
+        adjTargets[v] = null;
+        adjWeights[v] = null;
+        adjMiddles[v] = null;
+        degrees[v] = 0;
+    }
+
+    /* Adds an edge from V to W, or lowers the weight of the existing one if WEIGHT is
+       smaller. */
+    private void addEdge(int v, int w, double weight, int middle) {
+        int[] targets = adjTargets[v];
+        int degree = degrees[v];
+        for (int i = 0; i < degree; i++) {
+            if (targets[i] == w) {
+                if (weight < adjWeights[v][i]) {
+                    adjWeights[v][i] = weight;
+                    adjMiddles[v][i] = middle;
+                }
+                return;
+            }
+        }
+        if (degree == targets.length) {
+            adjTargets[v] = Arrays.copyOf(targets, degree * 2);
+            adjWeights[v] = Arrays.copyOf(adjWeights[v], degree * 2);
+            adjMiddles[v] = Arrays.copyOf(adjMiddles[v], degree * 2);
+        }
+        adjTargets[v][degree] = w;
+        adjWeights[v][degree] = weight;
+        adjMiddles[v][degree] = middle;
+        degrees[v] = degree + 1;
+    }
+
+    /* Removes the edge from V to W by moving V's last edge into its place. */
+    private void removeEdge(int v, int w) {
+        int[] targets = adjTargets[v];
+        int last = --degrees[v];
+        for (int i = 0; i <= last; i++) {
+            if (targets[i] == w) {
+                targets[i] = targets[last];
+                adjWeights[v][i] = adjWeights[v][last];
+                adjMiddles[v][i] = adjMiddles[v][last];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the shortcuts contracting V would add between its neighbors, settling at
+     * most SETTLELIMIT vertices per witness search. Only counts them unless RECORD is
+     * set. Reads the remaining graph without changing it, so it can run for several
+     * vertices at once.
+     */
+    private Shortcuts shortcuts(int v, int settleLimit, boolean record) {
+        Shortcuts shortcuts = new Shortcuts(record ? degrees[v] : 0);
+        int degree = degrees[v];
+        int[] neighbors = adjTargets[v];
+        double[] weights = adjWeights[v];
+        SearchWorkspace workspace = SearchWorkspace.acquire(n);
+        for (int i = 0; i < degree - 1; i++) {
+            int u = neighbors[i];
+            double farthest = 0;
+            for (int j = i + 1; j < degree; j++) {
+                farthest = Math.max(farthest, weights[j]);
+            }
+            workspace.reset(n);
+            for (int j = i + 1; j < degree; j++) {
+                workspace.markVisited(neighbors[j]);
+            }
+            witnessSearch(workspace, u, v, degree - i - 1, weights[i] + farthest, settleLimit);
+            for (int j = i + 1; j < degree; j++) {
+                double via = weights[i] + weights[j];
+                if (workspace.distTo(neighbors[j]) > via) {
+                    shortcuts.add(u, neighbors[j], via, record);
+                }
+            }
+        }
+        return shortcuts;
+    }
+
+    /* Runs Dijkstra from SOURCE in the remaining graph without entering EXCLUDED or any
+       vertex being contracted, until it has settled all TARGETS vertices marked visited
+       in WORKSPACE, SETTLELIMIT vertices or everything within MAXDISTANCE. */
+    private void witnessSearch(SearchWorkspace workspace, int source, int excluded,
+                               int targets, double maxDistance, int settleLimit) {
+        RadixHeapPQ fringe = workspace.monotoneFringe();
+        workspace.relax(source, 0, -1);
+        fringe.insert(source, 0);
+        for (int settled = 0; settled < settleLimit && fringe.size() > 0; settled++) {
+            int x = fringe.pollInt();
+            if (workspace.isVisited(x) && --targets == 0) {
+                break;
+            }
+            double dx = workspace.distTo(x);
+            int[] neighbors = adjTargets[x];
+            double[] weights = adjWeights[x];
+            for (int i = 0; i < degrees[x]; i++) {
+                int y = neighbors[i];
+                double dy = dx + weights[i];
+                if (y == excluded || contracting[y] || dy > maxDistance
+                        || dy >= workspace.distTo(y)) {
+                    continue;
+                }
+                if (fringe.contains(y)) {
+                    fringe.changePriority(y, dy);
+                } else {
+                    fringe.insert(y, dy);
+                }
+                workspace.relax(y, dy, x);
+            }
+        }
+    }
+
+    /* Lays the upward edges out by vertex. */
+    private ContractionHierarchy toHierarchy() {
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + upCounts[v];
+        }
+        int[] targets = new int[numUp];
+        double[] weights = new double[numUp];
+        int[] middles = new int[numUp];
+        for (int v = 0; v < n; v++) {
+            System.arraycopy(upTargets, upStarts[v], targets, offsets[v], upCounts[v]);
+            System.arraycopy(upWeights, upStarts[v], weights, offsets[v], upCounts[v]);
+            System.arraycopy(upMiddles, upStarts[v], middles, offsets[v], upCounts[v]);
+        }
+        return new ContractionHierarchy(ranks, offsets, targets, weights, middles, graphFingerprint);
+    }
+
+    /**
+     * The shortcuts found for one vertex, or just their number.
+     */
+    private static class Shortcuts {
+        private int[] from;
+        private int[] to;
+        private double[] weights;
+        private int size;
+
+        Shortcuts(int capacity) {
+            from = new int[capacity];
+            to = new int[capacity];
+            weights = new double[capacity];
+        }
+
+        void add(int u, int w, double weight, boolean record) {
+            if (record) {
+                if (size == from.length) {
+                    int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+                    from = Arrays.copyOf(from, capacity);
+                    to = Arrays.copyOf(to, capacity);
+                    weights = Arrays.copyOf(weights, capacity);
+                }
+                from[size] = u;
+                to[size] = w;
+                weights[size] = weight;
+            }
+            size++;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.IndexedAStarGraph;
+import bearmaps.utils.graph.WeightedEdge;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable street graph stored in compressed sparse row (CSR) form.
+ * <p>
+ * Vertices are renumbered to dense ints in increasing order of their OSM id, so
+ * an id is turned into an index with a binary search over <code>ids</code>. The
+ * outgoing edges of vertex v occupy positions [offsets[v], offsets[v + 1]) of the
+ * parallel <code>targets</code>, <code>weights</code> and <code>wayNames</code>
+ * arrays. Every parsed node is kept as a vertex, so named places that are not on
+ * a road stay addressable; they simply have no edges.
+ * <p>
+ * The arrays are held as buffers, which wrap plain arrays for a graph built by the
+ * {@link Builder} and views of the mapped file for one read by {@link GraphSnapshot}.
+ * The numbers of a snapshot are so never copied onto the heap, and processes that map
+ * the same snapshot share its pages through the page cache. Only the names are
+ * decoded into Strings.
+ */
+public class CompactStreetMapGraph implements AStarGraph<Long>, IndexedAStarGraph {
+
+    private final LongBuffer ids;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+    private final String[] names;
+
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final DoubleBuffer weights;
+    private final IntBuffer wayNames;
+    private final String[] wayNameTable;
+
+    CompactStreetMapGraph(long[] ids, double[] lats, double[] lons, String[] names,
+                          int[] offsets, int[] targets, double[] weights,
+                          int[] wayNames, String[] wayNameTable) {
+        this(LongBuffer.wrap(ids), DoubleBuffer.wrap(lats), DoubleBuffer.wrap(lons), names,
+                IntBuffer.wrap(offsets), IntBuffer.wrap(targets), DoubleBuffer.wrap(weights),
+                IntBuffer.wrap(wayNames), wayNameTable);
+    }
+
+    /**
+     * Creates a graph over the given buffers, which are only ever read with absolute
+     * gets, so several threads may share them.
+     */
+    CompactStreetMapGraph(LongBuffer ids, DoubleBuffer lats, DoubleBuffer lons, String[] names,
+                          IntBuffer offsets, IntBuffer targets, DoubleBuffer weights,
+                          IntBuffer wayNames, String[] wayNameTable) {
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.wayNames = wayNames;
+        this.wayNameTable = wayNameTable;
+    }
+
+    /**
+     * Returns the great-circle (haversine) distance between geographic coordinates
+     * (LATV, LONV) and (LATW, LONW).
+     *
+     * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
+     **/
+    static double distance(double lonV, double lonW, double latV, double latW) {
+        double phi1 = Math.toRadians(latV);
+        double phi2 = Math.toRadians(latW);
+        double dphi = Math.toRadians(latW - latV);
+        double dlambda = Math.toRadians(lonW - lonV);
+
+        double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
+        a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return 3963 * c;
+    }
+
+    /**
+     * Returns the number of vertices, including the ones without any edges.
+     */
+    @Override
+    public int numVertices() {
+        return ids.limit();
+    }
+
+    /**
+     * Returns the number of directed edges.
+     */
+    public int numEdges() {
+        return targets.limit();
+    }
+
+    /**
+     * Returns the dense index of the vertex with OSM id ID, or a negative number if
+     * there is no such vertex.
+     */
+    public int index(long id) {
+        int lo = 0;
+        int hi = ids.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = ids.get(mid);
+            if (midId < id) {
+                lo = mid + 1;
+            } else if (midId > id) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Returns the OSM id of vertex V.
+     */
+    public long id(int v) {
+        return ids.get(v);
+    }
+
+    public double lat(int v) {
+        return lats.get(v);
+    }
+
+    public double lon(int v) {
+        return lons.get(v);
+    }
+
+    /**
+     * Returns the name of vertex V, or null if it has none.
+     */
+    public String name(int v) {
+        return names[v];
+    }
+
+    /**
+     * Returns the number of outgoing edges of vertex V.
+     */
+    public int degree(int v) {
+        return offsets.get(v + 1) - offsets.get(v);
+    }
+
+    /**
+     * Returns the index of the first outgoing edge of vertex V.
+     */
+    @Override
+    public int edgeStart(int v) {
+        return offsets.get(v);
+    }
+
+    /**
+     * Returns one past the index of the last outgoing edge of vertex V.
+     */
+    @Override
+    public int edgeEnd(int v) {
+        return offsets.get(v + 1);
+    }
+
+    /**
+     * Returns the vertex edge E leaves, found by binary search over the edge offsets.
+     */
+    public int edgeSource(int e) {
+        int lo = 0;
+        int hi = ids.limit() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets.get(mid) <= e) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the vertex that edge E points to.
+     */
+    @Override
+    public int edgeTarget(int e) {
+        return targets.get(e);
+    }
+
+    /**
+     * Returns the length of edge E in miles.
+     */
+    @Override
+    public double edgeWeight(int e) {
+        return weights.get(e);
+    }
+
+    /**
+     * Returns the name of the way edge E belongs to.
+     */
+    public String edgeName(int e) {
+        return wayNameTable[wayNames.get(e)];
+    }
+
+    /**
+     * Returns the great-circle distance between vertices S and GOAL.
+     */
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return distance(lons.get(s), lons.get(goal), lats.get(s), lats.get(goal));
+    }
+
+    /**
+     * Returns this graph, since every segment of a way is stored in both directions.
+     */
+    @Override
+    public IndexedAStarGraph reverse() {
+        return this;
+    }
+
+    /**
+     * Returns a list of outgoing edges for V, or an empty list if V is not in this
+     * graph. The edges are materialized on every call, so hot paths should walk
+     * the edges by index directly.
+     */
+    @Override
+    public List<WeightedEdge<Long>> neighbors(Long v) {
+        int i = index(v);
+        if (i < 0) {
+            return new ArrayList<>();
+        }
+        List<WeightedEdge<Long>> incidentList = new ArrayList<>(degree(i));
+        for (int e = edgeStart(i); e < edgeEnd(i); e++) {
+            WeightedEdge<Long> edge = new WeightedEdge<>(v, id(targets.get(e)), weights.get(e));
+            edge.setName(edgeName(e));
+            incidentList.add(edge);
+        }
+        return incidentList;
+    }
+
+    /**
+     * Returns the great-circle distance between S and GOAL. Assumes S and GOAL
+     * exist in this graph.
+     */
+    @Override
+    public double estimatedDistanceToGoal(Long s, Long goal) {
+        return estimatedDistanceToGoal(index(s), index(goal));
+    }
+
+    /**
+     * Collects nodes and road segments as plain arrays while a file is parsed and
+     * turns them into a CompactStreetMapGraph. Nothing is allocated per node or
+     * segment beyond the occasional array growth.
+     */
+    public static class Builder implements GraphSink {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] nodeIds = new long[INITIAL_CAPACITY];
+        private double[] nodeLats = new double[INITIAL_CAPACITY];
+        private double[] nodeLons = new double[INITIAL_CAPACITY];
+        private String[] nodeNames = new String[INITIAL_CAPACITY];
+        private int numNodes;
+
+        private long[] edgeFrom = new long[INITIAL_CAPACITY];
+        private long[] edgeTo = new long[INITIAL_CAPACITY];
+        private int[] edgeNames = new int[INITIAL_CAPACITY];
+        private int numEdges;
+
+        private final Map<String, Integer> wayNameIndex = new HashMap<>();
+        private final List<String> wayNameTable = new ArrayList<>();
+        private String lastWayName;
+        private int lastWayNameIndex;
+
+        /**
+         * Adds a node to the graph being built. If several nodes share an id, the
+         * first one added wins.
+         * <p>
+         * Nodes and segments are kept in separate arrays, so one thread may add nodes
+         * while another adds segments.
+         */
+        @Override
+        public void addNode(long id, double lat, double lon, String name) {
+            if (numNodes == nodeIds.length) {
+                int capacity = numNodes * 2;
+                nodeIds = Arrays.copyOf(nodeIds, capacity);
+                nodeLats = Arrays.copyOf(nodeLats, capacity);
+                nodeLons = Arrays.copyOf(nodeLons, capacity);
+                nodeNames = Arrays.copyOf(nodeNames, capacity);
+            }
+            nodeIds[numNodes] = id;
+            nodeLats[numNodes] = lat;
+            nodeLons[numNodes] = lon;
+            nodeNames[numNodes] = name;
+            numNodes++;
+        }
+
+        @Override
+        public void addWeightedEdge(long fromID, long toID, String name) {
+            if (numEdges == edgeFrom.length) {
+                int capacity = numEdges * 2;
+                edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+                edgeTo = Arrays.copyOf(edgeTo, capacity);
+                edgeNames = Arrays.copyOf(edgeNames, capacity);
+            }
+            edgeFrom[numEdges] = fromID;
+            edgeTo[numEdges] = toID;
+            edgeNames[numEdges] = wayNameIndex(name);
+            numEdges++;
+        }
+
+        /* Interns NAME, remembering the last one since consecutive segments
+           almost always belong to the same way. */
+        private int wayNameIndex(String name) {
+            if (name.equals(lastWayName)) {
+                return lastWayNameIndex;
+            }
+            Integer index = wayNameIndex.get(name);
+            if (index == null) {
+                index = wayNameTable.size();
+                wayNameTable.add(name);
+                wayNameIndex.put(name, index);
+            }
+            lastWayName = name;
+            lastWayNameIndex = index;
+            return index;
+        }
+
+        public CompactStreetMapGraph build() {
+            long[] ids = Arrays.copyOf(nodeIds, numNodes);
+            Arrays.sort(ids);
+            int n = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (n == 0 || ids[n - 1] != ids[i]) {
+                    ids[n++] = ids[i];
+                }
+            }
+            ids = Arrays.copyOf(ids, n);
+
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            String[] names = new String[n];
+            boolean[] seen = new boolean[n];
+            for (int i = 0; i < numNodes; i++) {
+                int v = Arrays.binarySearch(ids, nodeIds[i]);
+                if (!seen[v]) {
+                    seen[v] = true;
+                    lats[v] = nodeLats[i];
+                    lons[v] = nodeLons[i];
+                    names[v] = nodeNames[i];
+                }
+            }
+
+            /* Resolve endpoints, dropping segments that reference unknown nodes,
+               then counting-sort the survivors by source vertex. */
+            int[] from = new int[numEdges];
+            int[] to = new int[numEdges];
+            int[] offsets = new int[n + 1];
+            int m = 0;
+            for (int i = 0; i < numEdges; i++) {
+                int f = Arrays.binarySearch(ids, edgeFrom[i]);
+                int t = Arrays.binarySearch(ids, edgeTo[i]);
+                if (f < 0 || t < 0) {
+                    from[i] = -1;
+                    continue;
+                }
+                from[i] = f;
+                to[i] = t;
+                offsets[f + 1]++;
+                m++;
+            }
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] wayNames = new int[m];
+            int[] next = Arrays.copyOf(offsets, n);
+            for (int i = 0; i < numEdges; i++) {
+                int f = from[i];
+                if (f < 0) {
+                    continue;
+                }
+                int t = to[i];
+                int e = next[f]++;
+                targets[e] = t;
+                weights[e] = distance(lons[f], lons[t], lats[f], lats[t]);
+                wayNames[e] = edgeNames[i];
+            }
+
+            return new CompactStreetMapGraph(ids, lats, lons, names, offsets, targets, weights,
+                    wayNames, wayNameTable.toArray(new String[0]));
+        }
+    }
+}
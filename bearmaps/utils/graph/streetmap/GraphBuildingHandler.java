@@ -1,146 +0,0 @@
-package bearmaps.utils.graph.streetmap;
-
-
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
-
-import java.util.*;
-
-/**
- * Parses OSM XML files using an XML SAX parser. Used to construct the graph of roads for
- * pathfinding, under some constraints.
- * See OSM documentation on
- * <a href="http://wiki.openstreetmap.org/wiki/Key:highway">the highway tag</a>,
- * <a href="http://wiki.openstreetmap.org/wiki/Way">the way XML element</a>,
- * <a href="http://wiki.openstreetmap.org/wiki/Node">the node XML element</a>,
- * and the java
- * <a href="https://docs.oracle.com/javase/tutorial/jaxp/sax/parsing.html">SAX parser tutorial</a>.
- * <p>
- * You may find the CSCourseGraphDB and CSCourseGraphDBHandler examples useful.
- * <p>
- * The idea here is that some external library is going to walk through the XML
- * file, and your override method tells Java what to do every time it gets to the next
- * element in the file. This is a very common but strange-when-you-first-see it pattern.
- * It is similar to the Visitor pattern we discussed for graphs.
- *
- * @author Alan Yao, Maurice Lee, with minor modifications by Lucas Pan for HW4, Spring 2019
- */
-public class GraphBuildingHandler extends DefaultHandler {
-    /**
-     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
-     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
-     * roads, but in practice we walk all over them with such impunity that we forget cars can
-     * actually drive on them.
-     */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
-            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
-                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
-                    "secondary_link", "tertiary_link"));
-    private final StreetMapGraph g;
-    private String activeState = "";
-    private Node activeNode = null;
-    private boolean validWay = false;
-    private List<Long> nodePath = new ArrayList<>();
-    private String wayName = "";
-
-    public GraphBuildingHandler(StreetMapGraph g) {
-        this.g = g;
-    }
-
-    /**
-     * Called at the beginning of an element. Typically, you will want to handle each element in
-     * here, and you may want to track the parent element.
-     *
-     * @param uri        The Namespace URI, or the empty string if the element has no Namespace URI or
-     *                   if Namespace processing is not being performed.
-     * @param localName  The local name (without prefix), or the empty string if Namespace
-     *                   processing is not being performed.
-     * @param qName      The qualified name (with prefix), or the empty string if qualified names are
-     *                   not available. This tells us which element we're looking at.
-     * @param attributes The attributes attached to the element. If there are no attributes, it
-     *                   shall be an empty Attributes object.
-     * @throws SAXException Any SAX exception, possibly wrapping another exception.
-     * @see Attributes
-     */
-    @Override
-    public void startElement(String uri, String localName, String qName, Attributes attributes)
-            throws SAXException {
-        if (qName.equals("node")) {
-            /* We encountered a new <node...> tag. */
-            activeState = "node";
-//            System.out.println("Node id: " + attributes.getValue("id"));
-//            System.out.println("Node lon: " + attributes.getValue("lon"));
-//            System.out.println("Node lat: " + attributes.getValue("lat"));
-
-            activeNode = Node.of(Long.parseLong(attributes.getValue("id")),
-                    Double.parseDouble(attributes.getValue("lat")),
-                    Double.parseDouble(attributes.getValue("lon")));
-        } else if (qName.equals("way")) {
-            /* We encountered a new <way...> tag. */
-            activeState = "way";
-//            System.out.println("Beginning a way...");
-        } else if (activeState.equals("way") && qName.equals("nd")) {
-            /* While looking at a way, we found a <nd...> tag. */
-            //System.out.println("Id of a node in this way: " + attributes.getValue("ref"));
-            nodePath.add(Long.parseLong(attributes.getValue("ref")));
-        } else if (activeState.equals("way") && qName.equals("tag")) {
-            /* While looking at a way, we found a <tag...> tag. */
-            String k = attributes.getValue("k");
-            String v = attributes.getValue("v");
-            if (k.equals("highway")) {
-                //System.out.println("Highway type: " + v);
-                validWay = ALLOWED_HIGHWAY_TYPES.contains(v);
-            } else if (k.equals("name")) {
-                //System.out.println("Way Name: " + v);
-                wayName = v;
-            }
-//            System.out.println("Tag with k=" + k + ", v=" + v + ".");
-        } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
-                .equals("name")) {
-//            System.out.println("Node's name: " + attributes.getValue("v"));
-            activeNode.setName(attributes.getValue("v"));
-        }
-    }
-
-    /**
-     * Receive notification of the end of an element. You may want to take specific terminating
-     * actions here, like finalizing vertices or edges found.
-     *
-     * @param uri       The Namespace URI, or the empty string if the element has no Namespace URI or
-     *                  if Namespace processing is not being performed.
-     * @param localName The local name (without prefix), or the empty string if Namespace
-     *                  processing is not being performed.
-     * @param qName     The qualified name (with prefix), or the empty string if qualified names are
-     *                  not available.
-     * @throws SAXException Any SAX exception, possibly wrapping another exception.
-     */
-    @Override
-    public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (qName.equals("way")) {
-            /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
-            if (validWay) {
-                for (int i = 0; i < nodePath.size() - 1; i++) {
-                    long fromID = nodePath.get(i);
-                    long toID = nodePath.get(i + 1);
-                    g.addWeightedEdge(fromID, toID, wayName);
-                    g.addWeightedEdge(toID, fromID, wayName);
-                }
-            }
-            clearStates();
-        } else if (qName.equals("node")) {
-            if (activeNode != null) {
-                g.addNode(activeNode);
-            }
-            clearStates();
-        }
-    }
-
-    private void clearStates() {
-        activeState = "";
-        activeNode = null;
-        validWay = false;
-        nodePath = new ArrayList<>();
-        wayName = "";
-    }
-}
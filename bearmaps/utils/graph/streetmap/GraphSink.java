@@ -0,0 +1,21 @@
+package bearmaps.utils.graph.streetmap;
+
+/**
+ * Receives the nodes and road segments discovered while parsing an OSM file.
+ * Lets the parser feed whichever graph representation is being built without
+ * knowing anything about its storage.
+ */
+interface GraphSink {
+
+    /**
+     * Adds a node to the graph being built, if it doesn't yet exist. NAME is null for
+     * nodes without a name.
+     */
+    void addNode(long id, double lat, double lon, String name);
+
+    /**
+     * Adds a directed road segment from FROMID to TOID that is part of the way NAME.
+     * Segments whose endpoints never show up as nodes are dropped when the graph is built.
+     */
+    void addWeightedEdge(long fromID, long toID, String name);
+}
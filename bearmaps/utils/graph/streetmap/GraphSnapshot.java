@@ -0,0 +1,393 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes a {@link CompactStreetMapGraph} as a versioned binary file so the
+ * server can skip parsing the OSM XML on startup. Snapshots are produced offline with
+ * <pre>
+ *     java bearmaps.utils.graph.streetmap.GraphSnapshot data/proj3_xml/berkeley-2020.osm.xml \
+ *         data/proj3_bin/berkeley-2020.bmap
+ * </pre>
+ * and opened with {@link FileChannel#map}. The graph reads its numbers through views
+ * of the mapping rather than copies of it, so loading only decodes the names, and
+ * several server processes on one host share the snapshot's pages through the page
+ * cache. A mapped snapshot must not be changed in place; {@link #write} replaces the
+ * file instead, which leaves the old one mapped until it is no longer used.
+ * <p>
+ * Layout (little-endian, every section starts on an 8-byte boundary):
+ * <pre>
+ *     int magic, int version, int numVertices, int numEdges
+ *     long source size, long source modification time in milliseconds (-1 if unknown)
+ *     long[numVertices] ids, double[numVertices] lats, double[numVertices] lons
+ *     int[numVertices] name refs (-1 for unnamed), string table of node names
+ *     int[numVertices + 1] offsets, int[numEdges] targets, double[numEdges] weights
+ *     int[numEdges] way name refs, string table of way names
+ * </pre>
+ * A string table is an int count, int[count + 1] byte offsets and the UTF-8 bytes.
+ * <p>
+ * The size and modification time of the OSM file a snapshot was built from are
+ * recorded so that a snapshot older than its OSM file can be told apart and ignored.
+ * <p>
+ * Only the graph is stored. The name trie has a file of its own, and the spatial
+ * indexes are rebuilt from the coordinates on load by a parallel bulk build.
+ */
+public class GraphSnapshot {
+
+    /**
+     * "BMAP" in ASCII.
+     */
+    private static final int MAGIC = 0x424D4150;
+    /**
+     * Bump whenever the layout changes; older files are then rejected and the
+     * server falls back to parsing the OSM file.
+     */
+    static final int VERSION = 2;
+    /**
+     * The bytes of the header, before the first section.
+     */
+    private static final int HEADER_BYTES = 32;
+
+    private GraphSnapshot() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: GraphSnapshot <osm xml resource> <snapshot file>");
+            return;
+        }
+        CompactStreetMapGraph graph = StreetMapGraph.readFromXML(args[0]);
+        write(graph, Paths.get(args[1]), args[0]);
+        System.out.println(String.format("Wrote %d vertices and %d edges to %s",
+                graph.numVertices(), graph.numEdges(), args[1]));
+    }
+
+    /**
+     * Writes GRAPH, built from the OSM file SOURCE, to the snapshot file at PATH,
+     * replacing it if it exists. The snapshot is written to a temporary file next to
+     * PATH and moved over it, so PATH never holds a partly written snapshot.
+     *
+     * @param source The OSM file or resource GRAPH was read from, or null if unknown.
+     */
+    public static void write(CompactStreetMapGraph graph, Path path, String source)
+            throws IOException {
+        int n = graph.numVertices();
+        int m = graph.numEdges();
+
+        List<String> nodeNameTable = new ArrayList<>();
+        int[] nameRefs = new int[n];
+        Map<String, Integer> nodeNameIndex = new HashMap<>();
+        for (int v = 0; v < n; v++) {
+            nameRefs[v] = intern(graph.name(v), nodeNameTable, nodeNameIndex);
+        }
+        List<String> wayNameTable = new ArrayList<>();
+        int[] wayNameRefs = new int[m];
+        Map<String, Integer> wayNameIndex = new HashMap<>();
+        for (int e = 0; e < m; e++) {
+            wayNameRefs[e] = intern(graph.edgeName(e), wayNameTable, wayNameIndex);
+        }
+        byte[][] nodeNames = encode(nodeNameTable);
+        byte[][] wayNames = encode(wayNameTable);
+
+        long size = HEADER_BYTES + align(8L * n) * 3 + align(4L * n) + stringTableSize(nodeNames)
+                + align(4L * (n + 1)) + align(4L * m) + align(8L * m) + align(4L * m)
+                + stringTableSize(wayNames);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Graph is too large for a single snapshot file");
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        long[] stamp = stamp(source);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(m).putLong(stamp[0]).putLong(stamp[1]);
+        for (int v = 0; v < n; v++) {
+            buf.putLong(graph.id(v));
+        }
+        for (int v = 0; v < n; v++) {
+            buf.putDouble(graph.lat(v));
+        }
+        for (int v = 0; v < n; v++) {
+            buf.putDouble(graph.lon(v));
+        }
+        putInts(buf, nameRefs, n);
+        putStringTable(buf, nodeNames);
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = graph.edgeEnd(v);
+        }
+        putInts(buf, offsets, n + 1);
+        for (int e = 0; e < m; e++) {
+            buf.putInt(graph.edgeTarget(e));
+        }
+        pad(buf);
+        for (int e = 0; e < m; e++) {
+            buf.putDouble(graph.edgeWeight(e));
+        }
+        putInts(buf, wayNameRefs, m);
+        putStringTable(buf, wayNames);
+        buf.flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /* Returns the size and modification time of the OSM file SOURCE, or -1 for both if
+       it is null or not a local file. */
+    private static long[] stamp(String source) throws IOException {
+        Path path = source == null ? null : OSMScanner.localPath(source);
+        if (path == null) {
+            return new long[]{-1, -1};
+        }
+        return new long[]{Files.size(path), Files.getLastModifiedTime(path).toMillis()};
+    }
+
+    /**
+     * Maps the snapshot file at PATH and returns the graph it holds, whatever OSM file
+     * it was built from.
+     *
+     * @throws IOException if the file can't be read, was not written by a compatible
+     *                     version of this class, or is truncated or corrupt.
+     */
+    public static CompactStreetMapGraph read(Path path) throws IOException {
+        return read(path, null);
+    }
+
+    /**
+     * Maps the snapshot file at PATH and returns the graph it holds, provided it was
+     * built from the OSM file SOURCE as it is now. A SOURCE that isn't a local file,
+     * such as a resource in a jar, can't be checked and is assumed unchanged.
+     *
+     * @param source The OSM file the snapshot should have been built from, or null to
+     *               skip the check.
+     * @throws IOException if the file can't be read, was not written by a compatible
+     *                     version of this class, is truncated or corrupt, or is stale:
+     *                     SOURCE has changed size or been modified since.
+     */
+    public static CompactStreetMapGraph read(Path path, String source) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+            throw new IOException(path + " is not a graph snapshot");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported snapshot version %d in %s, expected %d",
+                    version, path, VERSION));
+        }
+        checkRoom(buf, HEADER_BYTES - 8, path);
+        int n = buf.getInt();
+        int m = buf.getInt();
+        long sourceSize = buf.getLong();
+        long sourceModified = buf.getLong();
+        if (n < 0 || m < 0) {
+            throw new IOException(String.format("%s is corrupt: %d vertices, %d edges", path, n, m));
+        }
+        if (source != null && OSMScanner.localPath(source) != null) {
+            long[] stamp = stamp(source);
+            if (stamp[0] != sourceSize || stamp[1] != sourceModified) {
+                throw new IOException(path + " is stale: " + source + " has changed since");
+            }
+        }
+
+        LongBuffer ids = getLongs(buf, n, path);
+        DoubleBuffer lats = getDoubles(buf, n, path);
+        DoubleBuffer lons = getDoubles(buf, n, path);
+        IntBuffer nameRefs = getInts(buf, n, path);
+        String[] nodeNameTable = getStringTable(buf, path);
+        checkRefs(nameRefs, -1, nodeNameTable.length, path);
+        String[] names = new String[n];
+        for (int v = 0; v < n; v++) {
+            int ref = nameRefs.get(v);
+            names[v] = ref < 0 ? null : nodeNameTable[ref];
+        }
+        IntBuffer offsets = getInts(buf, n + 1, path);
+        if (offsets.get(0) != 0 || offsets.get(n) != m) {
+            throw new IOException(path + " is corrupt: edge offsets don't span the edges");
+        }
+        for (int v = 0; v < n; v++) {
+            if (offsets.get(v) > offsets.get(v + 1)) {
+                throw new IOException(path + " is corrupt: edge offsets aren't sorted");
+            }
+        }
+        IntBuffer targets = getInts(buf, m, path);
+        checkRefs(targets, 0, n, path);
+        DoubleBuffer weights = getDoubles(buf, m, path);
+        IntBuffer wayNameRefs = getInts(buf, m, path);
+        String[] wayNameTable = getStringTable(buf, path);
+        checkRefs(wayNameRefs, 0, wayNameTable.length, path);
+
+        return new CompactStreetMapGraph(ids, lats, lons, names, offsets, targets, weights,
+                wayNameRefs, wayNameTable);
+    }
+
+    /* Throws an IOException if BUF, read from PATH, has fewer than BYTES left. */
+    private static void checkRoom(ByteBuffer buf, long bytes, Path path) throws IOException {
+        if (bytes < 0 || bytes > buf.remaining()) {
+            throw new IOException(path + " is truncated");
+        }
+    }
+
+    /* Throws an IOException if any of REFS, read from PATH, is outside [LO, HI). */
+    private static void checkRefs(IntBuffer refs, int lo, int hi, Path path) throws IOException {
+        for (int i = 0; i < refs.limit(); i++) {
+            int ref = refs.get(i);
+            if (ref < lo || ref >= hi) {
+                throw new IOException(path + " is corrupt: reference " + ref
+                        + " outside [" + lo + ", " + hi + ")");
+            }
+        }
+    }
+
+    private static int intern(String s, List<String> table, Map<String, Integer> index) {
+        if (s == null) {
+            return -1;
+        }
+        Integer ref = index.get(s);
+        if (ref == null) {
+            ref = table.size();
+            table.add(s);
+            index.put(s, ref);
+        }
+        return ref;
+    }
+
+    private static byte[][] encode(List<String> strings) {
+        byte[][] encoded = new byte[strings.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static long stringTableSize(byte[][] strings) {
+        long bytes = 0;
+        for (byte[] s : strings) {
+            bytes += s.length;
+        }
+        return align(4L * (strings.length + 2)) + align(bytes);
+    }
+
+    private static void pad(ByteBuffer buf) {
+        while ((buf.position() & 7) != 0) {
+            buf.put((byte) 0);
+        }
+    }
+
+    /* Moves BUF past a section of BYTES and the padding after it, if the file has it. */
+    private static void skip(ByteBuffer buf, long bytes) {
+        buf.position((int) Math.min(align(buf.position() + bytes), buf.limit()));
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            buf.putInt(values[i]);
+        }
+        pad(buf);
+    }
+
+    private static void putStringTable(ByteBuffer buf, byte[][] strings) {
+        buf.putInt(strings.length);
+        int offset = 0;
+        buf.putInt(offset);
+        for (byte[] s : strings) {
+            offset += s.length;
+            buf.putInt(offset);
+        }
+        pad(buf);
+        for (byte[] s : strings) {
+            buf.put(s);
+        }
+        pad(buf);
+    }
+
+    /* Returns a view of the section of COUNT longs at the position of BUF, and moves
+       BUF past it. */
+    private static LongBuffer getLongs(ByteBuffer buf, int count, Path path) throws IOException {
+        LongBuffer values = section(buf, 8L * count, path).asLongBuffer();
+        skip(buf, 8L * count);
+        return values;
+    }
+
+    private static IntBuffer getInts(ByteBuffer buf, int count, Path path) throws IOException {
+        IntBuffer values = section(buf, 4L * count, path).asIntBuffer();
+        skip(buf, 4L * count);
+        return values;
+    }
+
+    private static DoubleBuffer getDoubles(ByteBuffer buf, int count, Path path) throws IOException {
+        DoubleBuffer values = section(buf, 8L * count, path).asDoubleBuffer();
+        skip(buf, 8L * count);
+        return values;
+    }
+
+    /* Returns the next BYTES of BUF as a buffer of their own, in the file's byte order. */
+    private static ByteBuffer section(ByteBuffer buf, long bytes, Path path) throws IOException {
+        checkRoom(buf, bytes, path);
+        ByteBuffer section = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+        section.limit((int) bytes);
+        return section;
+    }
+
+    private static String[] getStringTable(ByteBuffer buf, Path path) throws IOException {
+        checkRoom(buf, 4, path);
+        int count = buf.getInt();
+        if (count < 0) {
+            throw new IOException(path + " is corrupt: " + count + " strings");
+        }
+        checkRoom(buf, 4L * (count + 1L), path);
+        int[] offsets = new int[count + 1];
+        buf.asIntBuffer().get(offsets);
+        skip(buf, 4L * (count + 1));
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] < 0 || offsets[i] > offsets[i + 1]) {
+                throw new IOException(path + " is corrupt: string offsets aren't sorted");
+            }
+        }
+        checkRoom(buf, offsets[count], path);
+        byte[] bytes = new byte[offsets[count]];
+        buf.get(bytes);
+        skip(buf, 0);
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i],
+                    StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+}
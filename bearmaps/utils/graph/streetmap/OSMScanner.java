@@ -0,0 +1,611 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the nodes and roads out of an OSM XML file and feeds them to a {@link GraphSink}.
+ * See OSM documentation on
+ * <a href="http://wiki.openstreetmap.org/wiki/Key:highway">the highway tag</a>,
+ * <a href="http://wiki.openstreetmap.org/wiki/Way">the way XML element</a> and
+ * <a href="http://wiki.openstreetmap.org/wiki/Node">the node XML element</a>.
+ * <p>
+ * This is not a general XML parser. It only understands the flat element structure OSM
+ * extracts use, and in exchange works directly on the raw bytes: element and attribute
+ * names are compared byte by byte, ids and coordinates are parsed in place, and a String
+ * is only created for names that end up in the graph.
+ * <p>
+ * Plain files are memory-mapped. Since OSM files list every node before the first way,
+ * the mapped file is split there and the two halves are scanned on separate threads. Each
+ * half only reports its own kind of element, so a file that breaks the ordering is still
+ * read completely, just with a sequential pass over the stray elements afterwards.
+ * Files ending in ".gz", and resources that aren't plain files, are streamed through a
+ * fixed-size window instead.
+ */
+class OSMScanner {
+    /**
+     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
+     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
+     * roads, but in practice we walk all over them with such impunity that we forget cars can
+     * actually drive on them.
+     */
+    private static final byte[][] ALLOWED_HIGHWAY_TYPES = ascii(
+            "motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
+            "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
+            "secondary_link", "tertiary_link");
+
+    private static final byte[] NODE = ascii("node")[0];
+    private static final byte[] WAY = ascii("way")[0];
+    private static final byte[] RELATION = ascii("relation")[0];
+    private static final byte[] ND = ascii("nd")[0];
+    private static final byte[] TAG = ascii("tag")[0];
+    private static final byte[] ID = ascii("id")[0];
+    private static final byte[] LAT = ascii("lat")[0];
+    private static final byte[] LON = ascii("lon")[0];
+    private static final byte[] REF = ascii("ref")[0];
+    private static final byte[] K = ascii("k")[0];
+    private static final byte[] V = ascii("v")[0];
+    private static final byte[] HIGHWAY = ascii("highway")[0];
+    private static final byte[] NAME = ascii("name")[0];
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+
+    /* What element the scanner is inside of. */
+    private static final int NONE = 0;
+    private static final int IN_NODE = 1;
+    private static final int IN_WAY = 2;
+
+    /* Element kinds a scanner reports. */
+    private static final int NODES = 1;
+    private static final int WAYS = 2;
+
+    private final GraphSink sink;
+    private final int kinds;
+    private boolean skippedElements;
+    private ByteBuffer buf;
+    private int state = NONE;
+
+    private long nodeId;
+    private double nodeLat;
+    private double nodeLon;
+    private String nodeName;
+
+    private long[] wayRefs = new long[64];
+    private int wayLength;
+    private boolean validWay;
+    private String wayName = "";
+
+    /* Bounds of the attribute value found by the last successful findAttribute. */
+    private int valueStart;
+    private int valueEnd;
+    private byte[] scratch = new byte[256];
+
+    private OSMScanner(GraphSink sink, int kinds) {
+        this.sink = sink;
+        this.kinds = kinds;
+    }
+
+    /**
+     * Scans the OSM file FILENAME into SINK. FILENAME is looked up on disk first and on
+     * the classpath second.
+     */
+    static void scan(String filename, GraphSink sink) throws IOException {
+        if (!filename.endsWith(".gz")) {
+            Path path = localPath(filename);
+            if (path != null && Files.size(path) <= Integer.MAX_VALUE) {
+                scanMapped(path, sink);
+                return;
+            }
+        }
+        InputStream in = open(filename);
+        if (filename.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        try {
+            new OSMScanner(sink, NODES | WAYS).scan(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns FILENAME as a path to a local file, looking it up as a resource if it
+     * isn't one, or null if it is neither.
+     */
+    static Path localPath(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        if (Files.isRegularFile(path)) {
+            return path;
+        }
+        URL url = Thread.currentThread().getContextClassLoader().getResource(filename);
+        if (url == null || !url.getProtocol().equals("file")) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static InputStream open(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        if (Files.isRegularFile(path)) {
+            return Files.newInputStream(path);
+        }
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(filename);
+        if (in == null) {
+            throw new FileNotFoundException(filename);
+        }
+        return in;
+    }
+
+    /**
+     * Maps PATH and scans its node and way sections in parallel. The two halves only ever
+     * call addNode and addWeightedEdge respectively, which is what makes sharing SINK safe.
+     */
+    private static void scanMapped(Path path, GraphSink sink) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int limit = mapped.limit();
+        int split = firstNonNodeElement(mapped, limit);
+
+        OSMScanner wayScanner = new OSMScanner(sink, WAYS);
+        ForkJoinTask<?> ways = ForkJoinPool.commonPool().submit(
+                () -> wayScanner.scan(mapped, split, limit));
+        OSMScanner nodeScanner = new OSMScanner(sink, NODES);
+        nodeScanner.scan(mapped, 0, split);
+        ways.join();
+
+        if (nodeScanner.skippedElements) {
+            new OSMScanner(sink, WAYS).scan(mapped, 0, split);
+        }
+        if (wayScanner.skippedElements) {
+            new OSMScanner(sink, NODES).scan(mapped, split, limit);
+        }
+    }
+
+    /**
+     * Binary searches for the start of the first way or relation element, which is where
+     * the node section ends. Returns LIMIT if the file only has nodes.
+     */
+    private static int firstNonNodeElement(ByteBuffer b, int limit) {
+        int lo = 0;
+        int hi = limit;
+        while (lo < hi) {
+            int mid = lo + (hi - lo) / 2;
+            int element = nextElement(b, mid, limit);
+            if (element < limit && startsWith(b, element + 1, limit, NODE)) {
+                lo = element + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return nextElement(b, lo, limit);
+    }
+
+    /* Returns the position of the '<' opening the next node, way or relation element at or
+       after FROM, or LIMIT if there is none. */
+    private static int nextElement(ByteBuffer b, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (b.get(i) == '<' && (startsWith(b, i + 1, limit, NODE)
+                    || startsWith(b, i + 1, limit, WAY) || startsWith(b, i + 1, limit, RELATION))) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /* Returns true if the element name at FROM is exactly NAME. */
+    private static boolean startsWith(ByteBuffer b, int from, int limit, byte[] name) {
+        if (from + name.length >= limit) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (b.get(from + i) != name[i]) {
+                return false;
+            }
+        }
+        return isDelimiter(b.get(from + name.length));
+    }
+
+    private static boolean isDelimiter(byte c) {
+        return c == ' ' || c == '>' || c == '/' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static byte[][] ascii(String... strings) {
+        byte[][] bytes = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = strings[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+
+    /**
+     * Scans IN through a window that is refilled as complete tags are consumed.
+     */
+    private void scan(InputStream in) throws IOException {
+        byte[] window = new byte[STREAM_BUFFER_SIZE];
+        int filled = 0;
+        while (true) {
+            int read = in.read(window, filled, window.length - filled);
+            if (read < 0) {
+                scan(ByteBuffer.wrap(window), 0, filled);
+                return;
+            }
+            filled += read;
+            int consumed = scan(ByteBuffer.wrap(window), 0, filled);
+            if (consumed == 0 && filled == window.length) {
+                /* A single tag doesn't fit; make room for it. */
+                window = Arrays.copyOf(window, window.length * 2);
+            }
+            System.arraycopy(window, consumed, window, 0, filled - consumed);
+            filled -= consumed;
+        }
+    }
+
+    /**
+     * Handles every complete tag of B in [FROM, TO) and returns the position of the
+     * first byte that still has to be scanned, which is TO unless the range ends
+     * partway through a tag.
+     */
+    private int scan(ByteBuffer b, int from, int to) {
+        buf = b;
+        int pos = from;
+        while (true) {
+            int open = indexOf('<', pos, to);
+            if (open < 0) {
+                return to;
+            }
+            int close = tagEnd(open + 1, to);
+            if (close < 0) {
+                return open;
+            }
+            handleTag(open + 1, close);
+            pos = close + 1;
+        }
+    }
+
+    /* Returns the position of the '>' closing the tag whose contents start at FROM,
+       skipping over quoted attribute values and comments, or -1 if it is cut off. */
+    private int tagEnd(int from, int to) {
+        if (from + 2 < to && buf.get(from) == '!' && buf.get(from + 1) == '-'
+                && buf.get(from + 2) == '-') {
+            for (int i = from + 3; i + 2 < to; i++) {
+                if (buf.get(i) == '-' && buf.get(i + 1) == '-' && buf.get(i + 2) == '>') {
+                    return i + 2;
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            byte c = buf.get(i);
+            if (c == '>') {
+                return i;
+            } else if (c == '"' || c == '\'') {
+                i = indexOf(c, i + 1, to);
+                if (i < 0) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(byte c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        return indexOf((byte) c, from, to);
+    }
+
+    /* Handles the tag whose contents, without the angle brackets, are [START, END). */
+    private void handleTag(int start, int end) {
+        byte first = buf.get(start);
+        if (first == '/') {
+            if (startsWith(buf, start + 1, end + 1, NODE)) {
+                endNode();
+            } else if (startsWith(buf, start + 1, end + 1, WAY)) {
+                endWay();
+            }
+            return;
+        } else if (first == '?' || first == '!') {
+            return;
+        }
+        boolean selfClosing = buf.get(end - 1) == '/';
+
+        if (startsWith(buf, start, end + 1, NODE)) {
+            /* We encountered a new <node...> tag. */
+            state = NONE;
+            nodeName = null;
+            if ((kinds & NODES) == 0) {
+                skippedElements = true;
+            } else if (findAttribute(start, end, ID)) {
+                nodeId = parseLong(valueStart, valueEnd);
+                if (findAttribute(start, end, LAT)) {
+                    nodeLat = parseDouble(valueStart, valueEnd);
+                    if (findAttribute(start, end, LON)) {
+                        nodeLon = parseDouble(valueStart, valueEnd);
+                        state = IN_NODE;
+                    }
+                }
+            }
+            if (selfClosing) {
+                endNode();
+            }
+        } else if (startsWith(buf, start, end + 1, WAY)) {
+            /* We encountered a new <way...> tag. */
+            if ((kinds & WAYS) == 0) {
+                skippedElements = true;
+                state = NONE;
+                return;
+            }
+            state = IN_WAY;
+            wayLength = 0;
+            validWay = false;
+            wayName = "";
+            if (selfClosing) {
+                endWay();
+            }
+        } else if (state == IN_WAY && startsWith(buf, start, end + 1, ND)) {
+            /* While looking at a way, we found a <nd...> tag. */
+            if (findAttribute(start, end, REF)) {
+                if (wayLength == wayRefs.length) {
+                    wayRefs = Arrays.copyOf(wayRefs, wayLength * 2);
+                }
+                wayRefs[wayLength++] = parseLong(valueStart, valueEnd);
+            }
+        } else if (state != NONE && startsWith(buf, start, end + 1, TAG)) {
+            if (!findAttribute(start, end, K)) {
+                return;
+            }
+            boolean isName = valueEquals(NAME);
+            boolean isHighway = state == IN_WAY && valueEquals(HIGHWAY);
+            if ((!isName && !isHighway) || !findAttribute(start, end, V)) {
+                return;
+            }
+            if (isHighway) {
+                validWay = isAllowedHighway();
+            } else if (state == IN_WAY) {
+                wayName = decodeValue();
+            } else {
+                nodeName = decodeValue();
+            }
+        }
+    }
+
+    private void endNode() {
+        if (state == IN_NODE) {
+            sink.addNode(nodeId, nodeLat, nodeLon, nodeName);
+        }
+        state = NONE;
+    }
+
+    private void endWay() {
+        if (state == IN_WAY && validWay) {
+            for (int i = 0; i < wayLength - 1; i++) {
+                long fromID = wayRefs[i];
+                long toID = wayRefs[i + 1];
+                sink.addWeightedEdge(fromID, toID, wayName);
+                sink.addWeightedEdge(toID, fromID, wayName);
+            }
+        }
+        state = NONE;
+    }
+
+    /**
+     * Looks for the attribute NAME in the tag [START, END) and, if present, records the
+     * bounds of its value in valueStart and valueEnd.
+     */
+    private boolean findAttribute(int start, int end, byte[] name) {
+        int i = start;
+        while (i < end && !isDelimiter(buf.get(i))) {
+            i++;
+        }
+        while (i < end) {
+            byte c = buf.get(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '/') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < end && buf.get(i) != '=' && !isDelimiter(buf.get(i))) {
+                i++;
+            }
+            int nameEnd = i;
+            int equals = indexOf('=', i, end);
+            if (equals < 0) {
+                return false;
+            }
+            int quote = equals + 1;
+            while (quote < end && buf.get(quote) != '"' && buf.get(quote) != '\'') {
+                quote++;
+            }
+            if (quote >= end) {
+                return false;
+            }
+            int close = indexOf(buf.get(quote), quote + 1, end);
+            if (close < 0) {
+                return false;
+            }
+            if (nameEnd - nameStart == name.length && regionEquals(nameStart, name)) {
+                valueStart = quote + 1;
+                valueEnd = close;
+                return true;
+            }
+            i = close + 1;
+        }
+        return false;
+    }
+
+    private boolean regionEquals(int from, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf.get(from + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean valueEquals(byte[] bytes) {
+        return valueEnd - valueStart == bytes.length && regionEquals(valueStart, bytes);
+    }
+
+    private boolean isAllowedHighway() {
+        for (byte[] type : ALLOWED_HIGHWAY_TYPES) {
+            if (valueEquals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Returns the current attribute value as a String, resolving XML entities. */
+    private String decodeValue() {
+        int length = valueEnd - valueStart;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buf.get(valueStart + i);
+        }
+        String value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        return value.indexOf('&') < 0 ? value : unescape(value);
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int semicolon = c == '&' ? s.indexOf(';', i) : -1;
+            if (semicolon < 0) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            String entity = s.substring(i + 1, semicolon);
+            if (entity.equals("amp")) {
+                sb.append('&');
+            } else if (entity.equals("lt")) {
+                sb.append('<');
+            } else if (entity.equals("gt")) {
+                sb.append('>');
+            } else if (entity.equals("quot")) {
+                sb.append('"');
+            } else if (entity.equals("apos")) {
+                sb.append('\'');
+            } else if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            } else if (entity.startsWith("#")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            } else {
+                sb.append(s, i, semicolon + 1);
+            }
+            i = semicolon + 1;
+        }
+        return sb.toString();
+    }
+
+    private long parseLong(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        if (i == to || to - i > 18) {
+            return Long.parseLong(ascii(from, to));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(ascii(from, to));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a plain decimal like "-122.2998046875" in place. Whenever both the digits and
+     * the power of ten are exactly representable as doubles, a single division is
+     * correctly rounded, so the result is bit-for-bit what Double.parseDouble returns.
+     * Everything else, like exponents or very long mantissas, goes through
+     * Double.parseDouble.
+     */
+    private double parseDouble(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenDot = false;
+        for (; i < to; i++) {
+            byte c = buf.get(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                if (digits > 15) {
+                    return Double.parseDouble(ascii(from, to));
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenDot) {
+                    scale++;
+                }
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                return Double.parseDouble(ascii(from, to));
+            }
+        }
+        if (!seenDigit || scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(ascii(from, to));
+        }
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private String ascii(int from, int to) {
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            sb.append((char) buf.get(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,270 @@
+package bearmaps.utils.graph.streetmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OSMScannerTest {
+
+    /**
+     * Records what a scan reports, nodes and segments apart since the two are reported
+     * by different threads.
+     */
+    private static class RecordingSink implements GraphSink {
+        final List<String> nodes = new ArrayList<>();
+        final List<String> edges = new ArrayList<>();
+
+        @Override
+        public void addNode(long id, double lat, double lon, String name) {
+            nodes.add(id + " " + lat + " " + lon + " " + name);
+        }
+
+        @Override
+        public void addWeightedEdge(long fromID, long toID, String name) {
+            edges.add(fromID + " " + toID + " " + name);
+        }
+    }
+
+    private static String osm(String... elements) {
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n");
+        sb.append("<osm version=\"0.6\" generator=\"test\">\n");
+        sb.append(" <bounds minlat=\"37.8\" minlon=\"-122.3\" maxlat=\"37.9\" maxlon=\"-122.2\"/>\n");
+        for (String element : elements) {
+            sb.append(' ').append(element).append('\n');
+        }
+        return sb.append("</osm>\n").toString();
+    }
+
+    /* Scans DOCUMENT from a plain file, which is mapped, and from a gzipped one, which is
+       streamed, checks both report the same, and returns what the plain scan reported,
+       sorted. */
+    private static RecordingSink scan(String document) throws IOException {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        Path plain = Files.createTempFile("scanner", ".osm.xml");
+        Path gzipped = Files.createTempFile("scanner", ".osm.xml.gz");
+        try {
+            Files.write(plain, bytes);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipped))) {
+                out.write(bytes);
+            }
+            RecordingSink mapped = new RecordingSink();
+            OSMScanner.scan(plain.toString(), mapped);
+            RecordingSink streamed = new RecordingSink();
+            OSMScanner.scan(gzipped.toString(), streamed);
+            Collections.sort(mapped.nodes);
+            Collections.sort(mapped.edges);
+            Collections.sort(streamed.nodes);
+            Collections.sort(streamed.edges);
+            assertEquals(mapped.nodes, streamed.nodes);
+            assertEquals(mapped.edges, streamed.edges);
+            return mapped;
+        } finally {
+            Files.delete(plain);
+            Files.delete(gzipped);
+        }
+    }
+
+    private static List<String> sorted(String... strings) {
+        List<String> list = new ArrayList<>(Arrays.asList(strings));
+        Collections.sort(list);
+        return list;
+    }
+
+    @Test
+    public void basicTest() throws IOException {
+        RecordingSink sink = scan(osm(
+                "<node id=\"1\" lat=\"37.87\" lon=\"-122.26\"/>",
+                "<node id=\"2\" lat=\"37.871\" lon=\"-122.261\" version=\"3\">",
+                "  <tag k=\"amenity\" v=\"restaurant\"/>",
+                "  <tag k=\"name\" v=\"Top Dog\"/>",
+                "</node>",
+                "<node id=\"3\" lat=\"37.872\" lon=\"-122.262\"></node>",
+                "<way id=\"10\">",
+                "  <nd ref=\"1\"/>",
+                "  <nd ref=\"2\"/>",
+                "  <nd ref=\"3\"/>",
+                "  <tag k=\"highway\" v=\"residential\"/>",
+                "  <tag k=\"name\" v=\"Durant Avenue\"/>",
+                "</way>",
+                "<way id=\"11\">",
+                "  <nd ref=\"1\"/>",
+                "  <nd ref=\"3\"/>",
+                "  <tag k=\"highway\" v=\"footway\"/>",
+                "</way>",
+                "<relation id=\"20\">",
+                "  <member type=\"way\" ref=\"10\" role=\"\"/>",
+                "  <tag k=\"name\" v=\"Not A Road\"/>",
+                "</relation>"));
+        assertEquals(sorted(
+                "1 37.87 -122.26 null",
+                "2 37.871 -122.261 Top Dog",
+                "3 37.872 -122.262 null"), sink.nodes);
+        /* The footway is not a road, and the relation's name belongs to nothing. */
+        assertEquals(sorted(
+                "1 2 Durant Avenue", "2 1 Durant Avenue",
+                "2 3 Durant Avenue", "3 2 Durant Avenue"), sink.edges);
+    }
+
+    @Test
+    public void selfClosingTest() throws IOException {
+        RecordingSink sink = scan(osm(
+                "<node id='1' lat='37.87' lon='-122.26' />",
+                "<node\n    id=\"2\"\n    lat=\"37.871\"\n    lon=\"-122.261\"\n/>",
+                "<node id=\"3\" lat=\"37.872\" lon=\"-122.262\">",
+                "</node>",
+                "<way id=\"10\"/>",
+                "<way id=\"11\">",
+                "  <nd ref=\"1\"></nd>",
+                "  <nd ref=\"2\" />",
+                "  <tag k=\"highway\" v=\"primary\"></tag>",
+                "</way>",
+                "<way id=\"12\">",
+                "</way>"));
+        assertEquals(sorted(
+                "1 37.87 -122.26 null",
+                "2 37.871 -122.261 null",
+                "3 37.872 -122.262 null"), sink.nodes);
+        /* A way without a name is reported with an empty one. */
+        assertEquals(sorted("1 2 ", "2 1 "), sink.edges);
+    }
+
+    @Test
+    public void entityTest() throws IOException {
+        RecordingSink sink = scan(osm(
+                "<!-- a comment with a <node id=\"9\" lat=\"0\" lon=\"0\"/> in it -->",
+                "<node id=\"1\" lat=\"37.87\" lon=\"-122.26\">",
+                "  <tag k=\"name\" v=\"Tom &amp; Jerry&apos;s &lt;Caf&#233;&gt; &#x41;&quot;\"/>",
+                "</node>",
+                "<node id=\"2\" lat=\"37.871\" lon=\"-122.261\">",
+                "  <tag k=\"name\" v=\"Caf\u00e9 &nbsp; 5 &amp\"/>",
+                "</node>",
+                "<way id=\"10\">",
+                "  <nd ref=\"1\"/>",
+                "  <nd ref=\"2\"/>",
+                "  <tag k=\"name\" v=\"Martin Luther King Jr. Way &amp; Co\"/>",
+                "  <tag k=\"highway\" v=\"secondary\"/>",
+                "</way>"));
+        /* Unknown or unterminated entities are kept as they are. */
+        assertEquals(sorted(
+                "1 37.87 -122.26 Tom & Jerry's <Caf\u00e9> A\"",
+                "2 37.871 -122.261 Caf\u00e9 &nbsp; 5 &amp"), sink.nodes);
+        assertEquals(sorted(
+                "1 2 Martin Luther King Jr. Way & Co",
+                "2 1 Martin Luther King Jr. Way & Co"), sink.edges);
+    }
+
+    /* Nodes after the first way are found by the sequential pass over the elements the
+       parallel halves skipped. */
+    @Test
+    public void nodesAfterWaysTest() throws IOException {
+        RecordingSink sink = scan(osm(
+                "<node id=\"1\" lat=\"37.87\" lon=\"-122.26\"/>",
+                "<way id=\"10\">",
+                "  <nd ref=\"1\"/>",
+                "  <nd ref=\"2\"/>",
+                "  <tag k=\"highway\" v=\"tertiary\"/>",
+                "  <tag k=\"name\" v=\"Bancroft Way\"/>",
+                "</way>",
+                "<node id=\"2\" lat=\"37.871\" lon=\"-122.261\">",
+                "  <tag k=\"name\" v=\"Late Node\"/>",
+                "</node>",
+                "<way id=\"11\">",
+                "  <nd ref=\"2\"/>",
+                "  <nd ref=\"3\"/>",
+                "  <tag k=\"highway\" v=\"tertiary\"/>",
+                "</way>",
+                "<node id=\"3\" lat=\"37.872\" lon=\"-122.262\"/>"));
+        assertEquals(sorted(
+                "1 37.87 -122.26 null",
+                "2 37.871 -122.261 Late Node",
+                "3 37.872 -122.262 null"), sink.nodes);
+        assertEquals(sorted(
+                "1 2 Bancroft Way", "2 1 Bancroft Way",
+                "2 3 ", "3 2 "), sink.edges);
+
+        /* A node among many ways, so it lies after the split rather than before. */
+        String[] elements = new String[42];
+        elements[0] = "<node id=\"1\" lat=\"37.87\" lon=\"-122.26\"/>";
+        for (int i = 1; i < elements.length; i++) {
+            elements[i] = "<way id=\"" + i + "\"><nd ref=\"1\"/><nd ref=\"" + (i + 1)
+                    + "\"/><tag k=\"highway\" v=\"primary\"/></way>";
+        }
+        elements[30] = "<node id=\"2\" lat=\"37.871\" lon=\"-122.261\"/>";
+        sink = scan(osm(elements));
+        assertEquals(sorted(
+                "1 37.87 -122.26 null",
+                "2 37.871 -122.261 null"), sink.nodes);
+        assertEquals(2 * (elements.length - 2), sink.edges.size());
+    }
+
+    /* The scanner reports segments to nodes that never show up, and building the graph
+       drops them. */
+    @Test
+    public void missingNodeTest() throws IOException {
+        String document = osm(
+                "<node id=\"1\" lat=\"37.87\" lon=\"-122.26\"/>",
+                "<node id=\"2\" lat=\"37.871\" lon=\"-122.261\"/>",
+                "<way id=\"10\">",
+                "  <nd ref=\"1\"/>",
+                "  <nd ref=\"2\"/>",
+                "  <nd ref=\"99\"/>",
+                "  <tag k=\"highway\" v=\"primary\"/>",
+                "  <tag k=\"name\" v=\"Telegraph Avenue\"/>",
+                "</way>");
+        RecordingSink sink = scan(document);
+        assertEquals(sorted(
+                "1 2 Telegraph Avenue", "2 1 Telegraph Avenue",
+                "2 99 Telegraph Avenue", "99 2 Telegraph Avenue"), sink.edges);
+
+        Path file = Files.createTempFile("scanner", ".osm.xml");
+        try {
+            Files.write(file, document.getBytes(StandardCharsets.UTF_8));
+            CompactStreetMapGraph.Builder builder = new CompactStreetMapGraph.Builder();
+            OSMScanner.scan(file.toString(), builder);
+            CompactStreetMapGraph graph = builder.build();
+            assertEquals(2, graph.numVertices());
+            assertEquals(2, graph.numEdges());
+            assertEquals(graph.index(2), graph.edgeTarget(graph.edgeStart(graph.index(1))));
+            assertEquals(1, graph.degree(graph.index(2)));
+            assertEquals("Telegraph Avenue", graph.edgeName(graph.edgeStart(graph.index(2))));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /* A streamed file larger than the scanner's window has tags cut at the end of the
+       window, which must be carried over to the next fill. */
+    @Test
+    public void largeStreamTest() throws IOException {
+        int n = 30000;
+        String[] elements = new String[n + 1];
+        StringBuilder way = new StringBuilder("<way id=\"1\">");
+        for (int i = 0; i < n; i++) {
+            elements[i] = "<node id=\"" + (i + 1) + "\" lat=\"37." + (i + 1)
+                    + "\" lon=\"-122.25\"><tag k=\"name\" v=\"Node " + (i + 1) + "\"/></node>";
+            way.append("<nd ref=\"").append(i + 1).append("\"/>");
+        }
+        elements[n] = way.append("<tag k=\"highway\" v=\"trunk\"/></way>").toString();
+        RecordingSink sink = scan(osm(elements));
+        assertEquals(n, sink.nodes.size());
+        assertEquals(2 * (n - 1), sink.edges.size());
+        Set<String> nodes = new HashSet<>(sink.nodes);
+        for (int i = 1; i <= n; i++) {
+            assertTrue(nodes.contains(i + " " + Double.parseDouble("37." + i) + " -122.25 Node " + i));
+        }
+    }
+}
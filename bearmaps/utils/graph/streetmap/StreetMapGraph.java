@@ -2,49 +2,48 @@ package bearmaps.utils.graph.streetmap;
 
 import bearmaps.utils.graph.AStarGraph;
 import bearmaps.utils.graph.WeightedEdge;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import java.io.IOException;
 import java.util.*;
 
+/**
+ * The street graph used for routing. Storage is delegated to a
+ * {@link CompactStreetMapGraph}; this class keeps the id-based view the rest of
+ * the project was written against, where vertices with no edges are hidden.
+ */
 public class StreetMapGraph implements AStarGraph<Long> {
-    private Map<Long, Node> nodes = new HashMap<>();
-    private Map<Long, Set<WeightedEdge<Long>>> neighbors = new HashMap<>();
-    private List<Node> allNodes;
+    private CompactStreetMapGraph graph;
 
-    private StreetMapGraph() {
-        allNodes = new ArrayList<>();
+    public StreetMapGraph(String filename) {
+        this(StreetMapGraph.readFromXML(filename));
     }
 
-    public StreetMapGraph(String filename) {
-        StreetMapGraph smg = StreetMapGraph.readFromXML(filename);
-        this.nodes = smg.nodes;
-        this.allNodes = smg.allNodes;
-        this.neighbors = smg.neighbors;
+    /**
+     * Creates a graph around already built storage, e.g. one loaded from a
+     * {@link GraphSnapshot}.
+     */
+    public StreetMapGraph(CompactStreetMapGraph graph) {
+        this.graph = graph;
     }
 
     /**
      * Factory method. Creates and returns a graph from an OSM XML
-     * file. Assumes file is correctly formatted.
+     * file, optionally gzip-compressed. Assumes file is correctly formatted.
      */
-    private static StreetMapGraph readFromXML(String filename) {
-        StreetMapGraph smg = new StreetMapGraph();
+    static CompactStreetMapGraph readFromXML(String filename) {
+        CompactStreetMapGraph.Builder builder = new CompactStreetMapGraph.Builder();
         try {
-            //File inputFile = new File(filename);
-            //FileInputStream inputStream = new FileInputStream(inputFile);
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(smg);
-            saxParser.parse(Thread.currentThread().getContextClassLoader().getResourceAsStream(filename), gbh);
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+            OSMScanner.scan(filename, builder);
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        smg.allNodes = new ArrayList<>(smg.nodes.values());
-        smg.clean();
-        return smg;
+        return builder.build();
+    }
+
+    /**
+     * Returns the underlying CSR graph, for solvers that work on dense vertex indices.
+     */
+    public CompactStreetMapGraph compactGraph() {
+        return graph;
     }
 
     /**
@@ -53,13 +52,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     @Override
     public List<WeightedEdge<Long>> neighbors(Long v) {
-        Set<WeightedEdge<Long>> incidentSet = neighbors.get(v);
-        List<WeightedEdge<Long>> incidentList = new ArrayList<>();
-        for (WeightedEdge<Long> e : incidentSet) {
-            incidentList.add(e);
-        }
-
-        return incidentList;
+        return graph.neighbors(v);
     }
 
     /**
@@ -68,9 +61,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      */
     @Override
     public double estimatedDistanceToGoal(Long s, Long goal) {
-        Node sNode = nodes.get(s);
-        Node goalNode = nodes.get(goal);
-        return distance(sNode.lon(), goalNode.lon(), sNode.lat(), goalNode.lat());
+        return graph.estimatedDistanceToGoal(s, goal);
     }
 
     /**
@@ -79,56 +70,25 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     private Set<Long> vertices() {
         Set<Long> vertices = new HashSet<>();
-        for (long id : nodes.keySet()) {
-            vertices.add(id);
+        for (int v = 0; v < graph.numVertices(); v++) {
+            if (graph.degree(v) > 0) {
+                vertices.add(graph.id(v));
+            }
         }
 
         return vertices;
     }
 
     /**
-     * Adds a node to this graph, if it doesn't yet exist.
-     **/
-    void addNode(Node node) {
-        if (!nodes.containsKey(node.id())) {
-            nodes.put(node.id(), node);
-            neighbors.put(node.id(), new HashSet<>());
-        }
-    }
-
-    /**
-     * Adds an edge to this graph, if FROMID and TOID are in this graph. Does
-     * not add additional edge if edge already exists.
-     **/
-    void addWeightedEdge(long fromID, long toID, String name) {
-        if (nodes.containsKey(fromID) && nodes.containsKey(toID)) {
-            Node from = nodes.get(fromID);
-            Node to = nodes.get(toID);
-            double weight = distance(from.lon(), to.lon(), from.lat(), to.lat());
-
-            Set<WeightedEdge<Long>> edgeSet = neighbors.get(fromID);
-            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(from.id(), to.id(), weight);
-            weightedEdge.setName(name);
-            edgeSet.add(weightedEdge);
-        }
-    }
-
-    /**
-     * Removes vertices with 0 out-degree from graph. Note that this will
-     * cause issues if edges are not bidirectional.
-     **/
-    private void clean() {
-        List<Long> toRemove = new ArrayList<>();
-        for (long id : nodes.keySet()) {
-            if (neighbors(id).size() == 0) {
-                toRemove.add(id);
-            }
-        }
-
-        for (long id : toRemove) {
-            nodes.remove(id);
-            neighbors.remove(id);
+     * Returns the dense index of the vertex with id V, or -1 if V has been
+     * removed from this graph for having 0 out-degree.
+     */
+    private int navigableIndex(long v) {
+        int i = graph.index(v);
+        if (i < 0 || graph.degree(i) == 0) {
+            return -1;
         }
+        return i;
     }
 
     /**
@@ -138,7 +98,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return
      */
     protected boolean isNavigableNode(Node n) {
-        return neighbors(n.id()).size() > 0;
+        return navigableIndex(n.id()) >= 0;
     }
 
     /**
@@ -187,24 +147,6 @@ public class StreetMapGraph implements AStarGraph<Long> {
         return true;
     }
 
-    /**
-     * Returns the great-circle (haversine) distance between geographic coordinates
-     * (LATV, LONV) and (LATW, LONW).
-     *
-     * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
-     **/
-    private double distance(double lonV, double lonW, double latV, double latW) {
-        double phi1 = Math.toRadians(latV);
-        double phi2 = Math.toRadians(latW);
-        double dphi = Math.toRadians(latW - latV);
-        double dlambda = Math.toRadians(lonW - lonV);
-
-        double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
-        a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return 3963 * c;
-    }
-
     /**
      * Gets the longitude of a vertex.
      *
@@ -212,10 +154,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The longitude of the vertex.
      */
     public double lon(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = navigableIndex(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lon();
+        return graph.lon(i);
     }
 
     /**
@@ -225,10 +168,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The latitude of the vertex.
      */
     public double lat(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = navigableIndex(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lat();
+        return graph.lat(i);
     }
 
     /**
@@ -238,21 +182,34 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The name of the vertex.
      */
     public String name(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = navigableIndex(v);
+        if (i < 0) {
             return null;
         }
-        return nodes.get(v).name();
+        return graph.name(i);
     }
 
     protected List<Node> getNodes() {
         List<Node> nodes = new ArrayList<>();
-        for (Map.Entry<Long, Node> nodeEntry : this.nodes.entrySet()) {
-            nodes.add(nodeEntry.getValue());
+        for (int v = 0; v < graph.numVertices(); v++) {
+            if (graph.degree(v) > 0) {
+                nodes.add(toNode(v));
+            }
         }
         return nodes;
     }
 
     protected List<Node> getAllNodes() {
-        return new ArrayList<>(allNodes);
+        List<Node> nodes = new ArrayList<>(graph.numVertices());
+        for (int v = 0; v < graph.numVertices(); v++) {
+            nodes.add(toNode(v));
+        }
+        return nodes;
+    }
+
+    private Node toNode(int v) {
+        Node node = Node.of(graph.id(v), graph.lat(v), graph.lon(v));
+        node.setName(graph.name(v));
+        return node;
     }
 }
@@ -0,0 +1,191 @@
+package bearmaps.utils.pq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/* A min priority queue of the ints 0 through capacity - 1, each with a double
+   priority value. Backed by a d-ary heap (4-ary unless told otherwise) stored in
+   two parallel arrays, plus an int[] that maps every item to its position in the
+   heap, so contains and changePriority are constant time and nothing is boxed or
+   allocated after construction.
+
+   A wider heap is shallower, so bubbling up after an insert or a decrease, which
+   is what searches do most, touches fewer levels. Bubbling down compares more
+   children per level, but they sit next to each other in memory. The primitive
+   peekInt and pollInt should be preferred over the boxing PriorityQueue methods. */
+public class IndexedMinPQ implements PriorityQueue<Integer> {
+
+    /* The arity used when none is given. */
+    public static final int DEFAULT_ARITY = 4;
+
+    private final int arity;
+    /* The items in heap order, and their priority values. */
+    private int[] items;
+    private double[] priorities;
+    /* positions[item] is the index of ITEM in items, or -1 if it isn't queued. */
+    private int[] positions;
+    private int size;
+
+    /* Initializes an empty 4-ary IndexedMinPQ that can hold the items 0 through
+       CAPACITY - 1. */
+    public IndexedMinPQ(int capacity) {
+        this(capacity, DEFAULT_ARITY);
+    }
+
+    /* Initializes an empty IndexedMinPQ with ARITY children per heap node that can
+       hold the items 0 through CAPACITY - 1. */
+    public IndexedMinPQ(int capacity, int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("arity must be at least 2");
+        }
+        this.arity = arity;
+        items = new int[capacity];
+        priorities = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /* Returns the number of items this IndexedMinPQ can hold. */
+    public int capacity() {
+        return positions.length;
+    }
+
+    /* Returns the item with the smallest priority value, but does not remove it. */
+    public int peekInt() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        return items[0];
+    }
+
+    @Override
+    public Integer peek() {
+        return peekInt();
+    }
+
+    /* Returns the smallest priority value in the IndexedMinPQ. */
+    public double peekPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        return priorities[0];
+    }
+
+    /* Inserts ITEM with the priority value PRIORITYVALUE. If ITEM is already in
+       the IndexedMinPQ, throw an IllegalArgumentException. */
+    public void insert(int item, double priorityValue) {
+        if (positions[item] >= 0) {
+            throw new IllegalArgumentException(item + " is already queued");
+        }
+        bubbleUp(size++, item, priorityValue);
+    }
+
+    @Override
+    public void insert(Integer item, double priorityValue) {
+        insert(item.intValue(), priorityValue);
+    }
+
+    /* Returns the item with the smallest priority value, and removes it. */
+    public int pollInt() {
+        int min = peekInt();
+        positions[min] = -1;
+        size--;
+        if (size > 0) {
+            bubbleDown(0, items[size], priorities[size]);
+        }
+        return min;
+    }
+
+    @Override
+    public Integer poll() {
+        return pollInt();
+    }
+
+    /* Changes the priority value of ITEM to PRIORITYVALUE. If ITEM is not in the
+       IndexedMinPQ, throw a NoSuchElementException. */
+    public void changePriority(int item, double priorityValue) {
+        int index = positions[item];
+        if (index < 0) {
+            throw new NoSuchElementException(item + " is not queued");
+        }
+        if (priorityValue < priorities[index]) {
+            bubbleUp(index, item, priorityValue);
+        } else {
+            bubbleDown(index, item, priorityValue);
+        }
+    }
+
+    @Override
+    public void changePriority(Integer item, double priorityValue) {
+        changePriority(item.intValue(), priorityValue);
+    }
+
+    /* Returns the number of items in the IndexedMinPQ. */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /* Returns true if ITEM is in the IndexedMinPQ. */
+    public boolean contains(int item) {
+        return positions[item] >= 0;
+    }
+
+    @Override
+    public boolean contains(Integer item) {
+        return contains(item.intValue());
+    }
+
+    /* Removes every item. Takes time proportional to the number of queued items,
+       not the capacity, so a queue can be reused cheaply between searches. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[items[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /* Moves the hole at INDEX up until ITEM with PRIORITYVALUE fits, and puts it there. */
+    private void bubbleUp(int index, int item, double priorityValue) {
+        while (index > 0) {
+            int parent = (index - 1) / arity;
+            if (priorities[parent] <= priorityValue) {
+                break;
+            }
+            place(index, items[parent], priorities[parent]);
+            index = parent;
+        }
+        place(index, item, priorityValue);
+    }
+
+    /* Moves the hole at INDEX down until ITEM with PRIORITYVALUE fits, and puts it there. */
+    private void bubbleDown(int index, int item, double priorityValue) {
+        while (true) {
+            int first = arity * index + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int child = first;
+            double childPriority = priorities[first];
+            for (int i = first + 1; i < last; i++) {
+                if (priorities[i] < childPriority) {
+                    child = i;
+                    childPriority = priorities[i];
+                }
+            }
+            if (childPriority >= priorityValue) {
+                break;
+            }
+            place(index, items[child], childPriority);
+            index = child;
+        }
+        place(index, item, priorityValue);
+    }
+
+    private void place(int index, int item, double priorityValue) {
+        items[index] = item;
+        priorities[index] = priorityValue;
+        positions[item] = index;
+    }
+}
@@ -0,0 +1,95 @@
+package bearmaps.utils.pq;
+
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedMinPQTest {
+
+    @Test
+    public void basicTest() {
+        IndexedMinPQ m = new IndexedMinPQ(10);
+        m.insert(1, 5);
+        m.insert(0, 7);
+        m.insert(2, 3);
+        assertEquals(3, m.size());
+        assertEquals(2, m.pollInt());
+        m.insert(3, 4);
+        m.changePriority(0, 1);
+        assertTrue(m.contains(0));
+        assertEquals(0, m.pollInt());
+        assertFalse(m.contains(0));
+        assertEquals(3, m.pollInt());
+        assertEquals(1, m.pollInt());
+        assertEquals(0, m.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateInsertTest() {
+        IndexedMinPQ m = new IndexedMinPQ(4);
+        m.insert(1, 1);
+        m.insert(1, 2);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void changeMissingTest() {
+        IndexedMinPQ m = new IndexedMinPQ(4);
+        m.changePriority(1, 2);
+    }
+
+    @Test
+    public void priorityQueueContractTest() {
+        PriorityQueue<Integer> m = new IndexedMinPQ(10);
+        m.insert(4, 2.5);
+        m.insert(7, 1.5);
+        assertTrue(m.contains(7));
+        assertEquals(Integer.valueOf(7), m.peek());
+        m.changePriority(4, 0.5);
+        assertEquals(Integer.valueOf(4), m.poll());
+        assertEquals(1, m.size());
+    }
+
+    @Test
+    public void randomAgainstNaiveTest() {
+        for (int arity = 2; arity <= 8; arity++) {
+            randomAgainstNaive(arity);
+        }
+    }
+
+    private void randomAgainstNaive(int arity) {
+        Random random = new Random(61);
+        int capacity = 500;
+        IndexedMinPQ m = new IndexedMinPQ(capacity, arity);
+        NaiveMinPQ<Integer> n = new NaiveMinPQ<>();
+        double[] priorities = new double[capacity];
+
+        for (int i = 0; i < 20000; i++) {
+            int item = random.nextInt(capacity);
+            double priority = random.nextDouble();
+            int op = random.nextInt(3);
+            if (op == 0 && !m.contains(item)) {
+                m.insert(item, priority);
+                n.insert(item, priority);
+                priorities[item] = priority;
+            } else if (op == 1 && m.contains(item)) {
+                m.changePriority(item, priority);
+                n.changePriority(item, priority);
+                priorities[item] = priority;
+            } else if (op == 2 && m.size() > 0) {
+                assertEquals(priorities[n.poll()], priorities[m.pollInt()], 0);
+            }
+            assertEquals(n.size(), m.size());
+        }
+
+        m.clear();
+        assertEquals(0, m.size());
+        for (int item = 0; item < capacity; item++) {
+            assertFalse(m.contains(item));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package bearmaps.utils.pq;
+
+import java.util.Random;
+
+/**
+ * Times the priority queues on the operation mix of an A* search: every poll is
+ * followed by a few inserts and decrease-keys whose priorities are a little above the
+ * one just polled. The workload is recorded once and replayed against every queue.
+ * Priorities never drop below the last one polled, so RadixHeapPQ can replay it too.
+ * NaiveMinPQ is linear per operation, so it gets a shorter prefix of the workload.
+ * <p>
+ * Run with <code>java bearmaps.utils.pq.PriorityQueueBenchmark [vertices]</code>.
+ */
+public class PriorityQueueBenchmark {
+
+    private static final int INSERT = 0;
+    private static final int CHANGE = 1;
+    private static final int POLL = 2;
+    private static final int ROUNDS = 5;
+    private static final int NAIVE_OPERATIONS = 20000;
+
+    private final int[] ops;
+    private final int[] items;
+    private final double[] priorities;
+    private final int numOps;
+    private final int capacity;
+
+    private PriorityQueueBenchmark(int vertices, long seed) {
+        capacity = vertices;
+        Random random = new Random(seed);
+        int maxOps = vertices * 8;
+        ops = new int[maxOps];
+        items = new int[maxOps];
+        priorities = new double[maxOps];
+
+        /* Record the workload by running it against IndexedMinPQ. */
+        IndexedMinPQ pq = new IndexedMinPQ(vertices);
+        boolean[] done = new boolean[vertices];
+        double[] best = new double[vertices];
+        int n = 0;
+        pq.insert(0, 0);
+        ops[n] = INSERT;
+        items[n] = 0;
+        priorities[n++] = 0;
+        while (pq.size() > 0 && n + 8 < maxOps) {
+            double min = pq.peekPriority();
+            int v = pq.pollInt();
+            done[v] = true;
+            ops[n++] = POLL;
+            for (int i = random.nextInt(4) + 1; i > 0; i--) {
+                int w = random.nextInt(vertices);
+                double p = min + random.nextDouble();
+                if (done[w]) {
+                    continue;
+                } else if (!pq.contains(w)) {
+                    pq.insert(w, p);
+                    ops[n] = INSERT;
+                } else if (p < best[w]) {
+                    pq.changePriority(w, p);
+                    ops[n] = CHANGE;
+                } else {
+                    continue;
+                }
+                best[w] = p;
+                items[n] = w;
+                priorities[n++] = p;
+            }
+        }
+        numOps = n;
+    }
+
+    public static void main(String[] args) {
+        int vertices = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        PriorityQueueBenchmark benchmark = new PriorityQueueBenchmark(vertices, 4);
+        System.out.println(String.format("%d operations over %d items", benchmark.numOps, vertices));
+
+        for (int arity : new int[]{2, 4, 8}) {
+            double ns = benchmark.timeIndexed(arity);
+            System.out.println(String.format("IndexedMinPQ (%d-ary): %8.1f ns/op", arity, ns));
+        }
+        System.out.println(String.format("RadixHeapPQ:            %8.1f ns/op", benchmark.timeRadix()));
+        System.out.println(String.format("MinHeapPQ:              %8.1f ns/op",
+                benchmark.time(MinHeapPQ::new, benchmark.numOps)));
+        System.out.println(String.format("NaiveMinPQ:             %8.1f ns/op (first %d operations)",
+                benchmark.time(NaiveMinPQ::new, Math.min(NAIVE_OPERATIONS, benchmark.numOps)),
+                Math.min(NAIVE_OPERATIONS, benchmark.numOps)));
+    }
+
+    /* Returns the best time per operation of a few replays on fresh IndexedMinPQs. */
+    private double timeIndexed(int arity) {
+        double best = Double.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            IndexedMinPQ pq = new IndexedMinPQ(capacity, arity);
+            long start = System.nanoTime();
+            for (int i = 0; i < numOps; i++) {
+                if (ops[i] == INSERT) {
+                    pq.insert(items[i], priorities[i]);
+                } else if (ops[i] == CHANGE) {
+                    pq.changePriority(items[i], priorities[i]);
+                } else {
+                    checksum += pq.pollInt();
+                }
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / numOps);
+        }
+        consume(checksum);
+        return best;
+    }
+
+    /* Returns the best time per operation of a few replays on fresh RadixHeapPQs. */
+    private double timeRadix() {
+        double best = Double.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            RadixHeapPQ pq = new RadixHeapPQ(capacity);
+            long start = System.nanoTime();
+            for (int i = 0; i < numOps; i++) {
+                if (ops[i] == INSERT) {
+                    pq.insert(items[i], priorities[i]);
+                } else if (ops[i] == CHANGE) {
+                    pq.changePriority(items[i], priorities[i]);
+                } else {
+                    checksum += pq.pollInt();
+                }
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / numOps);
+        }
+        consume(checksum);
+        return best;
+    }
+
+    private interface Factory {
+        PriorityQueue<Integer> create();
+    }
+
+    /* Returns the best time per operation of a few replays of the first COUNT
+       operations on fresh queues from FACTORY. */
+    private double time(Factory factory, int count) {
+        double best = Double.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            PriorityQueue<Integer> pq = factory.create();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                if (ops[i] == INSERT) {
+                    pq.insert(items[i], priorities[i]);
+                } else if (ops[i] == CHANGE) {
+                    pq.changePriority(items[i], priorities[i]);
+                } else {
+                    checksum += pq.poll();
+                }
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / count);
+        }
+        consume(checksum);
+        return best;
+    }
+
+    /* Keeps the JIT from discarding the polls. */
+    private static void consume(long checksum) {
+        if (checksum == 42) {
+            System.out.print("");
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package bearmaps.utils.pq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/* A monotone min priority queue of the ints 0 through capacity - 1, each with a
+   non-negative double priority value. Monotone means no item may be given a
+   priority value smaller than the last one polled, which always holds for
+   Dijkstra's algorithm over non-negative edge weights, since every new distance is
+   a polled distance plus an edge weight.
+
+   Backed by a radix heap. The raw bits of a non-negative double order the same way
+   as the double, so priorities are compared as longs. Every queued item sits in
+   the bucket numbered by the highest bit in which its key differs from the last
+   polled key, with bucket 0 holding the keys equal to it. Polling takes from bucket
+   0; when that is empty, the lowest non-empty bucket is emptied into lower ones
+   around its smallest key. An item only ever moves to lower buckets, so it moves
+   at most 64 times, and insert and changePriority touch a single bucket without
+   comparing against any other item. Like IndexedMinPQ, items know their slot in
+   their bucket, so contains and changePriority are constant time. */
+public class RadixHeapPQ implements PriorityQueue<Integer> {
+
+    private static final int NUM_BUCKETS = 64;
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    /* The items in each bucket, in no particular order. */
+    private final int[][] buckets = new int[NUM_BUCKETS][];
+    private final int[] bucketSizes = new int[NUM_BUCKETS];
+    /* bucketOf[item] is the bucket ITEM is in, or -1 if it isn't queued, and
+       slots[item] is its index in that bucket. */
+    private final int[] bucketOf;
+    private final int[] slots;
+    /* keys[item] holds the bits of the priority value of ITEM. */
+    private final long[] keys;
+    /* The key of the last polled item, which no queued key may be less than. Every
+       item in bucket 0 has exactly this key. */
+    private long last;
+    private int size;
+
+    /* Initializes an empty RadixHeapPQ that can hold the items 0 through
+       CAPACITY - 1. */
+    public RadixHeapPQ(int capacity) {
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            buckets[b] = new int[INITIAL_BUCKET_CAPACITY];
+        }
+        bucketOf = new int[capacity];
+        slots = new int[capacity];
+        keys = new long[capacity];
+        Arrays.fill(bucketOf, -1);
+    }
+
+    /* Returns the number of items this RadixHeapPQ can hold. */
+    public int capacity() {
+        return bucketOf.length;
+    }
+
+    /* Returns the item with the smallest priority value, but does not remove it. */
+    public int peekInt() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        if (bucketSizes[0] == 0) {
+            redistribute();
+        }
+        return buckets[0][bucketSizes[0] - 1];
+    }
+
+    @Override
+    public Integer peek() {
+        return peekInt();
+    }
+
+    /* Returns the smallest priority value in the RadixHeapPQ. */
+    public double peekPriority() {
+        peekInt();
+        return Double.longBitsToDouble(last);
+    }
+
+    /* Inserts ITEM with the priority value PRIORITYVALUE. If ITEM is already in
+       the RadixHeapPQ, or PRIORITYVALUE is less than the last polled priority
+       value, throw an IllegalArgumentException. */
+    public void insert(int item, double priorityValue) {
+        if (bucketOf[item] >= 0) {
+            throw new IllegalArgumentException(item + " is already queued");
+        }
+        add(item, key(priorityValue));
+        size++;
+    }
+
+    @Override
+    public void insert(Integer item, double priorityValue) {
+        insert(item.intValue(), priorityValue);
+    }
+
+    /* Returns the item with the smallest priority value, and removes it. */
+    public int pollInt() {
+        int min = peekInt();
+        bucketSizes[0]--;
+        bucketOf[min] = -1;
+        size--;
+        return min;
+    }
+
+    @Override
+    public Integer poll() {
+        return pollInt();
+    }
+
+    /* Changes the priority value of ITEM to PRIORITYVALUE. If ITEM is not in the
+       RadixHeapPQ, throw a NoSuchElementException, and if PRIORITYVALUE is less
+       than the last polled priority value, throw an IllegalArgumentException. */
+    public void changePriority(int item, double priorityValue) {
+        if (bucketOf[item] < 0) {
+            throw new NoSuchElementException(item + " is not queued");
+        }
+        long key = key(priorityValue);
+        remove(item);
+        add(item, key);
+    }
+
+    @Override
+    public void changePriority(Integer item, double priorityValue) {
+        changePriority(item.intValue(), priorityValue);
+    }
+
+    /* Returns the number of items in the RadixHeapPQ. */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /* Returns true if ITEM is in the RadixHeapPQ. */
+    public boolean contains(int item) {
+        return bucketOf[item] >= 0;
+    }
+
+    @Override
+    public boolean contains(Integer item) {
+        return contains(item.intValue());
+    }
+
+    /* Removes every item and lifts the monotonicity floor back to 0. Takes time
+       proportional to the number of queued items, not the capacity. */
+    public void clear() {
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            for (int i = 0; i < bucketSizes[b]; i++) {
+                bucketOf[buckets[b][i]] = -1;
+            }
+            bucketSizes[b] = 0;
+        }
+        last = 0;
+        size = 0;
+    }
+
+    /* Returns the bits of PRIORITYVALUE, after checking it may be queued. Adding
+       0.0 turns -0.0 into 0.0, whose bits are all zero. */
+    private long key(double priorityValue) {
+        long key = Double.doubleToRawLongBits(priorityValue + 0.0);
+        if (key < last || Double.isNaN(priorityValue)) {
+            throw new IllegalArgumentException(String.format(
+                    "priority %s is below the last polled priority %s", priorityValue,
+                    Double.longBitsToDouble(last)));
+        }
+        return key;
+    }
+
+    /* Returns the bucket of KEY, which is the position of the highest bit in which
+       it differs from LAST, or 0 if it equals LAST. */
+    private int bucket(long key) {
+        return key == last ? 0 : NUM_BUCKETS - Long.numberOfLeadingZeros(key ^ last);
+    }
+
+    private void add(int item, long key) {
+        int b = bucket(key);
+        int n = bucketSizes[b];
+        if (n == buckets[b].length) {
+            buckets[b] = Arrays.copyOf(buckets[b], n * 2);
+        }
+        buckets[b][n] = item;
+        keys[item] = key;
+        bucketSizes[b] = n + 1;
+        bucketOf[item] = b;
+        slots[item] = n;
+    }
+
+    /* Takes ITEM out of its bucket by moving the bucket's last item into its slot. */
+    private void remove(int item) {
+        int b = bucketOf[item];
+        int n = --bucketSizes[b];
+        int slot = slots[item];
+        int moved = buckets[b][n];
+        buckets[b][slot] = moved;
+        slots[moved] = slot;
+    }
+
+    /* Makes the smallest key queued the new LAST and empties the lowest non-empty
+       bucket into the ones below it. Every key in that bucket agrees with the new
+       LAST above the bucket's bit and differs from it at most below, so they all
+       land in lower buckets, and the minimum lands in bucket 0. */
+    private void redistribute() {
+        int b = 1;
+        while (bucketSizes[b] == 0) {
+            b++;
+        }
+        int[] bucket = buckets[b];
+        int n = bucketSizes[b];
+        long min = keys[bucket[0]];
+        for (int i = 1; i < n; i++) {
+            min = Math.min(min, keys[bucket[i]]);
+        }
+        last = min;
+        bucketSizes[b] = 0;
+        for (int i = 0; i < n; i++) {
+            add(bucket[i], keys[bucket[i]]);
+        }
+    }
+}
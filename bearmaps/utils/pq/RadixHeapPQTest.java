@@ -0,0 +1,103 @@
+package bearmaps.utils.pq;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RadixHeapPQTest {
+
+    @Test
+    public void basicTest() {
+        RadixHeapPQ m = new RadixHeapPQ(10);
+        m.insert(1, 5);
+        m.insert(0, 7);
+        m.insert(2, 3);
+        assertEquals(3, m.size());
+        assertEquals(2, m.pollInt());
+        m.insert(3, 4);
+        m.changePriority(0, 3.5);
+        assertTrue(m.contains(0));
+        assertEquals(3.5, m.peekPriority(), 0);
+        assertEquals(0, m.pollInt());
+        assertFalse(m.contains(0));
+        assertEquals(3, m.pollInt());
+        assertEquals(1, m.pollInt());
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public void zeroAndInfinityTest() {
+        RadixHeapPQ m = new RadixHeapPQ(4);
+        m.insert(0, Double.POSITIVE_INFINITY);
+        m.insert(1, -0.0);
+        m.insert(2, 0);
+        assertEquals(0, m.peekPriority(), 0);
+        m.pollInt();
+        assertEquals(0, m.peekPriority(), 0);
+        m.pollInt();
+        assertEquals(0, m.pollInt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void belowLastPolledTest() {
+        RadixHeapPQ m = new RadixHeapPQ(4);
+        m.insert(0, 2);
+        m.insert(1, 3);
+        m.pollInt();
+        m.changePriority(1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeTest() {
+        RadixHeapPQ m = new RadixHeapPQ(4);
+        m.insert(0, -1);
+    }
+
+    /* Replays a Dijkstra-like sequence, where new priorities are never below the
+       last polled one and often tie, on a RadixHeapPQ and an IndexedMinPQ. */
+    @Test
+    public void randomAgainstIndexedTest() {
+        Random random = new Random(61);
+        int capacity = 500;
+        RadixHeapPQ m = new RadixHeapPQ(capacity);
+        IndexedMinPQ n = new IndexedMinPQ(capacity);
+        double[] priorities = new double[capacity];
+        double floor = 0;
+
+        for (int i = 0; i < 50000; i++) {
+            int item = random.nextInt(capacity);
+            double priority = floor + random.nextInt(4) * random.nextDouble() * 0.01;
+            int op = random.nextInt(3);
+            if (op == 0 && !m.contains(item)) {
+                m.insert(item, priority);
+                n.insert(item, priority);
+                priorities[item] = priority;
+            } else if (op == 1 && m.contains(item)) {
+                m.changePriority(item, priority);
+                n.changePriority(item, priority);
+                priorities[item] = priority;
+            } else if (op == 2 && m.size() > 0) {
+                assertEquals(n.peekPriority(), m.peekPriority(), 0);
+                int polled = m.pollInt();
+                assertEquals(n.peekPriority(), priorities[polled], 0);
+                /* Ties may be broken differently, so take the same item out of both. */
+                n.changePriority(polled, Double.NEGATIVE_INFINITY);
+                n.pollInt();
+                floor = priorities[polled];
+            }
+            assertEquals(n.size(), m.size());
+        }
+
+        m.clear();
+        assertEquals(0, m.size());
+        for (int item = 0; item < capacity; item++) {
+            assertFalse(m.contains(item));
+        }
+        m.insert(0, 0);
+        assertEquals(0, m.pollInt());
+    }
+}
@@ -0,0 +1,347 @@
+package bearmaps.utils.ps;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * A point set that buckets its points into a uniform grid of square cells over their
+ * bounding box. When points are spread about evenly, the nearest one to a query is
+ * almost always in its cell or the ring of cells around it, so queries take near
+ * constant time, where KDTree takes logarithmic time. Clustered points make some cells
+ * crowded and many empty, which the cell size can only partly make up for.
+ * <p>
+ * The cells are stored in compressed sparse row form: the points are sorted by cell
+ * into three parallel arrays, and the points of cell c occupy positions
+ * [cellStart[c], cellStart[c + 1]). Cells are numbered row by row.
+ * <p>
+ * A nearest query scans the query's cell and then rings of cells around it, one cell
+ * farther out at a time, until the best point found is closer than anything outside
+ * the square scanned so far can be.
+ */
+public class GridPointSet implements IndexedPointSet {
+
+    /**
+     * The average number of points per cell the constructors without a cell size aim
+     * for.
+     */
+    public static final double DEFAULT_POINTS_PER_CELL = 2;
+
+    /**
+     * The most cells a grid may have.
+     */
+    private static final long MAX_CELLS = 1 << 26;
+
+    /**
+     * Distances to the edge of a scanned square are shrunk by this factor before they
+     * are trusted to prune, so rounding in assigning points to cells can't lose one.
+     */
+    private static final double GAP_SLACK = 1 - 1e-9;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] payload;
+    private final int[] cellStart;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+
+    /**
+     * Builds a grid over the points (XS[i], YS[i]), with payload i.
+     */
+    public GridPointSet(double[] xs, double[] ys) {
+        this(xs, ys, KDTree.identity(xs.length));
+    }
+
+    /**
+     * Builds a grid over the points (XS[i], YS[i]), with payload PAYLOAD[i], whose cells
+     * hold DEFAULT_POINTS_PER_CELL points on average.
+     */
+    public GridPointSet(double[] xs, double[] ys, int[] payload) {
+        this(xs, ys, payload, defaultCellSize(xs, ys));
+    }
+
+    /**
+     * Builds a grid of cells CELLSIZE on a side over the points (XS[i], YS[i]), with
+     * payload PAYLOAD[i]. The arrays are copied, so the caller may reuse them.
+     *
+     * @throws IllegalArgumentException if CELLSIZE is not positive or so small that the
+     *                                  grid would have too many cells.
+     */
+    public GridPointSet(double[] xs, double[] ys, int[] payload, double cellSize) {
+        int n = xs.length;
+        if (ys.length != n || payload.length != n) {
+            throw new IllegalArgumentException("Coordinate and payload arrays differ in length");
+        }
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        double x0 = 0;
+        double y0 = 0;
+        double x1 = 0;
+        double y1 = 0;
+        if (n > 0) {
+            x0 = Double.POSITIVE_INFINITY;
+            y0 = Double.POSITIVE_INFINITY;
+            x1 = Double.NEGATIVE_INFINITY;
+            y1 = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                x0 = Math.min(x0, xs[i]);
+                y0 = Math.min(y0, ys[i]);
+                x1 = Math.max(x1, xs[i]);
+                y1 = Math.max(y1, ys[i]);
+            }
+        }
+        long c = (long) ((x1 - x0) / cellSize) + 1;
+        long r = (long) ((y1 - y0) / cellSize) + 1;
+        if ((double) c * r > MAX_CELLS) {
+            throw new IllegalArgumentException("Cell size " + cellSize + " makes too many cells");
+        }
+        this.minX = x0;
+        this.minY = y0;
+        this.cellSize = cellSize;
+        this.cols = (int) c;
+        this.rows = (int) r;
+
+        /* Counting sort the points by cell. */
+        int[] cells = new int[n];
+        cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < n; i++) {
+            cells[i] = row(ys[i]) * cols + col(xs[i]);
+            cellStart[cells[i] + 1]++;
+        }
+        for (int i = 0; i < cols * rows; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        this.xs = new double[n];
+        this.ys = new double[n];
+        this.payload = new int[n];
+        int[] next = Arrays.copyOf(cellStart, cols * rows);
+        for (int i = 0; i < n; i++) {
+            int j = next[cells[i]]++;
+            this.xs[j] = xs[i];
+            this.ys[j] = ys[i];
+            this.payload[j] = payload[i];
+        }
+    }
+
+    /**
+     * Returns the side of the cells that puts DEFAULT_POINTS_PER_CELL of the points
+     * (XS[i], YS[i]) in each cell of their bounding box on average.
+     */
+    public static double defaultCellSize(double[] xs, double[] ys) {
+        int n = xs.length;
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            x0 = Math.min(x0, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            x1 = Math.max(x1, xs[i]);
+            y1 = Math.max(y1, ys[i]);
+        }
+        double width = x1 - x0;
+        double height = y1 - y0;
+        double cells = Math.max(1, n / DEFAULT_POINTS_PER_CELL);
+        if (width > 0 && height > 0) {
+            return Math.sqrt(width * height / cells);
+        } else if (width > 0 || height > 0) {
+            return Math.max(width, height) / cells;
+        }
+        return 1;
+    }
+
+    /* Returns the column of the cell containing x-coordinate X, clamped to the grid. */
+    private int col(double x) {
+        double c = (x - minX) / cellSize;
+        return c < 0 ? 0 : c >= cols ? cols - 1 : (int) c;
+    }
+
+    /* Returns the row of the cell containing y-coordinate Y, clamped to the grid. */
+    private int row(double y) {
+        double r = (y - minY) / cellSize;
+        return r < 0 ? 0 : r >= rows ? rows - 1 : (int) r;
+    }
+
+    /**
+     * Returns the side of the cells.
+     */
+    public double cellSize() {
+        return cellSize;
+    }
+
+    @Override
+    public int size() {
+        return xs.length;
+    }
+
+    @Override
+    public Point nearest(double x, double y) {
+        int best = nearest(x, y, null);
+        return best < 0 ? null : new Point(xs[best], ys[best]);
+    }
+
+    @Override
+    public int nearestIndex(double x, double y) {
+        int best = nearest(x, y, null);
+        return best < 0 ? -1 : payload[best];
+    }
+
+    @Override
+    public int nearestIndex(double x, double y, IntPredicate accept) {
+        int best = nearest(x, y, accept);
+        return best < 0 ? -1 : payload[best];
+    }
+
+    /* Returns the position of the point closest to (X, Y) whose payload ACCEPT accepts,
+       if not null, or -1 if there is none. */
+    private int nearest(double x, double y, IntPredicate accept) {
+        int cx = col(x);
+        int cy = row(y);
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int r = 0; ; r++) {
+            int c0 = cx - r;
+            int c1 = cx + r;
+            int r0 = cy - r;
+            int r1 = cy + r;
+            for (int row = Math.max(r0, 0); row <= Math.min(r1, rows - 1); row++) {
+                boolean edgeRow = row == r0 || row == r1;
+                for (int col = c0; col <= c1; col += edgeRow ? 1 : c1 - c0) {
+                    if (col < 0 || col >= cols) {
+                        continue;
+                    }
+                    int cell = row * cols + col;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        double d = distance(i, x, y);
+                        if ((best < 0 || d < bestDistance
+                                || (d == bestDistance && payload[i] < payload[best]))
+                                && (accept == null || accept.test(payload[i]))) {
+                            best = i;
+                            bestDistance = d;
+                        }
+                    }
+                }
+            }
+            double gap = gap(x, y, c0, c1, r0, r1);
+            if (gap == Double.POSITIVE_INFINITY || bestDistance < gap * gap * GAP_SLACK) {
+                return best;
+            }
+        }
+    }
+
+    @Override
+    public int nearest(double x, double y, int k, int[] indices, double[] distances) {
+        NearestHeap.checkCapacity(k, indices, distances);
+        int cx = col(x);
+        int cy = row(y);
+        int size = 0;
+        for (int r = 0; ; r++) {
+            int c0 = cx - r;
+            int c1 = cx + r;
+            int r0 = cy - r;
+            int r1 = cy + r;
+            for (int row = Math.max(r0, 0); row <= Math.min(r1, rows - 1); row++) {
+                boolean edgeRow = row == r0 || row == r1;
+                for (int col = c0; col <= c1; col += edgeRow ? 1 : c1 - c0) {
+                    if (col < 0 || col >= cols) {
+                        continue;
+                    }
+                    int cell = row * cols + col;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        size = NearestHeap.offer(indices, distances, size, k, payload[i],
+                                distance(i, x, y));
+                    }
+                }
+            }
+            double gap = gap(x, y, c0, c1, r0, r1);
+            if (gap == Double.POSITIVE_INFINITY
+                    || NearestHeap.isFullWithin(distances, size, k, gap * gap * GAP_SLACK)) {
+                break;
+            }
+        }
+        NearestHeap.sort(indices, distances, size);
+        return size;
+    }
+
+    /* Returns the distance from (X, Y) to the nearest point outside the square of cells
+       [C0, C1] x [R0, R1] that could hold a point, or infinity if the square covers the
+       whole grid. */
+    private double gap(double x, double y, int c0, int c1, int r0, int r1) {
+        double gap = Double.POSITIVE_INFINITY;
+        if (c0 > 0) {
+            gap = Math.min(gap, x - (minX + c0 * cellSize));
+        }
+        if (c1 < cols - 1) {
+            gap = Math.min(gap, minX + (c1 + 1) * cellSize - x);
+        }
+        if (r0 > 0) {
+            gap = Math.min(gap, y - (minY + r0 * cellSize));
+        }
+        if (r1 < rows - 1) {
+            gap = Math.min(gap, minY + (r1 + 1) * cellSize - y);
+        }
+        return Math.max(gap, 0);
+    }
+
+    @Override
+    public int withinRadius(double x, double y, double radius, int[] indices) {
+        if (!(radius >= 0)) {
+            return 0;
+        }
+        double r2 = radius * radius;
+        int count = 0;
+        for (int row = row(y - radius); row <= row(y + radius); row++) {
+            for (int col = col(x - radius); col <= col(x + radius); col++) {
+                int cell = row * cols + col;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    if (distance(i, x, y) <= r2) {
+                        count = collect(i, indices, count);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int inRange(double xmin, double ymin, double xmax, double ymax, int[] indices) {
+        if (!(xmin <= xmax && ymin <= ymax)) {
+            return 0;
+        }
+        int count = 0;
+        for (int row = row(ymin); row <= row(ymax); row++) {
+            for (int col = col(xmin); col <= col(xmax); col++) {
+                int cell = row * cols + col;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    double px = xs[i];
+                    double py = ys[i];
+                    if (px >= xmin && px <= xmax && py >= ymin && py <= ymax) {
+                        count = collect(i, indices, count);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /* Writes the payload at position I to INDICES if there is room after the COUNT
+       already found, and returns the new count. */
+    private int collect(int i, int[] indices, int count) {
+        if (count < indices.length) {
+            indices[count] = payload[i];
+        }
+        return count + 1;
+    }
+
+    /* Returns the squared Euclidean distance between the point at position I and
+       (X, Y). */
+    private double distance(int i, double x, double y) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        return dx * dx + dy * dy;
+    }
+}
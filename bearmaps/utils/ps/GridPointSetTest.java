@@ -0,0 +1,107 @@
+package bearmaps.utils.ps;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GridPointSetTest {
+
+    @Test
+    public void emptyTest() {
+        GridPointSet grid = new GridPointSet(new double[0], new double[0]);
+        assertEquals(0, grid.size());
+        assertNull(grid.nearest(1, 2));
+        assertEquals(-1, grid.nearestIndex(1, 2));
+        assertEquals(0, grid.nearest(1, 2, 3, new int[3], new double[3]));
+    }
+
+    @Test
+    public void singlePointTest() {
+        GridPointSet grid = new GridPointSet(new double[]{3}, new double[]{4}, new int[]{9});
+        assertEquals(9, grid.nearestIndex(-100, 250));
+        assertEquals(3, grid.nearest(0, 0).getX(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badCellSizeTest() {
+        new GridPointSet(new double[]{0, 1}, new double[]{0, 1}, new int[2], 0);
+    }
+
+    /* Uniform points, clustered points and points on a coarse lattice, queried inside
+       and outside their bounding box, against the naive set. */
+    @Test
+    public void randomTest() {
+        Random random = new Random(31);
+        for (int shape = 0; shape < 3; shape++) {
+            for (double cellScale : new double[]{0.3, 1, 5}) {
+                int n = 4000;
+                double[] xs = new double[n];
+                double[] ys = new double[n];
+                List<Point> l = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    if (shape == 0) {
+                        xs[i] = random.nextDouble() * 100;
+                        ys[i] = random.nextDouble() * 100;
+                    } else if (shape == 1) {
+                        int cluster = random.nextInt(5);
+                        xs[i] = cluster * 20 + random.nextGaussian();
+                        ys[i] = cluster * 15 + random.nextGaussian();
+                    } else {
+                        xs[i] = random.nextInt(40);
+                        ys[i] = random.nextInt(40);
+                    }
+                    l.add(new Point(xs[i], ys[i]));
+                }
+                double cellSize = GridPointSet.defaultCellSize(xs, ys) * cellScale;
+                GridPointSet grid = new GridPointSet(xs, ys, KDTree.identity(n), cellSize);
+                NaivePointSet nn = new NaivePointSet(l);
+                compare(random, nn, grid);
+            }
+        }
+    }
+
+    private static void compare(Random random, NaivePointSet nn, GridPointSet grid) {
+        int n = grid.size();
+        int[] expected = new int[n];
+        double[] expectedDistances = new double[n];
+        int[] actual = new int[n];
+        double[] actualDistances = new double[n];
+        for (int q = 0; q < 200; q++) {
+            double x = random.nextInt(140) - 20 + (q % 2 == 0 ? 0.5 : random.nextDouble());
+            double y = random.nextInt(140) - 20;
+
+            assertEquals(nn.nearestIndex(x, y), grid.nearestIndex(x, y));
+            assertEquals(nn.nearestIndex(x, y, p -> p % 7 == 3),
+                    grid.nearestIndex(x, y, p -> p % 7 == 3));
+
+            int k = random.nextInt(30);
+            assertEquals(k, nn.nearest(x, y, k, expected, expectedDistances));
+            assertEquals(k, grid.nearest(x, y, k, actual, actualDistances));
+            assertArrayEquals(Arrays.copyOf(expected, k), Arrays.copyOf(actual, k));
+            assertArrayEquals(Arrays.copyOf(expectedDistances, k),
+                    Arrays.copyOf(actualDistances, k), 0);
+
+            double radius = random.nextInt(8);
+            int count = nn.withinRadius(x, y, radius, expected);
+            assertEquals(count, grid.withinRadius(x, y, radius, actual));
+            assertArrayEquals(sorted(expected, count), sorted(actual, count));
+
+            count = nn.inRange(x, y, x + radius, y + 2 * radius, expected);
+            assertEquals(count, grid.inRange(x, y, x + radius, y + 2 * radius, actual));
+            assertArrayEquals(sorted(expected, count), sorted(actual, count));
+        }
+    }
+
+    private static int[] sorted(int[] a, int n) {
+        int[] copy = Arrays.copyOf(a, n);
+        Arrays.sort(copy);
+        return copy;
+    }
+}
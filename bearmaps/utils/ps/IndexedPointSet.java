@@ -0,0 +1,55 @@
+package bearmaps.utils.ps;
+
+import java.util.function.IntPredicate;
+
+/**
+ * A point set whose points carry int payloads, typically indices into arrays owned
+ * by the caller, so queries need not create or return any objects. Queries that find
+ * several points write their payloads into buffers supplied by the caller.
+ */
+public interface IndexedPointSet extends PointSet {
+
+    /**
+     * Returns the payload of the point closest to (X, Y), or -1 if the set is empty.
+     * Of several points at the same distance, the one with the smallest payload wins.
+     */
+    int nearestIndex(double x, double y);
+
+    /**
+     * Returns the payload of the point closest to (X, Y) among those whose payload
+     * ACCEPT accepts, or -1 if there is none. Ties are broken as by
+     * {@link #nearestIndex(double, double)}.
+     */
+    int nearestIndex(double x, double y, IntPredicate accept);
+
+    /**
+     * Finds the K points closest to (X, Y) and writes their payloads to INDICES and
+     * their squared distances to DISTANCES, nearest first, breaking ties as
+     * {@link #nearestIndex} does.
+     *
+     * @return The number of points found, which is K unless the set is smaller.
+     * @throws IllegalArgumentException if K is negative or either buffer is shorter.
+     */
+    int nearest(double x, double y, int k, int[] indices, double[] distances);
+
+    /**
+     * Finds the points no farther than RADIUS from (X, Y) and writes as many of their
+     * payloads as fit to INDICES, in no particular order.
+     *
+     * @return The number of points found, which may exceed the length of INDICES.
+     */
+    int withinRadius(double x, double y, double radius, int[] indices);
+
+    /**
+     * Finds the points in the box [XMIN, XMAX] x [YMIN, YMAX], edges included, and
+     * writes as many of their payloads as fit to INDICES, in no particular order.
+     *
+     * @return The number of points found, which may exceed the length of INDICES.
+     */
+    int inRange(double xmin, double ymin, double xmax, double ymax, int[] indices);
+
+    /**
+     * Returns the number of points in the set.
+     */
+    int size();
+}
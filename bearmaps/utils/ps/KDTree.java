@@ -1,120 +1,536 @@
 package bearmaps.utils.ps;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
 
-public class KDTree implements PointSet {
+/**
+ * A balanced 2-d tree, bulk loaded from all of its points at once.
+ * <p>
+ * The tree lives in three parallel arrays instead of node objects. The subtree over
+ * positions [lo, hi) has its root at the middle position m = (lo + hi) / 2, its left
+ * subtree over [lo, m) and its right subtree over [m + 1, hi). Subtrees at even depth
+ * split on x and those at odd depth on y, and the build puts the median of each range
+ * along its split coordinate at the middle by quickselect, so the depth is about
+ * log2(n) whatever order the points come in. The two halves of a large range are
+ * built in parallel.
+ * <p>
+ * Every point carries an int payload, its index in the list or arrays it was built
+ * from unless given explicitly. Queries keep their best point as a position on the
+ * stack, so they allocate nothing and may run concurrently.
+ * <p>
+ * Points may also carry int flags. Each position then stores the OR of the flags in
+ * the subtree rooted there, so a search restricted to points with certain flags skips
+ * whole subtrees without any, and {@link #view} presents those points as a point set
+ * of their own.
+ */
+public class KDTree implements IndexedPointSet {
 
-    private KDTreeNode root;
+    /**
+     * Ranges smaller than this are built on the current thread.
+     */
+    private static final int SEQUENTIAL_BUILD_SIZE = 1 << 13;
+    /* The mask internal searches use to consider every point, flagged or not. No
+       public search accepts it, since no flags share a bit with it. */
+    private static final int ANY = 0;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] payload;
+    /* Per-point flags and per-subtree ORs of them, or null if the tree has no flags. */
+    private final int[] flags;
+    private final int[] summaries;
+    /* The points the tree was built from, if it was built from a list. */
+    private final List<Point> points;
 
     public KDTree(List<Point> points) {
-        for (Point p : points) {
-            root = insert(root, p, true);
+        int n = points.size();
+        xs = new double[n];
+        ys = new double[n];
+        payload = new int[n];
+        for (int i = 0; i < n; i++) {
+            Point p = points.get(i);
+            xs[i] = p.getX();
+            ys[i] = p.getY();
+            payload[i] = i;
+        }
+        this.points = points;
+        this.flags = null;
+        this.summaries = null;
+        build();
+    }
+
+    /**
+     * Builds a tree over the points (XS[i], YS[i]), with payload i.
+     */
+    public KDTree(double[] xs, double[] ys) {
+        this(xs, ys, identity(xs.length));
+    }
+
+    /**
+     * Builds a tree over the points (XS[i], YS[i]), with payload PAYLOAD[i]. The arrays
+     * are copied, so the caller may reuse them.
+     */
+    public KDTree(double[] xs, double[] ys, int[] payload) {
+        this(xs, ys, payload, null);
+    }
+
+    /**
+     * Builds a tree over the points (XS[i], YS[i]), with payload PAYLOAD[i] and flags
+     * FLAGS[i], for searches restricted to points with certain flags. The arrays are
+     * copied, so the caller may reuse them.
+     */
+    public KDTree(double[] xs, double[] ys, int[] payload, int[] flags) {
+        if (xs.length != ys.length || xs.length != payload.length
+                || (flags != null && xs.length != flags.length)) {
+            throw new IllegalArgumentException("Coordinate and payload arrays differ in length");
+        }
+        this.xs = xs.clone();
+        this.ys = ys.clone();
+        this.payload = payload.clone();
+        this.flags = flags == null ? null : flags.clone();
+        this.summaries = flags == null ? null : new int[xs.length];
+        this.points = null;
+        build();
+        if (summaries != null) {
+            summarize(0, xs.length);
         }
     }
 
-    private KDTreeNode insert(KDTreeNode node, Point point, boolean layer) {
-        KDTreeNode insertion = new KDTreeNode(point, null, null, false);
+    static int[] identity(int n) {
+        int[] ints = new int[n];
+        for (int i = 0; i < n; i++) {
+            ints[i] = i;
+        }
+        return ints;
+    }
+
+    private void build() {
+        if (xs.length < SEQUENTIAL_BUILD_SIZE) {
+            build(0, xs.length, true);
+        } else {
+            ForkJoinPool.commonPool().invoke(new BuildTask(0, xs.length, true));
+        }
+    }
+
+    /* Builds the subtree over [LO, HI), splitting on x if SPLITX. */
+    private void build(int lo, int hi, boolean splitX) {
+        while (hi - lo > 1) {
+            int m = (lo + hi) >>> 1;
+            select(lo, hi - 1, m, splitX);
+            build(lo, m, !splitX);
+            lo = m + 1;
+            splitX = !splitX;
+        }
+    }
+
+    /**
+     * Builds the two halves of a large range as separate tasks.
+     */
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final boolean splitX;
+
+        BuildTask(int lo, int hi, boolean splitX) {
+            this.lo = lo;
+            this.hi = hi;
+            this.splitX = splitX;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < SEQUENTIAL_BUILD_SIZE) {
+                build(lo, hi, splitX);
+                return;
+            }
+            int m = (lo + hi) >>> 1;
+            select(lo, hi - 1, m, splitX);
+            invokeAll(new BuildTask(lo, m, !splitX), new BuildTask(m + 1, hi, !splitX));
+        }
+    }
 
-        if (node == null) {
-            return new KDTreeNode(point, null, null, layer);
-        } else if (insertion.compareTo(node) < 0) {
-            node.left = insert(node.left, point, !layer);
-        } else if (insertion.compareTo(node) == 0) {
-            if (node.left == null && node.right != null) {
-                node.left = new KDTreeNode(point, null, null, !layer);
-            } else if (node.left != null && node.right == null) {
-                node.right = new KDTreeNode(point, null, null, !layer);
+    /* Rearranges positions [LO, HI] so that position K holds the point that would be
+       there if the range were sorted by x (if BYX) or y, with no greater point before
+       it and no smaller one after it. */
+    private void select(int lo, int hi, int k, boolean byX) {
+        double[] keys = byX ? xs : ys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < keys[lo]) {
+                swap(lo, mid);
+            }
+            if (keys[hi] < keys[lo]) {
+                swap(lo, hi);
+            }
+            if (keys[hi] < keys[mid]) {
+                swap(mid, hi);
+            }
+            double pivot = keys[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
             } else {
-                return null;
+                return;
             }
-        } else {
-            node.right = insert(node.right, point, !layer);
         }
-        return node;
+    }
+
+    /* Stores the OR of the flags in the subtree over [LO, HI) at its root, and returns
+       it. */
+    private int summarize(int lo, int hi) {
+        if (lo >= hi) {
+            return 0;
+        }
+        int m = (lo + hi) >>> 1;
+        int summary = flags[m] | summarize(lo, m) | summarize(m + 1, hi);
+        summaries[m] = summary;
+        return summary;
+    }
+
+    private void swap(int i, int j) {
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+        int p = payload[i];
+        payload[i] = payload[j];
+        payload[j] = p;
+        if (flags != null) {
+            int f = flags[i];
+            flags[i] = flags[j];
+            flags[j] = f;
+        }
+    }
+
+    /**
+     * Returns the number of points in the tree.
+     */
+    @Override
+    public int size() {
+        return xs.length;
     }
 
     @Override
     public Point nearest(double x, double y) {
-        return nearestHelper(root, new Point(x, y), null, Double.MAX_VALUE);
+        return pointAt(nearest(0, xs.length, true, x, y, ANY, null, -1));
     }
 
-    public Point nearestHelper(KDTreeNode node, Point point, Point closest, double minDistance) {
-        if (node == null) {
-            return closest;
+    @Override
+    public int nearestIndex(double x, double y) {
+        return payloadAt(nearest(0, xs.length, true, x, y, ANY, null, -1));
+    }
+
+    /**
+     * Returns the payload of the point closest to (X, Y) among those whose flags share
+     * a bit with MASK, or -1 if there is none. Ties are broken as by
+     * {@link #nearestIndex(double, double)}.
+     */
+    public int nearestIndex(double x, double y, int mask) {
+        if (mask == ANY) {
+            return -1;
         }
+        return payloadAt(nearest(0, xs.length, true, x, y, mask, null, -1));
+    }
+
+    /**
+     * Returns the payload of the point closest to (X, Y) among those whose payload
+     * ACCEPT accepts, or -1 if there is none. Only distance prunes this search, so a
+     * predicate that rejects most points nearby makes it slow; prefer flags for
+     * properties known when the tree is built.
+     */
+    @Override
+    public int nearestIndex(double x, double y, IntPredicate accept) {
+        return payloadAt(nearest(0, xs.length, true, x, y, ANY, accept, -1));
+    }
+
+    /**
+     * Returns the points whose flags share a bit with MASK as a point set backed by
+     * this tree.
+     *
+     * @throws IllegalArgumentException if MASK is 0.
+     */
+    public IndexedPointSet view(int mask) {
+        if (mask == ANY) {
+            throw new IllegalArgumentException("A view needs a non-zero mask");
+        }
+        return new View(mask);
+    }
 
-        double distance = Point.distance(point, node.point);
-        KDTreeNode pointNode = new KDTreeNode(point, null, null, false);
+    /**
+     * The points of the tree with one of the flags in a mask.
+     */
+    private class View implements IndexedPointSet {
+        private final int mask;
+        private final int size;
 
-        if (node == null) {
-            return closest;
+        View(int mask) {
+            this.mask = mask;
+            int count = 0;
+            for (int i = 0; i < xs.length; i++) {
+                if (matches(i, mask)) {
+                    count++;
+                }
+            }
+            this.size = count;
         }
 
-        if (distance < minDistance) {
-            minDistance = distance;
-            closest = node.point;
+        @Override
+        public Point nearest(double x, double y) {
+            return pointAt(KDTree.this.nearest(0, xs.length, true, x, y, mask, null, -1));
         }
 
-        if (pointNode.compareTo(node) < 0) {
-            closest = nearestHelper(node.left, point, closest, minDistance);
-        } else {
-            closest = nearestHelper(node.right, point, closest, minDistance);
+        @Override
+        public int nearestIndex(double x, double y) {
+            return payloadAt(KDTree.this.nearest(0, xs.length, true, x, y, mask, null, -1));
         }
 
-        distance = Point.distance(closest, point);
+        @Override
+        public int nearestIndex(double x, double y, IntPredicate accept) {
+            return payloadAt(KDTree.this.nearest(0, xs.length, true, x, y, mask, accept, -1));
+        }
 
+        @Override
+        public int nearest(double x, double y, int k, int[] indices, double[] distances) {
+            return KDTree.this.nearest(x, y, k, mask, indices, distances);
+        }
 
-        //New recursion for next best if there exists (Explore the bad side)
+        @Override
+        public int withinRadius(double x, double y, double radius, int[] indices) {
+            return KDTree.this.withinRadius(x, y, radius, mask, indices);
+        }
 
-        double distanceToEdge;
+        @Override
+        public int inRange(double xmin, double ymin, double xmax, double ymax, int[] indices) {
+            return KDTree.this.inRange(0, xs.length, true, xmin, ymin, xmax, ymax, mask,
+                    indices, 0);
+        }
 
-        //Edge point denotes if there can be an even closer distance
-        Point edge;
-        if (node.layer) {
-            edge = new Point(node.point.getX(), pointNode.point.getY());
-        } else {
-            edge = new Point(pointNode.point.getX(), node.point.getY());
+        @Override
+        public int size() {
+            return size;
         }
-        distanceToEdge = Point.distance(edge, pointNode.point);
+    }
 
-        //If distance to edge is shorter than our minDistance, then let's explore the "bad" side
-        if (distanceToEdge < distance) {
-            if (pointNode.compareTo(node) < 0) {
-                closest = nearestHelper(node.right, point, closest, distance);
-            } else {
-                closest = nearestHelper(node.left, point, closest, distance);
-            }
+    private Point pointAt(int i) {
+        if (i < 0) {
+            return null;
         }
+        return points != null ? points.get(payload[i]) : new Point(xs[i], ys[i]);
+    }
 
-        return closest;
+    private int payloadAt(int i) {
+        return i < 0 ? -1 : payload[i];
     }
 
     /**
-     * if layer is true, it is x layer, false, then it is y layer
-     *
-     * @param
+     * Returns the position of the point in the subtree over [LO, HI) that matches MASK
+     * and is accepted by ACCEPT, if not null, and is closest to (X, Y), or BEST if none
+     * is closer than the point at position BEST. The far side of a split is only
+     * searched if the split line is no farther than the best point, since a point
+     * there could tie with it and have a smaller payload.
      */
-    private class KDTreeNode implements Comparable<KDTreeNode> {
+    private int nearest(int lo, int hi, boolean splitX, double x, double y,
+                        int mask, IntPredicate accept, int best) {
+        if (lo >= hi) {
+            return best;
+        }
+        int m = (lo + hi) >>> 1;
+        if (!subtreeMatches(m, mask)) {
+            return best;
+        }
+        if (matches(m, mask) && (best < 0 || closer(m, best, x, y))
+                && (accept == null || accept.test(payload[m]))) {
+            best = m;
+        }
+        double diff = splitX ? x - xs[m] : y - ys[m];
+        if (diff < 0) {
+            best = nearest(lo, m, !splitX, x, y, mask, accept, best);
+            if (best < 0 || diff * diff <= distance(best, x, y)) {
+                best = nearest(m + 1, hi, !splitX, x, y, mask, accept, best);
+            }
+        } else {
+            best = nearest(m + 1, hi, !splitX, x, y, mask, accept, best);
+            if (best < 0 || diff * diff <= distance(best, x, y)) {
+                best = nearest(lo, m, !splitX, x, y, mask, accept, best);
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public int nearest(double x, double y, int k, int[] indices, double[] distances) {
+        return nearest(x, y, k, ANY, indices, distances);
+    }
+
+    private int nearest(double x, double y, int k, int mask, int[] indices, double[] distances) {
+        NearestHeap.checkCapacity(k, indices, distances);
+        int size = nearest(0, xs.length, true, x, y, k, mask, indices, distances, 0);
+        NearestHeap.sort(indices, distances, size);
+        return size;
+    }
+
+    /* Offers the points of the subtree over [LO, HI) that match MASK to the heap of
+       the SIZE nearest points found so far, and returns its new size. */
+    private int nearest(int lo, int hi, boolean splitX, double x, double y,
+                        int k, int mask, int[] indices, double[] distances, int size) {
+        if (lo >= hi) {
+            return size;
+        }
+        int m = (lo + hi) >>> 1;
+        if (!subtreeMatches(m, mask)) {
+            return size;
+        }
+        if (matches(m, mask)) {
+            size = NearestHeap.offer(indices, distances, size, k, payload[m], distance(m, x, y));
+        }
+        double diff = splitX ? x - xs[m] : y - ys[m];
+        if (diff < 0) {
+            size = nearest(lo, m, !splitX, x, y, k, mask, indices, distances, size);
+            if (!NearestHeap.isFullWithin(distances, size, k, diff * diff)) {
+                size = nearest(m + 1, hi, !splitX, x, y, k, mask, indices, distances, size);
+            }
+        } else {
+            size = nearest(m + 1, hi, !splitX, x, y, k, mask, indices, distances, size);
+            if (!NearestHeap.isFullWithin(distances, size, k, diff * diff)) {
+                size = nearest(lo, m, !splitX, x, y, k, mask, indices, distances, size);
+            }
+        }
+        return size;
+    }
 
-        private Point point;
-        private KDTreeNode left;
-        private KDTreeNode right;
-        private boolean layer;
+    @Override
+    public int withinRadius(double x, double y, double radius, int[] indices) {
+        return withinRadius(x, y, radius, ANY, indices);
+    }
 
-        public KDTreeNode(Point point, KDTreeNode left, KDTreeNode right, boolean layer) {
-            this.point = point;
-            this.left = left;
-            this.right = right;
-            this.layer = layer;
+    private int withinRadius(double x, double y, double radius, int mask, int[] indices) {
+        if (!(radius >= 0)) {
+            return 0;
         }
+        return withinRadius(0, xs.length, true, x, y, radius * radius, mask, indices, 0);
+    }
 
-        @Override
-        public int compareTo(KDTreeNode node) {
-            if (node.layer) {
-                return Double.compare(this.point.getX(), node.point.getX());
+    /* Adds the points of the subtree over [LO, HI) that match MASK and are within
+       squared distance R2 of (X, Y) to the COUNT found so far, and returns the new
+       count. */
+    private int withinRadius(int lo, int hi, boolean splitX, double x, double y,
+                             double r2, int mask, int[] indices, int count) {
+        while (lo < hi) {
+            int m = (lo + hi) >>> 1;
+            if (!subtreeMatches(m, mask)) {
+                break;
+            }
+            if (matches(m, mask) && distance(m, x, y) <= r2) {
+                count = collect(m, indices, count);
+            }
+            double diff = splitX ? x - xs[m] : y - ys[m];
+            if (diff * diff <= r2) {
+                count = withinRadius(lo, m, !splitX, x, y, r2, mask, indices, count);
+                lo = m + 1;
+            } else if (diff < 0) {
+                hi = m;
             } else {
-                return Double.compare(this.point.getY(), node.point.getY());
+                lo = m + 1;
             }
+            splitX = !splitX;
         }
+        return count;
+    }
+
+    @Override
+    public int inRange(double xmin, double ymin, double xmax, double ymax, int[] indices) {
+        return inRange(0, xs.length, true, xmin, ymin, xmax, ymax, ANY, indices, 0);
+    }
+
+    /* Adds the points of the subtree over [LO, HI) that match MASK and lie inside the
+       box to the COUNT found so far, and returns the new count. Points equal to the
+       split coordinate can lie on either side, so both sides are searched when the box
+       touches it. */
+    private int inRange(int lo, int hi, boolean splitX, double xmin, double ymin,
+                        double xmax, double ymax, int mask, int[] indices, int count) {
+        while (lo < hi) {
+            int m = (lo + hi) >>> 1;
+            if (!subtreeMatches(m, mask)) {
+                break;
+            }
+            double px = xs[m];
+            double py = ys[m];
+            if (matches(m, mask) && px >= xmin && px <= xmax && py >= ymin && py <= ymax) {
+                count = collect(m, indices, count);
+            }
+            double split = splitX ? px : py;
+            boolean left = (splitX ? xmin : ymin) <= split;
+            boolean right = (splitX ? xmax : ymax) >= split;
+            if (left && right) {
+                count = inRange(lo, m, !splitX, xmin, ymin, xmax, ymax, mask, indices, count);
+                lo = m + 1;
+            } else if (left) {
+                hi = m;
+            } else if (right) {
+                lo = m + 1;
+            } else {
+                break;
+            }
+            splitX = !splitX;
+        }
+        return count;
+    }
+
+    /* Writes the payload at position I to INDICES if there is room after the COUNT
+       already found, and returns the new count. */
+    private int collect(int i, int[] indices, int count) {
+        if (count < indices.length) {
+            indices[count] = payload[i];
+        }
+        return count + 1;
+    }
+
+    /* Returns true if the point at position I matches MASK, that is MASK is ANY or
+       shares a bit with its flags. */
+    private boolean matches(int i, int mask) {
+        return mask == ANY || (flags != null && (flags[i] & mask) != 0);
+    }
+
+    /* Returns true if some point in the subtree rooted at position M matches MASK. */
+    private boolean subtreeMatches(int m, int mask) {
+        return mask == ANY || (summaries != null && (summaries[m] & mask) != 0);
+    }
+
+    /* Returns true if the point at position I is closer to (X, Y) than the one at
+       position J, or as close with a smaller payload. */
+    private boolean closer(int i, int j, double x, double y) {
+        double di = distance(i, x, y);
+        double dj = distance(j, x, y);
+        return di < dj || (di == dj && payload[i] < payload[j]);
+    }
+
+    /* Returns the squared Euclidean distance between the point at position I and
+       (X, Y). */
+    private double distance(int i, double x, double y) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        return dx * dx + dy * dy;
     }
 }
@@ -3,9 +3,14 @@ package bearmaps.utils.ps;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class KDTreeTest {
@@ -120,4 +125,263 @@ public class KDTreeTest {
         assertTrue(ret.getX() == kdret.getX());
         assertTrue(ret.getY() == kdret.getY());
     }
+
+    @Test
+    public void emptyTest() {
+        KDTree kdtree = new KDTree(new ArrayList<>());
+        assertEquals(0, kdtree.size());
+        assertNull(kdtree.nearest(1, 2));
+    }
+
+    /* Many points share coordinates, and ties go to the point that comes first in the
+       list, as with the naive set. */
+    @Test
+    public void duplicateTest() {
+        Random random = new Random(11);
+        List<Point> l = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            l.add(new Point(random.nextInt(10), random.nextInt(10)));
+        }
+
+        NaivePointSet nn = new NaivePointSet(l);
+        KDTree kdtree = new KDTree(l);
+        for (int i = 0; i < 1000; i++) {
+            double x = 12 * random.nextDouble() - 1;
+            double y = 12 * random.nextDouble() - 1;
+            if (i % 4 == 0) {
+                x = Math.round(x) + 0.5;
+                y = Math.round(y);
+            }
+            assertEquals(nn.nearestIndex(x, y), kdtree.nearestIndex(x, y));
+            assertTrue(nn.nearest(x, y) == kdtree.nearest(x, y));
+        }
+    }
+
+    @Test
+    public void nearestIndexTest() {
+        double[] xs = {0, 5, 5, -3};
+        double[] ys = {0, 5, 5, 1};
+        int[] payload = {40, 12, 7, 3};
+        KDTree kdtree = new KDTree(xs, ys, payload);
+        assertEquals(4, kdtree.size());
+        assertEquals(40, kdtree.nearestIndex(0.5, -1));
+        assertEquals(7, kdtree.nearestIndex(6, 6));
+        assertEquals(3, kdtree.nearestIndex(-10, 0));
+        assertEquals(-1, new KDTree(new double[0], new double[0]).nearestIndex(0, 0));
+    }
+
+    /* Large enough for the build to be split into parallel tasks. */
+    @Test
+    public void largeTest() {
+        Random random = new Random(29);
+        int n = 50000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        List<Point> l = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextGaussian();
+            ys[i] = random.nextGaussian();
+            l.add(new Point(xs[i], ys[i]));
+        }
+
+        NaivePointSet nn = new NaivePointSet(l);
+        KDTree fromList = new KDTree(l);
+        KDTree fromArrays = new KDTree(xs, ys);
+        for (int i = 0; i < 500; i++) {
+            double x = 6 * random.nextDouble() - 3;
+            double y = 6 * random.nextDouble() - 3;
+            Point ret = nn.nearest(x, y);
+            assertTrue(ret == fromList.nearest(x, y));
+            Point arrayRet = fromArrays.nearest(x, y);
+            assertTrue(ret.getX() == arrayRet.getX());
+            assertTrue(ret.getY() == arrayRet.getY());
+        }
+    }
+
+    /* Points on a coarse lattice, so that many are equally far from a query and many
+       lie on the edges of a box or circle. */
+    private static List<Point> latticePoints(Random random, int n) {
+        List<Point> l = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            l.add(new Point(random.nextInt(40), random.nextInt(40)));
+        }
+        return l;
+    }
+
+    @Test
+    public void kNearestTest() {
+        Random random = new Random(5);
+        List<Point> l = latticePoints(random, 3000);
+        NaivePointSet nn = new NaivePointSet(l);
+        KDTree kdtree = new KDTree(l);
+
+        int[] expected = new int[50];
+        double[] expectedDistances = new double[50];
+        int[] actual = new int[50];
+        double[] actualDistances = new double[50];
+        for (int i = 0; i < 300; i++) {
+            double x = 44 * random.nextDouble() - 2;
+            double y = random.nextInt(40);
+            int k = random.nextInt(50);
+            assertEquals(k, nn.nearest(x, y, k, expected, expectedDistances));
+            assertEquals(k, kdtree.nearest(x, y, k, actual, actualDistances));
+            assertArrayEquals(Arrays.copyOf(expected, k), Arrays.copyOf(actual, k));
+            assertArrayEquals(Arrays.copyOf(expectedDistances, k),
+                    Arrays.copyOf(actualDistances, k), 0);
+        }
+
+        KDTree small = new KDTree(l.subList(0, 3));
+        assertEquals(3, small.nearest(0, 0, 10, actual, actualDistances));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void kNearestBufferTest() {
+        new KDTree(List.of(new Point(1, 1))).nearest(0, 0, 3, new int[2], new double[3]);
+    }
+
+    @Test
+    public void withinRadiusTest() {
+        Random random = new Random(7);
+        List<Point> l = latticePoints(random, 3000);
+        NaivePointSet nn = new NaivePointSet(l);
+        KDTree kdtree = new KDTree(l);
+
+        int[] expected = new int[l.size()];
+        int[] actual = new int[l.size()];
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextInt(44) - 2;
+            double y = random.nextInt(44) - 2;
+            double radius = random.nextInt(8);
+            int count = nn.withinRadius(x, y, radius, expected);
+            assertEquals(count, kdtree.withinRadius(x, y, radius, actual));
+            assertArrayEquals(sorted(expected, count), sorted(actual, count));
+        }
+
+        int total = kdtree.withinRadius(20, 20, 10, actual);
+        assertEquals(total, kdtree.withinRadius(20, 20, 10, new int[3]));
+        assertEquals(0, kdtree.withinRadius(20, 20, -1, actual));
+    }
+
+    @Test
+    public void inRangeTest() {
+        Random random = new Random(13);
+        List<Point> l = latticePoints(random, 3000);
+        NaivePointSet nn = new NaivePointSet(l);
+        KDTree kdtree = new KDTree(l);
+
+        int[] expected = new int[l.size()];
+        int[] actual = new int[l.size()];
+        for (int i = 0; i < 300; i++) {
+            double xmin = random.nextInt(44) - 2;
+            double ymin = random.nextInt(44) - 2;
+            double xmax = xmin + random.nextInt(10);
+            double ymax = ymin + random.nextInt(10);
+            int count = nn.inRange(xmin, ymin, xmax, ymax, expected);
+            assertEquals(count, kdtree.inRange(xmin, ymin, xmax, ymax, actual));
+            assertArrayEquals(sorted(expected, count), sorted(actual, count));
+        }
+        assertEquals(0, kdtree.inRange(5, 5, 4, 6, actual));
+    }
+
+    @Test
+    public void flagsTest() {
+        Random random = new Random(17);
+        int n = 3000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int[] payload = new int[n];
+        int[] flags = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextInt(40);
+            ys[i] = random.nextInt(40);
+            payload[i] = i;
+            /* Flag 4 is rare and clustered in one corner, so most subtrees lack it. */
+            flags[i] = random.nextInt(4) | (xs[i] < 5 && ys[i] < 5 && random.nextInt(5) == 0 ? 4 : 0);
+        }
+        KDTree kdtree = new KDTree(xs, ys, payload, flags);
+
+        for (int mask = 1; mask < 8; mask++) {
+            List<Point> subset = new ArrayList<>();
+            int[] subsetPayload = new int[n];
+            for (int i = 0; i < n; i++) {
+                if ((flags[i] & mask) != 0) {
+                    subsetPayload[subset.size()] = i;
+                    subset.add(new Point(xs[i], ys[i]));
+                }
+            }
+            NaivePointSet nn = new NaivePointSet(subset);
+            IndexedPointSet view = kdtree.view(mask);
+            assertEquals(subset.size(), view.size());
+
+            int[] expected = new int[n];
+            double[] expectedDistances = new double[n];
+            int[] actual = new int[n];
+            double[] actualDistances = new double[n];
+            for (int i = 0; i < 50; i++) {
+                double x = 44 * random.nextDouble() - 2;
+                double y = random.nextInt(44) - 2;
+                int nearest = nn.nearestIndex(x, y);
+                assertEquals(subsetPayload[nearest], kdtree.nearestIndex(x, y, mask));
+                assertEquals(subsetPayload[nearest], view.nearestIndex(x, y));
+
+                int k = random.nextInt(20);
+                int found = nn.nearest(x, y, k, expected, expectedDistances);
+                assertEquals(found, view.nearest(x, y, k, actual, actualDistances));
+                for (int j = 0; j < found; j++) {
+                    assertEquals(subsetPayload[expected[j]], actual[j]);
+                }
+
+                double radius = random.nextInt(6);
+                found = nn.withinRadius(x, y, radius, expected);
+                assertEquals(found, view.withinRadius(x, y, radius, actual));
+                for (int j = 0; j < found; j++) {
+                    expected[j] = subsetPayload[expected[j]];
+                }
+                assertArrayEquals(sorted(expected, found), sorted(actual, found));
+
+                found = nn.inRange(x, y, x + radius, y + radius, expected);
+                assertEquals(found, view.inRange(x, y, x + radius, y + radius, actual));
+                for (int j = 0; j < found; j++) {
+                    expected[j] = subsetPayload[expected[j]];
+                }
+                assertArrayEquals(sorted(expected, found), sorted(actual, found));
+            }
+        }
+
+        assertEquals(-1, kdtree.nearestIndex(0, 0, 8));
+        assertEquals(-1, new KDTree(xs, ys).nearestIndex(0, 0, 1));
+    }
+
+    @Test
+    public void predicateTest() {
+        Random random = new Random(19);
+        List<Point> l = latticePoints(random, 3000);
+        NaivePointSet nn = new NaivePointSet(l);
+        KDTree kdtree = new KDTree(l);
+        for (int i = 0; i < 300; i++) {
+            double x = 44 * random.nextDouble() - 2;
+            double y = 44 * random.nextDouble() - 2;
+            int modulus = 1 + random.nextInt(10);
+            assertEquals(nn.nearestIndex(x, y, p -> p % modulus == 0),
+                    kdtree.nearestIndex(x, y, p -> p % modulus == 0));
+        }
+        assertEquals(-1, kdtree.nearestIndex(0, 0, p -> false));
+        assertFalse(kdtree.nearestIndex(0, 0, p -> true) < 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyViewTest() {
+        new KDTree(new double[1], new double[1], new int[1], new int[1]).view(0);
+    }
+
+    private static int[] sorted(int[] a, int n) {
+        int[] copy = Arrays.copyOf(a, n);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedArraysTest() {
+        new KDTree(new double[3], new double[3], new int[2]);
+    }
 }
@@ -1,8 +1,9 @@
 package bearmaps.utils.ps;
 
 import java.util.List;
+import java.util.function.IntPredicate;
 
-public class NaivePointSet implements PointSet {
+public class NaivePointSet implements IndexedPointSet {
 
     private List<Point> points;
 
@@ -36,4 +37,77 @@ public class NaivePointSet implements PointSet {
         }
         return nearestPoint;
     }
+
+    /**
+     * Returns the index in the list of the first point closest to (X, Y), or -1 if
+     * the list is empty.
+     */
+    @Override
+    public int nearestIndex(double x, double y) {
+        return nearestIndex(x, y, i -> true);
+    }
+
+    @Override
+    public int nearestIndex(double x, double y, IntPredicate accept) {
+        Point currPoint = new Point(x, y);
+        int nearestIndex = -1;
+        double distance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < points.size(); i++) {
+            double currDistance = Point.distance(currPoint, points.get(i));
+            if (currDistance < distance && accept.test(i)) {
+                distance = currDistance;
+                nearestIndex = i;
+            }
+        }
+        return nearestIndex;
+    }
+
+    @Override
+    public int nearest(double x, double y, int k, int[] indices, double[] distances) {
+        NearestHeap.checkCapacity(k, indices, distances);
+        Point currPoint = new Point(x, y);
+        int size = 0;
+        for (int i = 0; i < points.size(); i++) {
+            size = NearestHeap.offer(indices, distances, size, k, i,
+                    Point.distance(currPoint, points.get(i)));
+        }
+        NearestHeap.sort(indices, distances, size);
+        return size;
+    }
+
+    @Override
+    public int withinRadius(double x, double y, double radius, int[] indices) {
+        Point currPoint = new Point(x, y);
+        double r2 = radius * radius;
+        int count = 0;
+        for (int i = 0; i < points.size(); i++) {
+            if (radius >= 0 && Point.distance(currPoint, points.get(i)) <= r2) {
+                if (count < indices.length) {
+                    indices[count] = i;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int inRange(double xmin, double ymin, double xmax, double ymax, int[] indices) {
+        int count = 0;
+        for (int i = 0; i < points.size(); i++) {
+            Point p = points.get(i);
+            if (p.getX() >= xmin && p.getX() <= xmax && p.getY() >= ymin && p.getY() <= ymax) {
+                if (count < indices.length) {
+                    indices[count] = i;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int size() {
+        return points.size();
+    }
 }
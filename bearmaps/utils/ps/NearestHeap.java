@@ -0,0 +1,99 @@
+package bearmaps.utils.ps;
+
+/**
+ * Operations on a bounded max-heap of (payload, squared distance) pairs kept in two
+ * caller-supplied arrays, used to collect the k nearest points without allocating.
+ * The root is the worst pair held: the farthest, and of equally far pairs the one
+ * with the largest payload.
+ */
+final class NearestHeap {
+
+    private NearestHeap() {
+    }
+
+    /**
+     * Checks that K nearest points fit in INDICES and DISTANCES.
+     */
+    static void checkCapacity(int k, int[] indices, double[] distances) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be non-negative: " + k);
+        }
+        if (indices.length < k || distances.length < k) {
+            throw new IllegalArgumentException("Buffers hold fewer than " + k + " points");
+        }
+    }
+
+    /**
+     * Offers PAYLOAD at squared distance DISTANCE to the heap of SIZE pairs, which holds
+     * at most K, and returns the new size.
+     */
+    static int offer(int[] indices, double[] distances, int size, int k,
+                     int payload, double distance) {
+        if (size < k) {
+            int i = size;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(distance, payload, distances[parent], indices[parent])) {
+                    break;
+                }
+                indices[i] = indices[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            indices[i] = payload;
+            distances[i] = distance;
+            return size + 1;
+        }
+        if (k > 0 && worse(distances[0], indices[0], distance, payload)) {
+            siftDown(indices, distances, size, payload, distance);
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if the heap of SIZE pairs holds K pairs and none is farther than
+     * squared distance DISTANCE, so no point at that distance can enter it.
+     */
+    static boolean isFullWithin(double[] distances, int size, int k, double distance) {
+        return size == k && (k == 0 || distances[0] < distance);
+    }
+
+    /**
+     * Sorts the heap of SIZE pairs from nearest to farthest.
+     */
+    static void sort(int[] indices, double[] distances, int size) {
+        for (int end = size - 1; end > 0; end--) {
+            int payload = indices[end];
+            double distance = distances[end];
+            indices[end] = indices[0];
+            distances[end] = distances[0];
+            siftDown(indices, distances, end, payload, distance);
+        }
+    }
+
+    /* Puts PAYLOAD at DISTANCE in place of the root of the heap of SIZE pairs. */
+    private static void siftDown(int[] indices, double[] distances, int size,
+                                 int payload, double distance) {
+        int i = 0;
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && worse(distances[child + 1], indices[child + 1],
+                    distances[child], indices[child])) {
+                child++;
+            }
+            if (!worse(distances[child], indices[child], distance, payload)) {
+                break;
+            }
+            indices[i] = indices[child];
+            distances[i] = distances[child];
+            i = child;
+        }
+        indices[i] = payload;
+        distances[i] = distance;
+    }
+
+    /* Returns true if the pair (D1, P1) ranks after (D2, P2). */
+    private static boolean worse(double d1, int p1, double d2, int p2) {
+        return d1 > d2 || (d1 == d2 && p1 > p2);
+    }
+}
@@ -0,0 +1,137 @@
+package bearmaps.utils.ps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times nearest and k-nearest queries on KDTree, GridPointSet and NaivePointSet over two
+ * layouts of points: spread uniformly over a square, and packed into a few tight
+ * clusters, the way street vertices bunch up in town centres. Queries follow the same
+ * layout as the points. GridPointSet is also timed with cells four times larger and
+ * smaller than its default, to show how much the cell size matters. NaivePointSet is
+ * linear per query, so it gets a shorter prefix of the queries.
+ * <p>
+ * Run with <code>java bearmaps.utils.ps.PointSetBenchmark [points]</code>.
+ */
+public class PointSetBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int QUERIES = 200000;
+    private static final int NAIVE_QUERIES = 2000;
+    private static final int K = 8;
+    private static final int CLUSTERS = 12;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] qx;
+    private final double[] qy;
+
+    private PointSetBenchmark(int n, boolean clustered, long seed) {
+        Random random = new Random(seed);
+        xs = new double[n];
+        ys = new double[n];
+        qx = new double[QUERIES];
+        qy = new double[QUERIES];
+        double[] cx = new double[CLUSTERS];
+        double[] cy = new double[CLUSTERS];
+        for (int c = 0; c < CLUSTERS; c++) {
+            cx[c] = random.nextDouble() * 1000;
+            cy[c] = random.nextDouble() * 1000;
+        }
+        for (int i = 0; i < n + QUERIES; i++) {
+            double x;
+            double y;
+            if (clustered) {
+                int c = random.nextInt(CLUSTERS);
+                x = cx[c] + random.nextGaussian() * 10;
+                y = cy[c] + random.nextGaussian() * 10;
+            } else {
+                x = random.nextDouble() * 1000;
+                y = random.nextDouble() * 1000;
+            }
+            if (i < n) {
+                xs[i] = x;
+                ys[i] = y;
+            } else {
+                qx[i - n] = x;
+                qy[i - n] = y;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        for (boolean clustered : new boolean[]{false, true}) {
+            PointSetBenchmark benchmark = new PointSetBenchmark(n, clustered, 6);
+            System.out.println(String.format("%d %s points, %d queries", n,
+                    clustered ? "clustered" : "uniform", QUERIES));
+
+            long start = System.nanoTime();
+            KDTree kdTree = new KDTree(benchmark.xs, benchmark.ys);
+            benchmark.report("KDTree", kdTree, System.nanoTime() - start, QUERIES);
+
+            double cellSize = GridPointSet.defaultCellSize(benchmark.xs, benchmark.ys);
+            for (double scale : new double[]{0.25, 1, 4}) {
+                start = System.nanoTime();
+                GridPointSet grid = new GridPointSet(benchmark.xs, benchmark.ys,
+                        KDTree.identity(n), cellSize * scale);
+                benchmark.report(String.format("GridPointSet (x%.2f)", scale), grid,
+                        System.nanoTime() - start, QUERIES);
+            }
+
+            List<Point> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                list.add(new Point(benchmark.xs[i], benchmark.ys[i]));
+            }
+            NaivePointSet naive = new NaivePointSet(list);
+            benchmark.report("NaivePointSet", naive, 0, Math.min(NAIVE_QUERIES, QUERIES));
+        }
+    }
+
+    private void report(String name, IndexedPointSet points, long buildNanos, int count) {
+        System.out.println(String.format("  %-20s build %7.1f ms  nearest %8.1f ns  %d-nearest %8.1f ns",
+                name, buildNanos / 1e6, timeNearest(points, count), K, timeKNearest(points, count)));
+    }
+
+    /* Returns the best time per query of a few runs of the first COUNT nearest queries. */
+    private double timeNearest(IndexedPointSet points, int count) {
+        double best = Double.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                checksum += points.nearestIndex(qx[i], qy[i]);
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / count);
+        }
+        consume(checksum);
+        return best;
+    }
+
+    /* Returns the best time per query of a few runs of the first COUNT k-nearest
+       queries. */
+    private double timeKNearest(IndexedPointSet points, int count) {
+        int[] indices = new int[K];
+        double[] distances = new double[K];
+        double best = Double.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                checksum += points.nearest(qx[i], qy[i], K, indices, distances);
+                checksum += indices[0];
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / count);
+        }
+        consume(checksum);
+        return best;
+    }
+
+    /* Keeps the JIT from discarding the queries. */
+    private static void consume(long checksum) {
+        if (checksum == 42) {
+            System.out.print("");
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package bearmaps.utils.ps;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * An R-tree over line segments, bulk loaded with Sort-Tile-Recursive (STR) packing,
+ * for finding the segment closest to a point and where on it that point projects.
+ * <p>
+ * STR sorts the entries of a level by the x-coordinate of their centers, cuts them
+ * into about sqrt(P) vertical slices of whole nodes, where P is the number of nodes to
+ * make, sorts each slice by y and packs consecutive runs of NODE_CAPACITY entries into
+ * a node. Doing so level by level, from the segments up to a single root, gives nearly
+ * full nodes with little overlap. The sorts run in parallel.
+ * <p>
+ * Everything lives in primitive arrays. Segments are stored in leaf order, and nodes,
+ * leaves first and the root last, with bounding boxes and the range of positions their
+ * entries occupy one level down. Every segment carries an int payload, which queries
+ * report instead of its position.
+ */
+public class SegmentRTree {
+
+    /**
+     * The most entries a node holds.
+     */
+    static final int NODE_CAPACITY = 16;
+
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+    private final int[] payload;
+
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+    /* Node i's entries are positions [childStart[i], childEnd[i]): segments if i is a
+       leaf, that is i < numLeaves, and nodes otherwise. */
+    private final int[] childStart;
+    private final int[] childEnd;
+    private final int numLeaves;
+
+    /**
+     * Builds a tree over the segments from (X1[i], Y1[i]) to (X2[i], Y2[i]), with
+     * payload PAYLOAD[i]. The arrays are not modified.
+     */
+    public SegmentRTree(double[] x1, double[] y1, double[] x2, double[] y2, int[] payload) {
+        int n = payload.length;
+        if (x1.length != n || y1.length != n || x2.length != n || y2.length != n) {
+            throw new IllegalArgumentException("Coordinate and payload arrays differ in length");
+        }
+
+        /* Pack the segments into leaves by the centers of their bounding boxes. */
+        double[] lox = new double[n];
+        double[] loy = new double[n];
+        double[] hix = new double[n];
+        double[] hiy = new double[n];
+        for (int i = 0; i < n; i++) {
+            lox[i] = Math.min(x1[i], x2[i]);
+            loy[i] = Math.min(y1[i], y2[i]);
+            hix[i] = Math.max(x1[i], x2[i]);
+            hiy[i] = Math.max(y1[i], y2[i]);
+        }
+        int[] order = strOrder(lox, loy, hix, hiy);
+        this.x1 = permute(x1, order);
+        this.y1 = permute(y1, order);
+        this.x2 = permute(x2, order);
+        this.y2 = permute(y2, order);
+        this.payload = permute(payload, order);
+        Level level = Level.pack(permute(lox, order), permute(loy, order),
+                permute(hix, order), permute(hiy, order), 0);
+        numLeaves = level.size();
+
+        /* Pack each level of nodes into the next until one node is left. Sorting a level
+           moves its nodes, so they are only appended once the level above is built. */
+        Level[] levels = new Level[8];
+        int numLevels = 0;
+        int numNodes = 0;
+        while (level.size() > 1) {
+            int m = level.size();
+            order = strOrder(level.minX, level.minY, level.maxX, level.maxY);
+            level = level.permute(order);
+            levels = numLevels == levels.length ? Arrays.copyOf(levels, 2 * numLevels) : levels;
+            levels[numLevels++] = level;
+            level = Level.pack(level.minX, level.minY, level.maxX, level.maxY, numNodes);
+            numNodes += m;
+        }
+        if (level.size() == 1) {
+            levels = numLevels == levels.length ? Arrays.copyOf(levels, numLevels + 1) : levels;
+            levels[numLevels++] = level;
+            numNodes++;
+        }
+
+        minX = new double[numNodes];
+        minY = new double[numNodes];
+        maxX = new double[numNodes];
+        maxY = new double[numNodes];
+        childStart = new int[numNodes];
+        childEnd = new int[numNodes];
+        int offset = 0;
+        for (int l = 0; l < numLevels; l++) {
+            Level lv = levels[l];
+            int m = lv.size();
+            System.arraycopy(lv.minX, 0, minX, offset, m);
+            System.arraycopy(lv.minY, 0, minY, offset, m);
+            System.arraycopy(lv.maxX, 0, maxX, offset, m);
+            System.arraycopy(lv.maxY, 0, maxY, offset, m);
+            System.arraycopy(lv.childStart, 0, childStart, offset, m);
+            System.arraycopy(lv.childEnd, 0, childEnd, offset, m);
+            offset += m;
+        }
+    }
+
+    /**
+     * The nodes of one level while the tree is being built.
+     */
+    private static class Level {
+        final double[] minX;
+        final double[] minY;
+        final double[] maxX;
+        final double[] maxY;
+        final int[] childStart;
+        final int[] childEnd;
+
+        Level(double[] minX, double[] minY, double[] maxX, double[] maxY,
+              int[] childStart, int[] childEnd) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.childStart = childStart;
+            this.childEnd = childEnd;
+        }
+
+        int size() {
+            return minX.length;
+        }
+
+        /* Groups consecutive runs of NODE_CAPACITY of the given boxes, which will be
+           stored from position OFFSET on, into nodes. */
+        static Level pack(double[] lox, double[] loy, double[] hix, double[] hiy, int offset) {
+            int n = lox.length;
+            int m = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            Level level = new Level(new double[m], new double[m], new double[m], new double[m],
+                    new int[m], new int[m]);
+            for (int j = 0; j < m; j++) {
+                int first = j * NODE_CAPACITY;
+                int last = Math.min(first + NODE_CAPACITY, n);
+                double x0 = Double.POSITIVE_INFINITY;
+                double y0 = Double.POSITIVE_INFINITY;
+                double x1 = Double.NEGATIVE_INFINITY;
+                double y1 = Double.NEGATIVE_INFINITY;
+                for (int i = first; i < last; i++) {
+                    x0 = Math.min(x0, lox[i]);
+                    y0 = Math.min(y0, loy[i]);
+                    x1 = Math.max(x1, hix[i]);
+                    y1 = Math.max(y1, hiy[i]);
+                }
+                level.minX[j] = x0;
+                level.minY[j] = y0;
+                level.maxX[j] = x1;
+                level.maxY[j] = y1;
+                level.childStart[j] = offset + first;
+                level.childEnd[j] = offset + last;
+            }
+            return level;
+        }
+
+        Level permute(int[] order) {
+            return new Level(SegmentRTree.permute(minX, order), SegmentRTree.permute(minY, order),
+                    SegmentRTree.permute(maxX, order), SegmentRTree.permute(maxY, order),
+                    SegmentRTree.permute(childStart, order), SegmentRTree.permute(childEnd, order));
+        }
+    }
+
+    /* Returns the order STR packs the given boxes in: by the x of their centers, then
+       slice by slice by the y of their centers. */
+    private static int[] strOrder(double[] lox, double[] loy, double[] hix, double[] hiy) {
+        int n = lox.length;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = sortKey((lox[i] + hix[i]) / 2, i);
+        }
+        Arrays.parallelSort(keys);
+
+        int parents = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = Math.max(1, (int) Math.ceil(Math.sqrt(parents))) * NODE_CAPACITY;
+        for (int i = 0; i < n; i++) {
+            int j = (int) keys[i];
+            keys[i] = sortKey((loy[j] + hiy[j]) / 2, j);
+        }
+        int slices = (n + sliceSize - 1) / sliceSize;
+        IntStream.range(0, slices).parallel().forEach(s ->
+                Arrays.sort(keys, s * sliceSize, Math.min((s + 1) * sliceSize, n)));
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /* Packs VALUE, rounded to a float, into the high half of a long that sorts like it,
+       and INDEX into the low half. Rounding only affects how well the tree is packed. */
+    private static long sortKey(double value, int index) {
+        int bits = Float.floatToIntBits((float) value);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | (index & 0xffffffffL);
+    }
+
+    private static double[] permute(double[] a, int[] order) {
+        double[] b = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            b[i] = a[order[i]];
+        }
+        return b;
+    }
+
+    private static int[] permute(int[] a, int[] order) {
+        int[] b = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            b[i] = a[order[i]];
+        }
+        return b;
+    }
+
+    /**
+     * Returns the number of segments in the tree.
+     */
+    public int size() {
+        return payload.length;
+    }
+
+    /**
+     * Returns the segment closest to (X, Y) and the point on it closest to (X, Y), or
+     * null if the tree is empty. Of several segments at the same distance, the one with
+     * the smallest payload wins.
+     */
+    public Projection nearest(double x, double y) {
+        return nearest(x, y, null);
+    }
+
+    /**
+     * Returns the segment closest to (X, Y) whose payload ACCEPT accepts, and the point
+     * on it closest to (X, Y), or null if there is none. Subtrees are pruned by distance
+     * alone, so a predicate that rejects most segments makes the search slower.
+     */
+    public Projection nearest(double x, double y, IntPredicate accept) {
+        if (payload.length == 0) {
+            return null;
+        }
+        Search search = new Search(x, y, accept);
+        search(minX.length - 1, search);
+        int i = search.best;
+        if (i < 0) {
+            return null;
+        }
+        double t = fraction(i, x, y);
+        double px = x1[i] + t * (x2[i] - x1[i]);
+        double py = y1[i] + t * (y2[i] - y1[i]);
+        return new Projection(payload[i], t, px, py, search.bestDistance);
+    }
+
+    /**
+     * The best segment found so far by a nearest query.
+     */
+    private static class Search {
+        final double x;
+        final double y;
+        final IntPredicate accept;
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+
+        Search(double x, double y, IntPredicate accept) {
+            this.x = x;
+            this.y = y;
+            this.accept = accept;
+        }
+    }
+
+    /* Searches the subtree of NODE, descending first into the entry whose box is
+       closest and skipping entries whose boxes are farther than the best segment. */
+    private void search(int node, Search search) {
+        int first = childStart[node];
+        int last = childEnd[node];
+        if (node < numLeaves) {
+            for (int i = first; i < last; i++) {
+                double d = distance(i, search.x, search.y);
+                if ((d < search.bestDistance || (d == search.bestDistance
+                        && search.best >= 0 && payload[i] < payload[search.best]))
+                        && (search.accept == null || search.accept.test(payload[i]))) {
+                    search.best = i;
+                    search.bestDistance = d;
+                }
+            }
+            return;
+        }
+        int closest = first;
+        double closestDistance = boxDistance(first, search.x, search.y);
+        for (int c = first + 1; c < last; c++) {
+            double d = boxDistance(c, search.x, search.y);
+            if (d < closestDistance) {
+                closest = c;
+                closestDistance = d;
+            }
+        }
+        search(closest, search);
+        for (int c = first; c < last; c++) {
+            if (c != closest && boxDistance(c, search.x, search.y) <= search.bestDistance) {
+                search(c, search);
+            }
+        }
+    }
+
+    /* Returns the squared distance from (X, Y) to the box of NODE, 0 if inside it. */
+    private double boxDistance(int node, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+        return dx * dx + dy * dy;
+    }
+
+    /* Returns how far along segment I, from 0 at its first end to 1 at its second, the
+       point closest to (X, Y) lies. */
+    private double fraction(int i, double x, double y) {
+        double dx = x2[i] - x1[i];
+        double dy = y2[i] - y1[i];
+        double length2 = dx * dx + dy * dy;
+        if (length2 == 0) {
+            return 0;
+        }
+        double t = ((x - x1[i]) * dx + (y - y1[i]) * dy) / length2;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /* Returns the squared distance from (X, Y) to segment I. */
+    private double distance(int i, double x, double y) {
+        double t = fraction(i, x, y);
+        double dx = x1[i] + t * (x2[i] - x1[i]) - x;
+        double dy = y1[i] + t * (y2[i] - y1[i]) - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * The closest point on a segment to a query point.
+     */
+    public static class Projection {
+        private final int segment;
+        private final double fraction;
+        private final double x;
+        private final double y;
+        private final double squaredDistance;
+
+        Projection(int segment, double fraction, double x, double y, double squaredDistance) {
+            this.segment = segment;
+            this.fraction = fraction;
+            this.x = x;
+            this.y = y;
+            this.squaredDistance = squaredDistance;
+        }
+
+        /**
+         * Returns the payload of the segment.
+         */
+        public int segment() {
+            return segment;
+        }
+
+        /**
+         * Returns how far along the segment the point lies, from 0 at its first end to 1
+         * at its second.
+         */
+        public double fraction() {
+            return fraction;
+        }
+
+        public double x() {
+            return x;
+        }
+
+        public double y() {
+            return y;
+        }
+
+        /**
+         * Returns the squared distance from the query point to this point.
+         */
+        public double squaredDistance() {
+            return squaredDistance;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package bearmaps.utils.ps;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SegmentRTreeTest {
+
+    @Test
+    public void basicTest() {
+        double[] x1 = {0, 0, 5};
+        double[] y1 = {0, 0, 5};
+        double[] x2 = {10, 0, 5};
+        double[] y2 = {0, 10, 5};
+        SegmentRTree tree = new SegmentRTree(x1, y1, x2, y2, new int[]{7, 8, 9});
+        assertEquals(3, tree.size());
+
+        SegmentRTree.Projection p = tree.nearest(4, -1);
+        assertEquals(7, p.segment());
+        assertEquals(0.4, p.fraction(), 1e-12);
+        assertEquals(4, p.x(), 1e-12);
+        assertEquals(0, p.y(), 1e-12);
+        assertEquals(1, p.squaredDistance(), 1e-12);
+
+        p = tree.nearest(-3, 12);
+        assertEquals(8, p.segment());
+        assertEquals(1, p.fraction(), 0);
+
+        /* The degenerate segment is a point. */
+        p = tree.nearest(5, 5.5);
+        assertEquals(9, p.segment());
+        assertEquals(0, p.fraction(), 0);
+
+        /* Equally close to both segments through the origin. */
+        assertEquals(7, tree.nearest(-1, -1).segment());
+    }
+
+    @Test
+    public void emptyTest() {
+        double[] none = new double[0];
+        assertNull(new SegmentRTree(none, none, none, none, new int[0]).nearest(0, 0));
+    }
+
+    @Test
+    public void randomTest() {
+        Random random = new Random(23);
+        for (int n : new int[]{1, 15, 16, 17, 300, 20000}) {
+            double[] x1 = new double[n];
+            double[] y1 = new double[n];
+            double[] x2 = new double[n];
+            double[] y2 = new double[n];
+            int[] payload = new int[n];
+            for (int i = 0; i < n; i++) {
+                x1[i] = random.nextDouble() * 100;
+                y1[i] = random.nextDouble() * 100;
+                x2[i] = x1[i] + random.nextGaussian();
+                y2[i] = y1[i] + random.nextGaussian();
+                payload[i] = n - i;
+            }
+            SegmentRTree tree = new SegmentRTree(x1, y1, x2, y2, payload);
+
+            for (int q = 0; q < 200; q++) {
+                double x = random.nextDouble() * 110 - 5;
+                double y = random.nextDouble() * 110 - 5;
+                int best = -1;
+                double bestDistance = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < n; i++) {
+                    double d = squaredDistance(x1[i], y1[i], x2[i], y2[i], x, y);
+                    if (d < bestDistance || (d == bestDistance && payload[i] < payload[best])) {
+                        best = i;
+                        bestDistance = d;
+                    }
+                }
+                SegmentRTree.Projection p = tree.nearest(x, y);
+                assertEquals(payload[best], p.segment());
+                assertEquals(bestDistance, p.squaredDistance(), 0);
+                assertEquals(x1[best] + p.fraction() * (x2[best] - x1[best]), p.x(), 0);
+                assertEquals(y1[best] + p.fraction() * (y2[best] - y1[best]), p.y(), 0);
+
+                best = -1;
+                bestDistance = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < n; i++) {
+                    double d = squaredDistance(x1[i], y1[i], x2[i], y2[i], x, y);
+                    if (payload[i] % 3 == 0 && (d < bestDistance
+                            || (d == bestDistance && payload[i] < payload[best]))) {
+                        best = i;
+                        bestDistance = d;
+                    }
+                }
+                p = tree.nearest(x, y, s -> s % 3 == 0);
+                if (best < 0) {
+                    assertNull(p);
+                } else {
+                    assertEquals(payload[best], p.segment());
+                    assertEquals(bestDistance, p.squaredDistance(), 0);
+                }
+            }
+        }
+    }
+
+    private static double squaredDistance(double x1, double y1, double x2, double y2,
+                                          double x, double y) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / length2;
+        t = Math.max(0, Math.min(1, t));
+        double ex = x1 + t * dx - x;
+        double ey = y1 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,354 @@
+package bearmaps.utils.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from the words of a list of documents, typically location names,
+ * to the documents containing them, for finding documents by any of their words rather
+ * than only by how they start.
+ * <p>
+ * The distinct words are kept sorted, and the documents containing each, its posting
+ * list, are stored sorted and back to back in one int array in compressed sparse row
+ * form, the postings of word w occupying [postingStart[w], postingStart[w + 1]).
+ * Documents are numbered by their position in the list the index was built from, and
+ * carry an int score used to rank results.
+ * <p>
+ * A search for several words intersects their posting lists, shortest first, by
+ * galloping: each document of the running result is looked for in the next list with
+ * an exponential then a binary search, starting where the last one was found, so the
+ * cost grows with the shorter list and only logarithmically with the longer.
+ */
+public class InvertedIndex {
+
+    private final String[] documents;
+    private final String[] words;
+    private final int[] postingStart;
+    private final int[] postings;
+    private final int[] scores;
+
+    /**
+     * Indexes DOCUMENTS, where document i has score SCORES[i]. Words are the runs of
+     * characters between spaces.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length.
+     */
+    public InvertedIndex(String[] documents, int[] scores) {
+        if (documents.length != scores.length) {
+            throw new IllegalArgumentException("Document and score arrays differ in length");
+        }
+        this.documents = documents.clone();
+        this.scores = scores.clone();
+
+        Map<String, List<Integer>> index = new HashMap<>();
+        for (int d = 0; d < documents.length; d++) {
+            for (String word : tokenize(documents[d])) {
+                index.computeIfAbsent(word, w -> new ArrayList<>()).add(d);
+            }
+        }
+        words = index.keySet().toArray(new String[0]);
+        Arrays.sort(words);
+        postingStart = new int[words.length + 1];
+        for (int w = 0; w < words.length; w++) {
+            postingStart[w + 1] = postingStart[w] + index.get(words[w]).size();
+        }
+        postings = new int[postingStart[words.length]];
+        for (int w = 0; w < words.length; w++) {
+            int i = postingStart[w];
+            for (int d : index.get(words[w])) {
+                postings[i++] = d;
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct words of S, in order of first appearance.
+     */
+    public static String[] tokenize(String s) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String token : s.split(" ")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the number of documents.
+     */
+    public int size() {
+        return scores.length;
+    }
+
+    /**
+     * Returns document D.
+     */
+    public String document(int d) {
+        return documents[d];
+    }
+
+    /**
+     * Returns the number of distinct words.
+     */
+    public int numWords() {
+        return words.length;
+    }
+
+    /**
+     * Returns the number of documents containing WORD.
+     */
+    public int frequency(String word) {
+        int w = Arrays.binarySearch(words, word);
+        return w < 0 ? 0 : postingStart[w + 1] - postingStart[w];
+    }
+
+    /**
+     * Returns at most LIMIT documents containing any of the words of QUERY, ranked by
+     * how many of its words they contain and then by score, best first.
+     * <p>
+     * The documents containing every word are found by intersecting posting lists.
+     * Only if there are fewer than LIMIT of those are documents missing some words
+     * counted, by merging the lists, keeping only the best LIMIT as they go.
+     */
+    public int[] search(String query, int limit) {
+        String[] terms = tokenize(query);
+        int[] lists = new int[terms.length];
+        int numLists = 0;
+        boolean all = true;
+        for (String term : terms) {
+            int w = Arrays.binarySearch(words, term);
+            if (w >= 0) {
+                lists[numLists++] = w;
+            } else {
+                all = false;
+            }
+        }
+        if (limit <= 0 || numLists == 0) {
+            return new int[0];
+        }
+
+        /* Shortest list first, so the running intersection starts as small as it gets. */
+        Integer[] order = new Integer[numLists];
+        for (int i = 0; i < numLists; i++) {
+            order[i] = lists[i];
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(length(a), length(b)));
+
+        int[] result = new int[Math.min(limit, size())];
+        int count = 0;
+        if (all) {
+            int w = order[0];
+            int[] found = Arrays.copyOfRange(postings, postingStart[w], postingStart[w + 1]);
+            int size = found.length;
+            for (int i = 1; i < numLists && size > 0; i++) {
+                size = intersect(found, size, postingStart[order[i]], postingStart[order[i] + 1]);
+            }
+            count = rank(found, size, result, 0);
+        }
+        if (count < result.length && (!all || numLists > 1)) {
+            count = rankPartial(order, numLists, all ? numLists - 1 : numLists, result, count);
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int length(int w) {
+        return postingStart[w + 1] - postingStart[w];
+    }
+
+    /* Keeps the documents among the first SIZE of A that are also in postings[FROM, TO),
+       compacted to the front of A, and returns how many there are. */
+    private int intersect(int[] a, int size, int from, int to) {
+        int n = 0;
+        int j = from;
+        for (int i = 0; i < size && j < to; i++) {
+            j = gallop(a[i], j, to);
+            if (j < to && postings[j] == a[i]) {
+                a[n++] = a[i];
+            }
+        }
+        return n;
+    }
+
+    /* Returns the first position in postings[LO, HI) holding a document no smaller than
+       D, or HI if there is none, probing LO + 1, LO + 2, LO + 4 and so on before
+       searching between the last two probes. */
+    private int gallop(int d, int lo, int hi) {
+        int bound = 1;
+        while (lo + bound < hi && postings[lo + bound] < d) {
+            bound <<= 1;
+        }
+        int l = lo + (bound >> 1);
+        int h = Math.min(lo + bound, hi);
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (postings[mid] < d) {
+                l = mid + 1;
+            } else {
+                h = mid;
+            }
+        }
+        return l;
+    }
+
+    /* Counts in how many of the first NUMLISTS posting lists of LISTS each document
+       appears, and adds those in at most MAXCOUNT of them to RESULT, after its first
+       COUNT, by count and then score until RESULT is full. Returns the new count.
+
+       The lists are merged through a min-heap of cursors, one per list, so every
+       document comes up once per list containing it, all together, and is counted as
+       it passes. The best documents so far are kept in a bounded heap with the worst
+       on top, so only as many as RESULT has room for are ever held. Lists run out
+       shortest first, and the merge stops once no document left can beat the worst. */
+    private int rankPartial(Integer[] lists, int numLists, int maxCount, int[] result, int count) {
+        int room = result.length - count;
+        int[] position = new int[numLists];
+        int[] end = new int[numLists];
+        int[] cursors = new int[numLists];
+        int numCursors = 0;
+        for (int i = 0; i < numLists; i++) {
+            position[i] = postingStart[lists[i]];
+            end[i] = postingStart[lists[i] + 1];
+            cursors[numCursors] = i;
+            siftUp(cursors, numCursors++, position);
+        }
+
+        int[] bestDocs = new int[room];
+        int[] bestCounts = new int[room];
+        int numBest = 0;
+        /* A document can be in no more lists than still have cursors, so once the heap
+           is full of documents in more than that, nothing left can get in. */
+        while (numCursors > 0 && (numBest < room || bestCounts[0] <= numCursors)) {
+            int d = postings[position[cursors[0]]];
+            int c = 0;
+            while (numCursors > 0 && postings[position[cursors[0]]] == d) {
+                c++;
+                int i = cursors[0];
+                if (++position[i] < end[i]) {
+                    siftDown(cursors, numCursors, 0, position);
+                } else if (--numCursors > 0) {
+                    cursors[0] = cursors[numCursors];
+                    siftDown(cursors, numCursors, 0, position);
+                }
+            }
+            if (c > maxCount) {
+                continue;
+            }
+            if (numBest < room) {
+                bestDocs[numBest] = d;
+                bestCounts[numBest] = c;
+                worstUp(bestDocs, bestCounts, numBest++);
+            } else if (worse(bestCounts[0], bestDocs[0], c, d)) {
+                bestDocs[0] = d;
+                bestCounts[0] = c;
+                worstDown(bestDocs, bestCounts, numBest);
+            }
+        }
+
+        /* Empty the heap worst first into the back of the free part of RESULT. */
+        for (int i = numBest - 1; i >= 0; i--) {
+            result[count + i] = bestDocs[0];
+            bestDocs[0] = bestDocs[i];
+            bestCounts[0] = bestCounts[i];
+            worstDown(bestDocs, bestCounts, i);
+        }
+        return count + numBest;
+    }
+
+    /* Returns true if a document D1 containing C1 of the words ranks below document D2
+       containing C2: it has fewer words, or as many and a lower score, or the same
+       score and a larger number. */
+    private boolean worse(int c1, int d1, int c2, int d2) {
+        if (c1 != c2) {
+            return c1 < c2;
+        }
+        if (scores[d1] != scores[d2]) {
+            return scores[d1] < scores[d2];
+        }
+        return d1 > d2;
+    }
+
+    /* Restores the min-heap of cursors, ordered by the document each is at, after
+       HEAP[I] was added at the bottom. */
+    private void siftUp(int[] heap, int i, int[] position) {
+        int cursor = heap[i];
+        while (i > 0 && postings[position[heap[(i - 1) >>> 1]]] > postings[position[cursor]]) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = cursor;
+    }
+
+    /* Restores the min-heap of the first SIZE cursors after HEAP[I] moved forward. */
+    private void siftDown(int[] heap, int size, int i, int[] position) {
+        int cursor = heap[i];
+        int d = postings[position[cursor]];
+        while (2 * i + 1 < size) {
+            int c = 2 * i + 1;
+            if (c + 1 < size && postings[position[heap[c + 1]]] < postings[position[heap[c]]]) {
+                c++;
+            }
+            if (postings[position[heap[c]]] >= d) {
+                break;
+            }
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = cursor;
+    }
+
+    /* Restores the heap of documents and their counts, worst on top, after entry I was
+       added at the bottom. */
+    private void worstUp(int[] docs, int[] counts, int i) {
+        int d = docs[i];
+        int c = counts[i];
+        while (i > 0 && worse(c, d, counts[(i - 1) >>> 1], docs[(i - 1) >>> 1])) {
+            docs[i] = docs[(i - 1) >>> 1];
+            counts[i] = counts[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        docs[i] = d;
+        counts[i] = c;
+    }
+
+    /* Restores the heap of the first SIZE documents, worst on top, after the top was
+       replaced. */
+    private void worstDown(int[] docs, int[] counts, int size) {
+        int d = docs[0];
+        int c = counts[0];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int k = 2 * i + 1;
+            if (k + 1 < size && worse(counts[k + 1], docs[k + 1], counts[k], docs[k])) {
+                k++;
+            }
+            if (!worse(counts[k], docs[k], c, d)) {
+                break;
+            }
+            docs[i] = docs[k];
+            counts[i] = counts[k];
+            i = k;
+        }
+        docs[i] = d;
+        counts[i] = c;
+    }
+
+    /* Adds the first SIZE documents of DOCS to RESULT, after its first COUNT, best score
+       first, until RESULT is full. Returns the new count. */
+    private int rank(int[] docs, int size, int[] result, int count) {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) Integer.MAX_VALUE - scores[docs[i]]) << 31 | docs[i];
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < size && count < result.length; i++) {
+            result[count++] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,84 @@
+package bearmaps.utils.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class InvertedIndexTest {
+
+    @Test
+    public void basicTest() {
+        String[] names = {"doe memorial library", "moffitt library", "doe hall", "top dog", "library gardens"};
+        InvertedIndex index = new InvertedIndex(names, new int[]{1, 2, 3, 4, 5});
+        assertEquals(5, index.size());
+        assertEquals(3, index.frequency("library"));
+        assertEquals(0, index.frequency("libr"));
+        assertArrayEquals(new int[]{4, 1, 0}, index.search("library", 10));
+        assertArrayEquals(new int[]{0, 4, 2, 1}, index.search("doe library", 10));
+        assertArrayEquals(new int[]{0, 4}, index.search("library doe", 2));
+        assertArrayEquals(new int[]{2, 0}, index.search("doe nowhere", 10));
+        assertArrayEquals(new int[0], index.search("nowhere", 10));
+        assertArrayEquals(new int[0], index.search("", 10));
+        assertArrayEquals(new int[0], index.search("doe", 0));
+    }
+
+    /* Random documents over a small vocabulary, with queries of up to four words,
+       against counting every document's matches. */
+    @Test
+    public void randomTest() {
+        Random random = new Random(13);
+        int n = 3000;
+        String[] documents = new String[n];
+        int[] scores = new int[n];
+        for (int d = 0; d < n; d++) {
+            documents[d] = randomWords(random, 1 + random.nextInt(4), d % 5 == 0 ? 4 : 40);
+            scores[d] = random.nextInt(5);
+        }
+        InvertedIndex index = new InvertedIndex(documents, scores);
+
+        for (int q = 0; q < 300; q++) {
+            String query = randomWords(random, 1 + random.nextInt(4), 45);
+            Set<String> terms = new HashSet<>(Arrays.asList(InvertedIndex.tokenize(query)));
+            List<Integer> expected = new ArrayList<>();
+            int[] counts = new int[n];
+            for (int d = 0; d < n; d++) {
+                for (String word : InvertedIndex.tokenize(documents[d])) {
+                    if (terms.contains(word)) {
+                        counts[d]++;
+                    }
+                }
+                if (counts[d] > 0) {
+                    expected.add(d);
+                }
+            }
+            expected.sort((a, b) -> counts[a] != counts[b] ? counts[b] - counts[a]
+                    : scores[a] != scores[b] ? scores[b] - scores[a] : a - b);
+
+            int limit = 1 + random.nextInt(60);
+            int[] actual = index.search(query, limit);
+            assertEquals(Math.min(limit, expected.size()), actual.length);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals((int) expected.get(i), actual[i]);
+            }
+        }
+    }
+
+    private static String randomWords(Random random, int count, int vocabulary) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append("w").append(random.nextInt(vocabulary));
+        }
+        return words.toString();
+    }
+}
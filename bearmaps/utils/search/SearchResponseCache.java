@@ -0,0 +1,217 @@
+package bearmaps.utils.search;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of serialized responses, keyed by strings, for requests that are
+ * asked again and again, such as the prefixes typed into a search box.
+ * <p>
+ * Entries are looked up in a ConcurrentHashMap and queued in the order they were
+ * added in a ConcurrentLinkedQueue, so neither reads nor writes take a lock. Eviction
+ * approximates a segmented LRU in the manner of CLOCK: each entry counts its hits, up
+ * to MAX_FREQUENCY, and the entry at the head of the queue is evicted only if it has
+ * none left, otherwise it gives one up and goes to the back. Entries asked for once
+ * are so evicted first, as if still in the probationary segment, and a burst of new
+ * keys can't flush the popular ones.
+ * <p>
+ * The cache is bounded by the total size of its values and keys, in bytes, plus a
+ * fixed overhead per entry. While several threads add at once it may briefly hold a
+ * little more.
+ * <p>
+ * Every entry is stamped with the generation of the data it was computed from, which
+ * the caller reads with {@link #generation} before computing it, and an entry of an
+ * older generation is never returned, nor kept if it is already older when added.
+ * Bumping the generation thus invalidates the whole cache at once, its entries being
+ * dropped as they come up for eviction.
+ */
+public class SearchResponseCache {
+
+    /**
+     * The most hits an entry remembers, and so the most times it can be passed over
+     * for eviction.
+     */
+    static final int MAX_FREQUENCY = 3;
+    /**
+     * The bytes an entry is assumed to take besides its key and value.
+     */
+    static final int ENTRY_OVERHEAD = 64;
+
+    private final long capacity;
+    private final LongSupplier generation;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    /* The total weight of the entries in the queue, including those no longer mapped. */
+    private final AtomicLong weight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static class Entry {
+        final String key;
+        final byte[] value;
+        final long generation;
+        final int weight;
+        final AtomicInteger frequency = new AtomicInteger();
+
+        Entry(String key, byte[] value, long generation) {
+            this.key = key;
+            this.value = value;
+            this.generation = generation;
+            this.weight = weight(key, value);
+        }
+    }
+
+    /**
+     * Creates an empty cache of at most CAPACITY bytes whose data never changes.
+     */
+    public SearchResponseCache(long capacity) {
+        this(capacity, () -> 0);
+    }
+
+    /**
+     * Creates an empty cache of at most CAPACITY bytes that only returns values added
+     * while GENERATION returned what it returns now.
+     *
+     * @throws IllegalArgumentException if CAPACITY is negative.
+     */
+    public SearchResponseCache(long capacity, LongSupplier generation) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        this.generation = generation;
+    }
+
+    /* Returns the bytes counted against the capacity for KEY and VALUE. */
+    private static int weight(String key, byte[] value) {
+        return ENTRY_OVERHEAD + 2 * key.length() + value.length;
+    }
+
+    /**
+     * Returns the value last added for KEY in the current generation, or null if there
+     * is none, counting a hit or a miss.
+     */
+    public byte[] get(String key) {
+        Entry e = entries.get(key);
+        if (e == null || e.generation != generation.getAsLong()) {
+            misses.increment();
+            return null;
+        }
+        int f = e.frequency.get();
+        if (f < MAX_FREQUENCY) {
+            /* Losing a race here only loses a hit, which is harmless. */
+            e.frequency.compareAndSet(f, f + 1);
+        }
+        hits.increment();
+        return e.value;
+    }
+
+    /**
+     * Returns the current generation, which a value about to be computed should be
+     * added with.
+     */
+    public long generation() {
+        return generation.getAsLong();
+    }
+
+    /**
+     * Adds VALUE, computed from data of generation GENERATION, for KEY, replacing any
+     * value it had, and evicts entries until the cache is within its capacity again. A
+     * value too big to ever fit, or of a generation already replaced, isn't added. The
+     * caller must not change VALUE afterwards.
+     */
+    public void put(String key, byte[] value, long generation) {
+        if (weight(key, value) > capacity || generation != this.generation.getAsLong()) {
+            return;
+        }
+        Entry e = new Entry(key, value, generation);
+        entries.put(key, e);
+        queue.add(e);
+        weight.addAndGet(e.weight);
+        while (weight.get() > capacity) {
+            if (!evict()) {
+                return;
+            }
+        }
+    }
+
+    /* Takes the entry at the head of the queue, and drops it if it has been replaced,
+       is stale or has no hits left, or else sends it to the back with one hit fewer.
+       Returns false if the queue is empty. */
+    private boolean evict() {
+        Entry e = queue.poll();
+        if (e == null) {
+            return false;
+        }
+        if (entries.get(e.key) == e && e.generation == generation.getAsLong()) {
+            int f = e.frequency.get();
+            if (f > 0 && e.frequency.compareAndSet(f, f - 1)) {
+                queue.add(e);
+                return true;
+            }
+            if (entries.remove(e.key, e)) {
+                evictions.increment();
+            }
+        } else {
+            entries.remove(e.key, e);
+        }
+        weight.addAndGet(-e.weight);
+        return true;
+    }
+
+    /**
+     * Removes every entry. Values being added at the same time may survive.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of entries, including any of an older generation not yet
+     * dropped.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the bytes counted against the capacity, including those of entries
+     * replaced, cleared or stale but not yet dropped.
+     */
+    public long weight() {
+        return weight.get();
+    }
+
+    /**
+     * Returns the capacity in bytes.
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of calls to get that found a value.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of calls to get that found none.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries dropped to make room while still current.
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,126 @@
+package bearmaps.utils.search;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SearchResponseCacheTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /* The weight of an entry with a one character key and a value of N bytes. */
+    private static int entry(int n) {
+        return SearchResponseCache.ENTRY_OVERHEAD + 2 + n;
+    }
+
+    @Test
+    public void basicTest() {
+        SearchResponseCache cache = new SearchResponseCache(1000);
+        assertNull(cache.get("a"));
+        cache.put("a", bytes("[\"Top Dog\"]"), cache.generation());
+        assertArrayEquals(bytes("[\"Top Dog\"]"), cache.get("a"));
+        cache.put("a", bytes("[]"), cache.generation());
+        assertArrayEquals(bytes("[]"), cache.get("a"));
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0, cache.evictions());
+
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictionTest() {
+        SearchResponseCache cache = new SearchResponseCache(3 * entry(10));
+        cache.put("a", new byte[10], cache.generation());
+        cache.put("b", new byte[10], cache.generation());
+        cache.put("c", new byte[10], cache.generation());
+        assertEquals(3 * entry(10), cache.weight());
+        assertEquals(0, cache.evictions());
+
+        /* A and C have been asked for, so B goes first, then the oldest of the rest. */
+        cache.get("a");
+        cache.get("c");
+        cache.put("d", new byte[10], cache.generation());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.evictions());
+        cache.put("e", new byte[10], cache.generation());
+        assertNull(cache.get("d"));
+        assertTrue(cache.get("a") != null && cache.get("c") != null);
+        assertEquals(3, cache.size());
+        assertTrue(cache.weight() <= cache.capacity());
+
+        /* A value bigger than the whole cache isn't kept, nor does it evict anything. */
+        cache.put("f", new byte[4 * entry(10)], cache.generation());
+        assertNull(cache.get("f"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void scanTest() {
+        SearchResponseCache cache = new SearchResponseCache(10 * entry(10));
+        cache.put("a", new byte[10], cache.generation());
+        for (char c = 'b'; c <= 'z'; c++) {
+            cache.get("a");
+            cache.put(String.valueOf(c), new byte[10], cache.generation());
+        }
+        assertTrue(cache.get("a") != null);
+        assertTrue(cache.weight() <= cache.capacity());
+    }
+
+    @Test
+    public void generationTest() {
+        AtomicLong generation = new AtomicLong();
+        SearchResponseCache cache = new SearchResponseCache(3 * entry(10), generation::get);
+        cache.put("a", new byte[10], cache.generation());
+        cache.get("a");
+        generation.incrementAndGet();
+        assertNull(cache.get("a"));
+
+        /* A value computed before the generation changed isn't kept. */
+        cache.put("a", new byte[10], generation.get() - 1);
+        assertNull(cache.get("a"));
+
+        /* Stale entries make way first, whatever their hits, and don't count as evicted. */
+        cache.put("b", new byte[10], cache.generation());
+        cache.put("c", new byte[10], cache.generation());
+        cache.put("d", new byte[10], cache.generation());
+        assertEquals(0, cache.evictions());
+        assertEquals(3, cache.size());
+        assertTrue(cache.get("b") != null && cache.get("c") != null && cache.get("d") != null);
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        SearchResponseCache cache = new SearchResponseCache(50 * entry(10));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    String key = String.valueOf((char) ('a' + (i * 7 + seed) % 26));
+                    if (cache.get(key) == null) {
+                        cache.put(key, new byte[10], cache.generation());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4 * 20000, cache.hits() + cache.misses());
+        assertTrue(cache.weight() <= cache.capacity());
+        assertTrue(cache.size() <= 26);
+    }
+}
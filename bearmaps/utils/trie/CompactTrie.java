@@ -0,0 +1,601 @@
+package bearmaps.utils.trie;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * An immutable trie of scored strings held in a few flat arrays instead of one object
+ * and one hash table per node.
+ * <p>
+ * Nodes are numbered in breadth-first order with the root as 0, and the children of a
+ * node are numbered consecutively in order of the character leading to them, so the
+ * children of node v are the nodes [firstChild[v], firstChild[v + 1]) and are found by
+ * binary search on label, the character on the edge into each node. A bit set marks
+ * the nodes where a key ends. That is 6 bytes and a bit per node, against several
+ * dozen for a node with a HashMap of boxed Characters.
+ * <p>
+ * Every key has an int score, and every node also stores the highest score of a key
+ * below it, which lets {@link #topKeysWithPrefix} find the best keys under a prefix by
+ * visiting little more than their paths, however many keys the prefix has.
+ * <p>
+ * Tries are built from a collection of keys in one go and can be written to and read
+ * back from a file, laid out so that reading is a few bulk copies out of a mapped
+ * buffer.
+ */
+public class CompactTrie {
+
+    /**
+     * "BMTR" in ASCII.
+     */
+    private static final int MAGIC = 0x424D5452;
+    /**
+     * Bump whenever the file layout changes.
+     */
+    static final int VERSION = 2;
+
+    /* Top-k heap entries are the node in the low NODE_BITS bits, a flag telling a key
+       from a subtree above it, and above that the score, flipped so the best comes
+       first from a min-heap. */
+    private static final int NODE_BITS = 30;
+    private static final long SUBTREE = 1L << NODE_BITS;
+    private static final int SCORE_SHIFT = NODE_BITS + 1;
+
+    private final char[] labels;
+    private final int[] firstChild;
+    private final long[] terminal;
+    private final int[] scores;
+    private final int[] best;
+    private final int size;
+
+    private CompactTrie(char[] labels, int[] firstChild, long[] terminal, int[] scores,
+                        int[] best, int size) {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.terminal = terminal;
+        this.scores = scores;
+        this.best = best;
+        this.size = size;
+    }
+
+    /**
+     * Builds a trie of KEYS, all with score 0. Duplicates are stored once, and empty
+     * and null keys are ignored.
+     */
+    public CompactTrie(Collection<String> keys) {
+        this(keys, key -> 0);
+    }
+
+    /**
+     * Builds a trie of KEYS, each scored by SCORE. Duplicates are stored once, and empty
+     * and null keys are ignored.
+     *
+     * @throws IllegalArgumentException if the keys need more than 2^30 nodes.
+     */
+    public CompactTrie(Collection<String> keys, ToIntFunction<String> score) {
+        String[] sorted = keys.stream().filter(k -> k != null && !k.isEmpty())
+                .distinct().sorted().toArray(String[]::new);
+        int maxNodes = 1;
+        for (String key : sorted) {
+            maxNodes += key.length();
+        }
+
+        /* Every node stands for the run [lo, hi) of sorted keys that share its prefix of
+           length depth. Visiting runs first in first out numbers the nodes breadth
+           first, and splitting a run by the character at depth lists its children in
+           order. */
+        char[] nodeLabels = new char[maxNodes];
+        int[] children = new int[maxNodes + 1];
+        long[] ends = new long[(maxNodes + 63) >>> 6];
+        int[] lo = new int[maxNodes];
+        int[] hi = new int[maxNodes];
+        int[] depth = new int[maxNodes];
+        int[] nodeScores = new int[maxNodes];
+        hi[0] = sorted.length;
+        int numNodes = 1;
+        for (int v = 0; v < numNodes; v++) {
+            int i = lo[v];
+            int d = depth[v];
+            if (i < hi[v] && sorted[i].length() == d) {
+                ends[v >>> 6] |= 1L << v;
+                nodeScores[v] = score.applyAsInt(sorted[i]);
+                i++;
+            }
+            children[v] = numNodes;
+            while (i < hi[v]) {
+                char c = sorted[i].charAt(d);
+                int j = i + 1;
+                while (j < hi[v] && sorted[j].charAt(d) == c) {
+                    j++;
+                }
+                nodeLabels[numNodes] = c;
+                lo[numNodes] = i;
+                hi[numNodes] = j;
+                depth[numNodes] = d + 1;
+                numNodes++;
+                i = j;
+            }
+        }
+        children[numNodes] = numNodes;
+        if (numNodes > 1 << NODE_BITS) {
+            throw new IllegalArgumentException("Too many nodes for a trie: " + numNodes);
+        }
+
+        this.labels = Arrays.copyOf(nodeLabels, numNodes);
+        this.firstChild = Arrays.copyOf(children, numNodes + 1);
+        this.terminal = Arrays.copyOf(ends, (numNodes + 63) >>> 6);
+        this.scores = Arrays.copyOf(nodeScores, numNodes);
+        this.size = sorted.length;
+
+        /* Children are numbered after their parents, so one backward pass sees every
+           node's children before the node itself. */
+        best = new int[numNodes];
+        for (int v = numNodes - 1; v >= 0; v--) {
+            int b = isKey(v) ? scores[v] : Integer.MIN_VALUE;
+            for (int c = firstChild[v]; c < firstChild[v + 1]; c++) {
+                b = Math.max(b, best[c]);
+            }
+            best[v] = b;
+        }
+    }
+
+    /**
+     * Returns the number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of nodes, the root included.
+     */
+    public int numNodes() {
+        return labels.length;
+    }
+
+    /**
+     * Returns true if the trie contains KEY.
+     */
+    public boolean contains(String key) {
+        if (key == null || key.isEmpty()) {
+            return false;
+        }
+        int v = find(key);
+        return v >= 0 && isKey(v);
+    }
+
+    /**
+     * Returns the score of KEY, or Integer.MIN_VALUE if the trie doesn't contain it.
+     */
+    public int score(String key) {
+        if (key == null || key.isEmpty()) {
+            return Integer.MIN_VALUE;
+        }
+        int v = find(key);
+        return v >= 0 && isKey(v) ? scores[v] : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns KEY if the trie contains it, and null otherwise.
+     */
+    public String keysThatMatch(String key) {
+        return contains(key) ? key : null;
+    }
+
+    /**
+     * Returns every key that starts with PREFIX, in lexicographic order.
+     */
+    public List<String> keysWithPrefix(String prefix) {
+        List<String> keys = new ArrayList<>();
+        int v = find(prefix);
+        if (v >= 0) {
+            collect(v, new StringBuilder(prefix), keys);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the K keys with the highest scores among those that start with PREFIX,
+     * best first, or all of them if there are fewer. Keys with equal scores come in an
+     * unspecified but repeatable order.
+     * <p>
+     * This is a best-first search over the nodes below PREFIX, ordered by the best
+     * score below each. A key is returned once it is better than everything still
+     * unexplored, so the search stops after K keys without looking at the rest.
+     */
+    public List<String> topKeysWithPrefix(String prefix, int k) {
+        List<String> keys = new ArrayList<>();
+        int start = find(prefix);
+        if (start < 0 || k <= 0) {
+            return keys;
+        }
+        LongHeap heap = new LongHeap();
+        pushSubtree(heap, start);
+        int[] found = new int[Math.min(k, size)];
+        int count = top(heap, found, 0);
+        for (int i = 0; i < count; i++) {
+            keys.add(key(start, prefix, found[i]));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the K best keys that start with a string within MAXEDITS edits
+     * (insertions, deletions or substitutions of one character) of QUERY, or all of
+     * them if there are fewer. Keys needing fewer edits come first, and of those the
+     * ones with the highest scores. Meant for edit distances of 1 or 2.
+     * <p>
+     * The trie is walked depth first alongside a Levenshtein automaton for QUERY,
+     * simulated by the row of edit distances between QUERY's prefixes and the current
+     * node's string. No entry of a row is ever smaller than the smallest in its
+     * parent's, so a branch is dropped as soon as its row has nothing within MAXEDITS,
+     * or nothing below the distance already matched higher up. Nodes whose string is
+     * within MAXEDITS of all of QUERY are collected by distance, and their subtrees
+     * ranked by score as in topKeysWithPrefix, closest distance first.
+     *
+     * @throws IllegalArgumentException if MAXEDITS is negative.
+     */
+    public List<String> fuzzyKeysWithPrefix(String query, int maxEdits, int k) {
+        if (maxEdits < 0) {
+            throw new IllegalArgumentException("Edit distance must not be negative: " + maxEdits);
+        }
+        List<String> keys = new ArrayList<>();
+        if (k <= 0 || size == 0) {
+            return keys;
+        }
+        int m = query.length();
+        int[][] rows = new int[m + maxEdits + 2][m + 1];
+        for (int j = 0; j <= m; j++) {
+            rows[0][j] = j;
+        }
+        LongHeap[] matches = new LongHeap[maxEdits + 1];
+        for (int e = 0; e <= maxEdits; e++) {
+            matches[e] = new LongHeap();
+        }
+        walk(0, 0, Integer.MAX_VALUE, query, maxEdits, rows, matches);
+
+        /* A key below matches at several distances is found at the closest first. */
+        int[] found = new int[Math.min(k, size)];
+        int count = 0;
+        for (int e = 0; e <= maxEdits && count < found.length; e++) {
+            count = top(matches[e], found, count);
+        }
+        for (int i = 0; i < count; i++) {
+            keys.add(key(0, "", found[i]));
+        }
+        return keys;
+    }
+
+    /* Visits node V, at DEPTH, whose row of distances to the prefixes of QUERY is
+       ROWS[DEPTH], and the nodes below it. MATCHED is the smallest distance to all of
+       QUERY of the node's ancestors. Nodes that match more closely than that have
+       their subtree pushed onto MATCHES at their distance. */
+    private void walk(int v, int depth, int matched, String query, int maxEdits,
+                      int[][] rows, LongHeap[] matches) {
+        int m = query.length();
+        int[] row = rows[depth];
+        if (row[m] <= maxEdits && row[m] < matched) {
+            matched = row[m];
+            pushSubtree(matches[matched], v);
+        }
+        int min = row[0];
+        for (int j = 1; j <= m; j++) {
+            min = Math.min(min, row[j]);
+        }
+        if (min > maxEdits || min >= matched) {
+            return;
+        }
+        int[] next = rows[depth + 1];
+        for (int c = firstChild[v]; c < firstChild[v + 1]; c++) {
+            char label = labels[c];
+            next[0] = row[0] + 1;
+            for (int j = 1; j <= m; j++) {
+                int substitute = row[j - 1] + (query.charAt(j - 1) == label ? 0 : 1);
+                next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+            }
+            walk(c, depth + 1, matched, query, maxEdits, rows, matches);
+        }
+    }
+
+    /* Pushes the subtree of V onto HEAP, unless it has no keys. */
+    private void pushSubtree(LongHeap heap, int v) {
+        if (best[v] != Integer.MIN_VALUE) {
+            heap.push(entry(best[v], v) | SUBTREE);
+        }
+    }
+
+    /* Adds the best keys in the subtrees on HEAP to FOUND, after the COUNT already in
+       it and skipping those, until it is full, and returns the new count. */
+    private int top(LongHeap heap, int[] found, int count) {
+        int previous = count;
+        while (heap.size > 0 && count < found.length) {
+            long entry = heap.poll();
+            int v = (int) (entry & (SUBTREE - 1));
+            if ((entry & SUBTREE) == 0) {
+                if (indexOf(found, previous, v) < 0) {
+                    found[count++] = v;
+                }
+                continue;
+            }
+            if (isKey(v)) {
+                heap.push(entry(scores[v], v));
+            }
+            for (int c = firstChild[v]; c < firstChild[v + 1]; c++) {
+                pushSubtree(heap, c);
+            }
+        }
+        return count;
+    }
+
+    private static int indexOf(int[] a, int size, int x) {
+        for (int i = 0; i < size; i++) {
+            if (a[i] == x) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long entry(int score, int v) {
+        return ((long) Integer.MAX_VALUE - score) << SCORE_SHIFT | v;
+    }
+
+    /* Returns the key ending at node V, which is below START, the node of PREFIX. */
+    private String key(int start, String prefix, int v) {
+        int length = prefix.length();
+        for (int u = v; u != start; u = parent(u)) {
+            length++;
+        }
+        char[] key = new char[length];
+        prefix.getChars(0, prefix.length(), key, 0);
+        for (int u = v; u != start; u = parent(u)) {
+            key[--length] = labels[u];
+        }
+        return new String(key);
+    }
+
+    /* Returns the parent of node V, the last node whose children start at or before
+       V, by binary search over firstChild. */
+    private int parent(int v) {
+        int lo = 0;
+        int hi = labels.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstChild[mid] <= v) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /* Adds the keys below node V, whose prefix is PREFIX, to KEYS. */
+    private void collect(int v, StringBuilder prefix, List<String> keys) {
+        if (isKey(v)) {
+            keys.add(prefix.toString());
+        }
+        for (int c = firstChild[v]; c < firstChild[v + 1]; c++) {
+            prefix.append(labels[c]);
+            collect(c, prefix, keys);
+            prefix.setLength(prefix.length() - 1);
+        }
+    }
+
+    /* Returns the node reached by following S from the root, or -1 if there is none. */
+    private int find(String s) {
+        int v = 0;
+        for (int i = 0; i < s.length() && v >= 0; i++) {
+            v = child(v, s.charAt(i));
+        }
+        return v;
+    }
+
+    /* Returns the child of V along C, or -1 if there is none. */
+    private int child(int v, char c) {
+        int lo = firstChild[v];
+        int hi = firstChild[v + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (labels[mid] < c) {
+                lo = mid + 1;
+            } else if (labels[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isKey(int v) {
+        return (terminal[v >>> 6] & (1L << v)) != 0;
+    }
+
+    /**
+     * Writes this trie to the file at PATH, replacing it if it exists. The trie is
+     * written to a temporary file next to PATH and moved over it, so PATH never holds a
+     * partly written trie, even if this is interrupted or another process writes it too.
+     * <p>
+     * Layout (little-endian, every section starts on an 8-byte boundary):
+     * <pre>
+     *     int magic, int version, int numNodes, int size
+     *     char[numNodes] labels, int[numNodes + 1] firstChild, long[] terminal bits
+     *     int[numNodes] scores, int[numNodes] best scores below
+     * </pre>
+     */
+    public void write(Path path) throws IOException {
+        int n = numNodes();
+        long bytes = 16 + align(2L * n) + align(4L * (n + 1)) + 8L * terminal.length
+                + align(4L * n) * 2;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Trie is too large for a single file");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(size);
+        for (char label : labels) {
+            buf.putChar(label);
+        }
+        pad(buf);
+        putInts(buf, firstChild);
+        for (long bits : terminal) {
+            buf.putLong(bits);
+        }
+        putInts(buf, scores);
+        putInts(buf, best);
+        buf.flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Maps the trie file at PATH and returns the trie it holds.
+     *
+     * @throws IOException if the file can't be read, was not written by a compatible
+     *                     version of this class, or is truncated or corrupt.
+     */
+    public static CompactTrie read(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < 16 || buf.getInt() != MAGIC) {
+            throw new IOException(path + " is not a trie");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported trie version %d in %s, expected %d",
+                    version, path, VERSION));
+        }
+        int n = buf.getInt();
+        int size = buf.getInt();
+        if (n < 1 || n > 1 << NODE_BITS || size < 0 || size > n) {
+            throw new IOException(path + " is corrupt: " + n + " nodes, " + size + " keys");
+        }
+
+        checkRoom(buf, 2L * n, path);
+        char[] labels = new char[n];
+        buf.asCharBuffer().get(labels);
+        skip(buf, 2L * n);
+        int[] firstChild = getInts(buf, n + 1, path);
+        checkRoom(buf, 8L * ((n + 63) >>> 6), path);
+        long[] terminal = new long[(n + 63) >>> 6];
+        buf.asLongBuffer().get(terminal);
+        buf.position(buf.position() + 8 * terminal.length);
+        int[] scores = getInts(buf, n, path);
+        int[] best = getInts(buf, n, path);
+
+        /* Children come after their parent, so the searches can't run off the arrays. */
+        for (int v = 0; v < n; v++) {
+            if (firstChild[v] <= v || firstChild[v] > firstChild[v + 1]) {
+                throw new IOException(path + " is corrupt: bad children of node " + v);
+            }
+        }
+        if (firstChild[n] != n) {
+            throw new IOException(path + " is corrupt: bad children of node " + n);
+        }
+        return new CompactTrie(labels, firstChild, terminal, scores, best, size);
+    }
+
+    /* Throws an IOException if BUF, read from PATH, has fewer than BYTES left. */
+    private static void checkRoom(ByteBuffer buf, long bytes, Path path) throws IOException {
+        if (bytes > buf.remaining()) {
+            throw new IOException(path + " is truncated");
+        }
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static void pad(ByteBuffer buf) {
+        while ((buf.position() & 7) != 0) {
+            buf.put((byte) 0);
+        }
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values) {
+        for (int value : values) {
+            buf.putInt(value);
+        }
+        pad(buf);
+    }
+
+    private static int[] getInts(ByteBuffer buf, int count, Path path) throws IOException {
+        checkRoom(buf, 4L * count, path);
+        int[] values = new int[count];
+        buf.asIntBuffer().get(values);
+        skip(buf, 4L * count);
+        return values;
+    }
+
+    /* Moves BUF past a section of BYTES and the padding after it, if the file has it. */
+    private static void skip(ByteBuffer buf, long bytes) {
+        buf.position((int) Math.min(align(buf.position() + bytes), buf.limit()));
+    }
+
+    /**
+     * A binary min-heap of longs.
+     */
+    private static class LongHeap {
+        long[] items = new long[16];
+        int size;
+
+        void push(long item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            int i = size++;
+            while (i > 0 && items[(i - 1) >>> 1] > item) {
+                items[i] = items[(i - 1) >>> 1];
+                i = (i - 1) >>> 1;
+            }
+            items[i] = item;
+        }
+
+        long poll() {
+            long top = items[0];
+            long item = items[--size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int c = 2 * i + 1;
+                if (c + 1 < size && items[c + 1] < items[c]) {
+                    c++;
+                }
+                if (items[c] >= item) {
+                    break;
+                }
+                items[i] = items[c];
+                i = c;
+            }
+            items[i] = item;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package bearmaps.utils.trie;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompactTrieTest {
+
+    @Test
+    public void basicTest() {
+        CompactTrie t = new CompactTrie(Arrays.asList("hello", "hi", "help", "zebra", "hi", "", null));
+        assertEquals(4, t.size());
+        assertTrue(t.contains("hello"));
+        assertTrue(t.contains("hi"));
+        assertFalse(t.contains("he"));
+        assertFalse(t.contains("hellos"));
+        assertFalse(t.contains(""));
+        assertEquals("help", t.keysThatMatch("help"));
+        assertNull(t.keysThatMatch("hel"));
+        assertNull(t.keysThatMatch("q"));
+        assertEquals(Arrays.asList("hello", "help"), t.keysWithPrefix("hel"));
+        assertEquals(Arrays.asList("hello", "help", "hi", "zebra"), t.keysWithPrefix(""));
+        assertEquals(Collections.emptyList(), t.keysWithPrefix("x"));
+    }
+
+    @Test
+    public void topKeysTest() {
+        List<String> words = Arrays.asList("ab", "abc", "abd", "b", "ba", "bab");
+        CompactTrie t = new CompactTrie(words, String::length);
+        assertEquals(Arrays.asList("abc", "abd"), t.topKeysWithPrefix("a", 2));
+        assertEquals(Arrays.asList("bab", "ba", "b"), t.topKeysWithPrefix("b", 5));
+        assertEquals(Collections.emptyList(), t.topKeysWithPrefix("c", 5));
+        assertEquals(Collections.emptyList(), t.topKeysWithPrefix("a", 0));
+        assertEquals(3, t.score("abd"));
+        assertEquals(Integer.MIN_VALUE, t.score("a"));
+    }
+
+    @Test
+    public void fuzzyTest() {
+        CompactTrie t = new CompactTrie(Arrays.asList("shattuck", "shattuck avenue", "college", "colleges"),
+                String::length);
+        assertEquals(Arrays.asList("shattuck avenue", "shattuck"), t.fuzzyKeysWithPrefix("shatuck", 1, 5));
+        assertEquals(Collections.emptyList(), t.fuzzyKeysWithPrefix("shatck", 1, 5));
+        assertEquals(Arrays.asList("colleges", "college"), t.fuzzyKeysWithPrefix("colege", 2, 5));
+        assertEquals(Arrays.asList("colleges"), t.fuzzyKeysWithPrefix("collage", 1, 1));
+        assertEquals(Arrays.asList("shattuck avenue"), t.fuzzyKeysWithPrefix("sh", 0, 1));
+    }
+
+    @Test
+    public void emptyTest() {
+        CompactTrie t = new CompactTrie(Collections.emptyList());
+        assertEquals(0, t.size());
+        assertEquals(1, t.numNodes());
+        assertFalse(t.contains("a"));
+        assertEquals(Collections.emptyList(), t.keysWithPrefix(""));
+    }
+
+    @Test
+    public void truncatedTest() throws IOException {
+        List<String> keys = Arrays.asList("berkeley", "bowl", "top dog", "doe library");
+        CompactTrie t = new CompactTrie(keys, String::length);
+        Path dir = Files.createTempDirectory("trie");
+        Path file = dir.resolve("names.trie");
+        Path truncated = dir.resolve("truncated.trie");
+        try {
+            t.write(file);
+            t.write(file);
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(1, files.count());
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            for (int length = 0; length < bytes.length; length++) {
+                Files.write(truncated, Arrays.copyOf(bytes, length));
+                try {
+                    CompactTrie read = CompactTrie.read(truncated);
+                    /* Only the padding after the last section can be lost unnoticed. */
+                    assertTrue(length > bytes.length - 8);
+                    assertEquals(t.keysWithPrefix(""), read.keysWithPrefix(""));
+                } catch (IOException e) {
+                    assertTrue(length < bytes.length);
+                }
+            }
+
+            /* A node count too large for the file. */
+            byte[] corrupt = bytes.clone();
+            corrupt[8] = (byte) 0xff;
+            corrupt[9] = (byte) 0xff;
+            Files.write(truncated, corrupt);
+            try {
+                CompactTrie.read(truncated);
+                fail("Read a trie with a corrupt node count");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains(truncated.toString()));
+            }
+        } finally {
+            Files.deleteIfExists(truncated);
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void randomTest() throws IOException {
+        Random random = new Random(5);
+        TreeSet<String> keys = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            keys.add(randomWord(random));
+        }
+        CompactTrie t = new CompactTrie(keys, CompactTrieTest::hash);
+        Path file = Files.createTempFile("trie", ".bin");
+        try {
+            t.write(file);
+            for (CompactTrie trie : Arrays.asList(t, CompactTrie.read(file))) {
+                assertEquals(keys.size(), trie.size());
+                assertEquals(new ArrayList<>(keys), trie.keysWithPrefix(""));
+                for (int q = 0; q < 2000; q++) {
+                    String word = randomWord(random);
+                    assertEquals(keys.contains(word), trie.contains(word));
+                    String prefix = word.substring(0, Math.min(word.length(), 2));
+                    List<String> expected = new ArrayList<>(
+                            keys.subSet(prefix, true, prefix + Character.MAX_VALUE, false));
+                    assertEquals(expected, trie.keysWithPrefix(prefix));
+
+                    int k = random.nextInt(10);
+                    List<String> top = trie.topKeysWithPrefix(prefix, k);
+                    assertEquals(Math.min(k, expected.size()), top.size());
+                    expected.sort((a, b) -> Integer.compare(hash(b), hash(a)));
+                    for (int i = 0; i < top.size(); i++) {
+                        assertTrue(keys.contains(top.get(i)) && top.get(i).startsWith(prefix));
+                        assertEquals(hash(expected.get(i)), trie.score(top.get(i)));
+                    }
+
+                    String query = word.substring(0, Math.min(word.length(), 4));
+                    int edits = random.nextInt(3);
+                    List<String> fuzzy = new ArrayList<>();
+                    for (String key : keys) {
+                        if (prefixDistance(query, key) <= edits) {
+                            fuzzy.add(key);
+                        }
+                    }
+                    fuzzy.sort((a, b) -> prefixDistance(query, a) != prefixDistance(query, b)
+                            ? Integer.compare(prefixDistance(query, a), prefixDistance(query, b))
+                            : Integer.compare(hash(b), hash(a)));
+                    List<String> actual = trie.fuzzyKeysWithPrefix(query, edits, k);
+                    assertEquals(Math.min(k, fuzzy.size()), actual.size());
+                    for (int i = 0; i < actual.size(); i++) {
+                        assertEquals(prefixDistance(query, fuzzy.get(i)), prefixDistance(query, actual.get(i)));
+                        assertEquals(hash(fuzzy.get(i)), hash(actual.get(i)));
+                    }
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /* Returns the fewest edits turning QUERY into a prefix of KEY. */
+    private static int prefixDistance(String query, String key) {
+        int m = query.length();
+        int[] row = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            row[j] = j;
+        }
+        int best = row[m];
+        for (int i = 0; i < key.length(); i++) {
+            int[] next = new int[m + 1];
+            next[0] = i + 1;
+            for (int j = 1; j <= m; j++) {
+                int cost = query.charAt(j - 1) == key.charAt(i) ? 0 : 1;
+                next[j] = Math.min(row[j - 1] + cost, Math.min(row[j], next[j - 1]) + 1);
+            }
+            row = next;
+            best = Math.min(best, row[m]);
+        }
+        return best;
+    }
+
+    /* Scores with plenty of ties. */
+    private static int hash(String s) {
+        return Math.floorMod(s.hashCode(), 7) - 3;
+    }
+
+    private static String randomWord(Random random) {
+        char[] word = new char[1 + random.nextInt(6)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(5));
+        }
+        return new String(word);
+    }
+}
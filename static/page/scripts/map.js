@@ -59,6 +59,7 @@ $(function() {
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
+    const search_limit = 10;
 
     /* ════════════════════════════ ೋღ HELPERS ღೋ ══════════════════════════ */
     function get_londpp() { return (ROOT_LRLON - ROOT_ULLON) / 256 / Math.pow(2, depth); }
@@ -314,7 +315,22 @@ $(function() {
 
     /* Make search bar do autocomplete things */
     $('#tags').autocomplete({
-          source: search,
+          source: function (request, response) {
+              /* Names starting with the term nearest the center of the map, else names
+               * with its words anywhere, else names starting with it give or take a typo. */
+              const modes = [{ lat: lat, lon: lon }, { words: true }, { fuzzy: 1 }];
+              function next(i) {
+                  const params = $.extend({ term: request.term, limit: search_limit }, modes[i]);
+                  $.getJSON(search, params, function (data) {
+                      if (data.length > 0 || i === modes.length - 1) {
+                          response(data);
+                      } else {
+                          next(i + 1);
+                      }
+                  });
+              }
+              next(0);
+          },
           minLength: 2,
           select: function (event, ui) {
               $.get({